@@ -0,0 +1,138 @@
+package se.fk.sfsreader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.fk.sfsreader.model.Lag;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * State of the adaptive source mode: per law, the digests of the text and HTML payloads of the
+ * last hybrid parse together with the primary structure and the reconciliation it produced.
+ * When a law comes back with the same payloads (and metadata), and its reconciliation had no
+ * HIGH findings outside the baseline, the stored structure is reused and neither payload is
+ * parsed. Anything else -- changed payloads, a rebuilt parser, findings to look at -- gives a
+ * full hybrid parse, which then replaces the stored state.
+ * <p>
+ * Unlike {@link ParseCache}, which is keyed on the whole input file, the state is keyed on the
+ * law, so a dokumentstatus file whose wrapper changed but whose payloads did not still hits,
+ * and only the latest version of each law is kept.
+ */
+final class AdaptiveStore {
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveStore.class);
+
+    static final String DEFAULT_DIRECTORY = ".sfsreader-adaptive";
+    private static final String SUFFIX = ".state";
+
+    private static final ObjectInputFilter FILTER =
+            ObjectInputFilter.Config.createFilter("se.fk.sfsreader.**;java.util.*;java.lang.*;!*");
+
+    private final Path directory;
+
+    AdaptiveStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * The stored parse of the law in {@code sources}, if it may be reused.
+     */
+    Optional<ParseCache.Entry> get(DocumentSources sources, String name, Set<String> baseline) {
+        // Taken before anything else: the payload digests can no longer be computed once a
+        // single-use source has handed its payloads to the parsers, and put() needs them
+        String fingerprint = fingerprint(sources);
+        Path file = file(sources, name);
+        State state;
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            in.setObjectInputFilter(FILTER);
+            state = (State) in.readObject();
+        } catch (NoSuchFileException nsfe) {
+            return Optional.empty();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            log.warn("Discarding unreadable adaptive state {}: {}", file.getFileName(), e.getMessage());
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ioe) {
+                log.warn("Could not remove adaptive state {}: {}", file, ioe.getMessage());
+            }
+            return Optional.empty();
+        }
+
+        if (!state.fingerprint().equals(fingerprint)) {
+            log.info("Payloads of '{}' changed since the last run; doing a full hybrid parse", name);
+            return Optional.empty();
+        }
+        long newHigh = state.reconciliation().findings().stream()
+                .filter(f -> f.severity() == HybridReconciler.Severity.HIGH)
+                .filter(f -> !baseline.contains(f.key()))
+                .count();
+        if (newHigh > 0) {
+            log.info("Last reconciliation of '{}' had {} HIGH findings outside the baseline; doing a full hybrid parse", name, newHigh);
+            return Optional.empty();
+        }
+        log.info("Payloads of '{}' unchanged; reusing the primary structure of the last run", name);
+        return Optional.of(new ParseCache.Entry(state.html(), null, state.reconciliation()));
+    }
+
+    /**
+     * Remembers a hybrid parse. Parses without a reconciliation (one of the payloads missing)
+     * are not stored, since there is no reconciliation to judge a later reuse by.
+     */
+    void put(DocumentSources sources, String name, ParseCache.Entry entry) throws IOException {
+        if (entry.html() == null || entry.reconciliation() == null) {
+            return;
+        }
+        Path file = file(sources, name);
+        Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024))) {
+                out.writeObject(new State(fingerprint(sources), entry.html(), entry.reconciliation()));
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Path file(DocumentSources sources, String name) {
+        String law = sources.id().orElse(name).replaceAll("[^A-Za-z0-9._-]", "-");
+        return directory.resolve(law + SUFFIX);
+    }
+
+    /**
+     * Everything the stored structure was derived from: parser version, payload digests and the metadata handed to the processors.
+     */
+    private static String fingerprint(DocumentSources sources) {
+        return String.join("\n",
+                ParseCache.parserVersion(),
+                sources.textDigest().orElse("-"),
+                sources.htmlDigest().orElse("-"),
+                sources.title().orElse("-"),
+                sources.id().orElse("-"));
+    }
+
+    private record State(
+            String fingerprint,
+            Lag html,
+            HybridReconciler.Result reconciliation
+    ) implements Serializable {
+        private State {
+            Objects.requireNonNull(fingerprint);
+            Objects.requireNonNull(html);
+            Objects.requireNonNull(reconciliation);
+        }
+    }
+}
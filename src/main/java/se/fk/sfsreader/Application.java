@@ -3,30 +3,50 @@ package se.fk.sfsreader;
 import org.apache.commons.cli.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
 import se.fk.sfsreader.model.Lag;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
 
 import java.io.*;
-import java.nio.charset.Charset;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HexFormat;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.zip.GZIPOutputStream;
 
 public class Application {
     private final static Logger log = LogManager.getLogger(Application.class);
 
+    private static final Duration WATCH_DEBOUNCE = Duration.ofMillis(500);
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final int GZIP_BUFFER = 64 * 1024;
+    private static final long DEFAULT_CACHE_MAX_MB = 512;
+    private static final long DEFAULT_LEASE_SECONDS = 120;
+    private static final Duration FETCH_BACKOFF = Duration.ofSeconds(1);
+
     private static final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
 
     public static void main(String[] args) {
@@ -64,7 +84,7 @@ public class Application {
         options.addOption(Option.builder("s")
                 .required(false)
                 .hasArg()
-                .desc("Source mode: html | text | hybrid (default)")
+                .desc("Source mode: html | text | hybrid (default) | adaptive | chapterwise")
                 .longOpt("source-mode")
                 .get());
         options.addOption(Option.builder("b")
@@ -73,6 +93,12 @@ public class Application {
                 .desc("Baseline file with allowlisted reconciliation finding keys")
                 .longOpt("reconciliation-baseline")
                 .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg()
+                .desc("Anomaly list (e.g. sfb-anomalier.txt) whose K<chapter> anchors are always parsed from HTML in chapterwise mode")
+                .longOpt("anomaly-list")
+                .get());
         options.addOption(Option.builder("f")
                 .required(false)
                 .hasArg(false)
@@ -88,9 +114,15 @@ public class Application {
         options.addOption(Option.builder("e")
                 .required(false)
                 .hasArg()
-                .desc("Effective legal date for selecting active paragraph variants (YYYY-MM-DD)")
+                .desc("Effective legal date(s) for selecting active paragraph variants (YYYY-MM-DD[,YYYY-MM-DD...])")
                 .longOpt("effective-date")
                 .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg(false)
+                .desc("Produce output for today and every upcoming dated periodisering transition")
+                .longOpt("all-transition-dates")
+                .get());
         options.addOption(Option.builder()
                 .required(false)
                 .hasArg(false)
@@ -103,13 +135,181 @@ public class Application {
                 .desc("Periodisering validation mode: strict | lenient | off (default: lenient)")
                 .longOpt("periodisering-mode")
                 .get());
+        options.addOption(Option.builder("r")
+                .required(false)
+                .hasArg()
+                .desc("Corpus mode: root directory for per-document output (default: next to each input file)")
+                .longOpt("output-root")
+                .get());
+        options.addOption(Option.builder("j")
+                .required(false)
+                .hasArg()
+                .desc("Corpus/serve/fetch mode: number of documents processed (fetch mode: downloaded) in parallel (default: number of processors)")
+                .longOpt("jobs")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg()
+                .desc("Serve mode: accept documents over HTTP on this local port (POST /process)")
+                .longOpt("serve")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg()
+                .desc("Watch mode: reprocess changed *.txt.xml/*.html/*.dokumentstatus.json files (also gzipped, .gz) in this directory")
+                .longOpt("watch")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg()
+                .desc("Cache parsed documents in this directory, keyed on content, source mode and parser version")
+                .longOpt("cache-dir")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg()
+                .desc("Upper bound for the size of the cache in MB; least recently used entries are evicted (default: " + DEFAULT_CACHE_MAX_MB + ")")
+                .longOpt("cache-max-mb")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg(false)
+                .desc("Remove cached entries for the given input files (all entries if no input files), then exit")
+                .longOpt("invalidate-cache")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg(false)
+                .desc("Corpus mode: skip documents that the journal of an earlier run records as complete, and let partially processed ones skip their finished stages")
+                .longOpt("resume")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg()
+                .desc("Copy the given input files into the work queue in this (shared) directory, then exit")
+                .longOpt("enqueue")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg()
+                .desc("Process documents from the work queue in this (shared) directory until none is left")
+                .longOpt("worker")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg()
+                .desc("Report progress of the work queue in this (shared) directory and re-queue expired leases, then exit")
+                .longOpt("coordinate")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg()
+                .desc("Work queue: seconds without heartbeat after which a lease expires (default: " + DEFAULT_LEASE_SECONDS + ")")
+                .longOpt("lease-seconds")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg()
+                .desc("Corpus mode: run the stages as a pipeline with this many threads for read,parse,reconcile,evaluate,render (e.g. 1,4,2,2,1) instead of --jobs documents start to finish")
+                .longOpt("pipeline")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg()
+                .desc("Heap in MB that the large parse stages may hold at once; stages that would exceed it wait for others, e.g. the two payload parses of hybrid mode run one after another")
+                .longOpt("heap-budget")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg(false)
+                .desc("Write the reports of a document as one zip (" + ReportBundle.FILE_NAME + ") with a manifest of sizes and SHA-256 checksums, published atomically; LaTeX output is written as usual")
+                .longOpt("bundle")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg()
+                .desc("Date to use as today (YYYY-MM-DD): reference date of the periodisering schedule and --all-transition-dates, and the date in LaTeX output (default: the system clock)")
+                .longOpt("today")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg(false)
+                .desc("Byte-for-byte reproducible output: canonical JSON, bundle entries in name order with fixed times, and a .sha256 digest beside every output; needs --today or SOURCE_DATE_EPOCH")
+                .longOpt("reproducible")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg(false)
+                .desc("Write output.json and the reports gzip-compressed, as <name>.gz (LaTeX output and stage-metrics.json are not compressed); an --output-json path ending in .gz is compressed also without it")
+                .longOpt("gzip")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg()
+                .desc("Fetch mode: download the dokumentstatus XML of the SFS ids given as arguments (e.g. 2010:110, or files of ids, one per line) into this directory, in parallel (--jobs)")
+                .longOpt("fetch")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg()
+                .desc("Fetch mode: requests per second at most, in total (default: " + (int) BulkFetcher.DEFAULT_REQUESTS_PER_SECOND + ")")
+                .longOpt("fetch-rate")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg()
+                .desc("Fetch mode: where to download from (default: " + BulkFetcher.DEFAULT_BASE_URI + ")")
+                .longOpt("fetch-url")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg(false)
+                .desc("Fetch mode: process each document as in corpus mode as soon as it is downloaded; documents the journal records as complete for the same content and settings are not reprocessed")
+                .longOpt("process")
+                .get());
+        options.addOption(Option.builder()
+                .required(false)
+                .hasArg()
+                .desc("Only take the documents of input directories and zip archives with these SFS ids (e.g. 2010:110) or file names (globs, e.g. sfs-2010-*), comma separated")
+                .longOpt("select")
+                .get());
 
         try {
             CommandLineParser parser = new DefaultParser();
             CommandLine commandLine = parser.parse(options, args);
+            if (commandLine.hasOption("heap-budget")) {
+                HeapBudget.setGlobal(new HeapBudget(parseHeapBudget(commandLine.getOptionValue("heap-budget"))));
+            }
+
+            if (commandLine.hasOption("serve")) {
+                int port = parsePort(commandLine.getOptionValue("serve"));
+                ParseServer server = new ParseServer(port, parseJobs(commandLine.getOptionValue("j")));
+                Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "serve-shutdown"));
+                server.start();
+                System.out.println("Serving on http://localhost:" + server.port() + "/process");
+                return;
+            }
+
+            Optional<ParseCache> cache = Optional.empty();
+            if (commandLine.hasOption("cache-dir")) {
+                cache = Optional.of(new ParseCache(
+                        Path.of(commandLine.getOptionValue("cache-dir")), parseCacheMaxBytes(commandLine.getOptionValue("cache-max-mb"))));
+            } else if (commandLine.hasOption("invalidate-cache")) {
+                throw new IllegalArgumentException("--invalidate-cache requires --cache-dir");
+            }
 
-            Path inputFile = null;
-            for (String _inputFile : commandLine.getArgs()) {
+            Predicate<Path> selection = Optional.ofNullable(commandLine.getOptionValue("select"))
+                    .map(CorpusRunner::selection)
+                    .orElse(p -> true);
+            // The arguments of fetch mode are SFS ids rather than input files
+            boolean fetch = commandLine.hasOption("fetch");
+            if (!fetch && commandLine.hasOption("process")) {
+                throw new IllegalArgumentException("--process requires --fetch");
+            }
+            List<Path> inputFiles = new ArrayList<>();
+            boolean sawDirectory = false;
+            boolean sawArchive = false;
+            for (String _inputFile : fetch ? new String[0] : commandLine.getArgs()) {
                 Path path = Path.of(_inputFile);
                 File file = path.toFile();
                 if (!file.exists()) {
@@ -120,7 +320,54 @@ public class Application {
                     System.err.println("Can't read file: " + _inputFile);
                     System.exit(1);
                 }
-                inputFile = path;
+                if (file.isDirectory()) {
+                    sawDirectory = true;
+                }
+                if (ArchiveInput.isArchive(path)) {
+                    // Its documents get output namespaces as those of a directory do
+                    sawDirectory = true;
+                    sawArchive = true;
+                }
+                inputFiles.addAll(CorpusRunner.expand(path, selection));
+            }
+            if (commandLine.hasOption("invalidate-cache")) {
+                ParseCache parseCache = cache.get();
+                int removed = inputFiles.isEmpty() ? parseCache.clear() : parseCache.invalidate(inputFiles);
+                System.out.println("Removed " + removed + " cache entries from " + parseCache.directory());
+                return;
+            }
+            Duration leaseTimeout = parseLeaseTimeout(commandLine.getOptionValue("lease-seconds"));
+            if (commandLine.hasOption("enqueue")) {
+                if (sawArchive) {
+                    throw new IllegalArgumentException("--enqueue takes files and directories, not zip archives");
+                }
+                if (inputFiles.isEmpty()) {
+                    System.err.println("No input files");
+                    System.exit(1);
+                }
+                WorkQueue queue = new WorkQueue(Path.of(commandLine.getOptionValue("enqueue")), leaseTimeout);
+                System.out.println("Enqueued " + queue.enqueue(inputFiles) + " documents in " + queue.directory());
+                return;
+            }
+            if (commandLine.hasOption("coordinate")) {
+                WorkQueue queue = new WorkQueue(Path.of(commandLine.getOptionValue("coordinate")), leaseTimeout);
+                List<String> requeued = queue.requeueExpired();
+                System.out.print(queue.status().asText());
+                if (!requeued.isEmpty()) {
+                    System.out.println("Re-queued after expired lease: " + String.join(", ", requeued));
+                }
+                return;
+            }
+            Path watchDirectory = null;
+            if (commandLine.hasOption("watch")) {
+                watchDirectory = Path.of(commandLine.getOptionValue("watch"));
+                if (!Files.isDirectory(watchDirectory)) {
+                    System.err.println("Not a directory: " + watchDirectory);
+                    System.exit(1);
+                }
+            } else if (inputFiles.isEmpty() && !commandLine.hasOption("worker") && !fetch) {
+                System.err.println("No input files");
+                System.exit(1);
             }
 
             final Collection<Path> templates = new ArrayList<>();
@@ -173,162 +420,694 @@ public class Application {
 
             SourceMode sourceMode = SourceMode.from(commandLine.getOptionValue("s"));
             ReconciliationOptions reconciliationOptions = ReconciliationOptions.from(commandLine);
-            Optional<LocalDate> effectiveDate = parseEffectiveDate(commandLine.getOptionValue("e"));
+            List<LocalDate> effectiveDates = parseEffectiveDates(commandLine.getOptionValue("e"));
+            boolean allTransitionDates = commandLine.hasOption("all-transition-dates");
             PeriodiseringMode periodiseringMode = PeriodiseringMode.from(
                     commandLine.getOptionValue("periodisering-mode"),
                     commandLine.hasOption("strict-periodisering")
             );
             Optional<Path> outputJsonPath = Optional.ofNullable(commandLine.getOptionValue("o"))
                     .map(Path::of);
+            if (outputJsonPath.isPresent() && (effectiveDates.size() > 1 || allTransitionDates)) {
+                throw new IllegalArgumentException("--output-json cannot be used with several effective dates");
+            }
+            if (reconciliationOptions.anomalyListPath().isPresent() && sourceMode != SourceMode.CHAPTERWISE) {
+                throw new IllegalArgumentException("--anomaly-list requires --source-mode chapterwise");
+            }
+            boolean bundle = commandLine.hasOption("bundle");
+            if (bundle && outputJsonPath.isPresent()) {
+                throw new IllegalArgumentException("--output-json cannot be used with --bundle; output.json is an entry of the bundle");
+            }
+            boolean gzip = commandLine.hasOption("gzip");
+            if (gzip && bundle) {
+                throw new IllegalArgumentException("--gzip cannot be used with --bundle; the bundle is compressed already");
+            }
+            boolean reproducible = commandLine.hasOption("reproducible");
+            Clock clock = parseClock(commandLine.getOptionValue("today"), reproducible, System.getenv("SOURCE_DATE_EPOCH"));
+            RunSettings settings = new RunSettings(
+                    templates, sourceMode, reconciliationOptions, effectiveDates, allTransitionDates, periodiseringMode, cache, bundle,
+                    clock, reproducible, gzip);
+
+            if (fetch) {
+                if (outputJsonPath.isPresent() || reconciliationOptions.writeBaselinePath().isPresent()) {
+                    throw new IllegalArgumentException("--output-json and --write-reconciliation-baseline cannot be used with --fetch");
+                }
+                List<String> ids = BulkFetcher.ids(commandLine.getArgList());
+                if (ids.isEmpty()) {
+                    System.err.println("No SFS ids");
+                    System.exit(1);
+                }
+                Path fetchDirectory = Path.of(commandLine.getOptionValue("fetch"));
+                Path outputRoot = Optional.ofNullable(commandLine.getOptionValue("r")).map(Path::of).orElse(null);
+                int jobs = parseJobs(commandLine.getOptionValue("j"));
+                boolean process = commandLine.hasOption("process");
+                // Processed documents are journaled as in corpus mode, and always resumed from the journal
+                Path journalFile = outputRoot != null ? outputRoot.resolve(CorpusJournal.FILE_NAME) : Path.of(CorpusJournal.FILE_NAME);
+                BulkFetcher.Summary summary;
+                try (HttpFetcher http = new HttpFetcher(fetchDirectory.resolve(BulkFetcher.CACHE_DIRECTORY), jobs);
+                     CorpusJournal journal = process ? CorpusJournal.open(journalFile, settings.fingerprint(directory), true) : null) {
+                    BulkFetcher fetcher = new BulkFetcher(http, parseFetchUrl(commandLine.getOptionValue("fetch-url")), jobs,
+                            parseFetchRate(commandLine.getOptionValue("fetch-rate")), FETCH_BACKOFF);
+                    summary = fetcher.run(ids, fetchDirectory, process ? corpusTask(directory, settings) : null, outputRoot, journal);
+                }
+                System.out.print(summary.asText());
+                System.out.flush();
+                if (summary.failed() > 0) {
+                    System.exit(summary.exitCode());
+                }
+                return;
+            }
+
+            if (commandLine.hasOption("worker")) {
+                if (outputJsonPath.isPresent() || reconciliationOptions.writeBaselinePath().isPresent()) {
+                    throw new IllegalArgumentException("--output-json and --write-reconciliation-baseline cannot be used with --worker");
+                }
+                WorkQueue queue = new WorkQueue(Path.of(commandLine.getOptionValue("worker")), leaseTimeout);
+                boolean latex = !templates.isEmpty();
+                QueueWorker worker = new QueueWorker(queue, parseJobs(commandLine.getOptionValue("j")),
+                        // LaTeX output is published together with the reports of the document
+                        (inputFile, outputDirectory, progress) -> process(inputFile, outputDirectory, latex ? outputDirectory : null,
+                                Optional.empty(), System.out, settings, progress));
+                List<WorkQueue.Result> results = worker.run();
+                long failed = results.stream().filter(r -> !r.succeeded()).count();
+                System.out.println("Worker processed " + results.size() + " documents (" + failed + " failed)");
+                System.out.print(queue.status().asText());
+                if (failed > 0) {
+                    System.exit(results.stream().mapToInt(WorkQueue.Result::exitCode).max().orElse(0));
+                }
+                return;
+            }
+
+            if (commandLine.hasOption("watch")) {
+                if (outputJsonPath.isPresent() || reconciliationOptions.writeBaselinePath().isPresent()) {
+                    throw new IllegalArgumentException("--output-json and --write-reconciliation-baseline cannot be used with --watch");
+                }
+                Path outputRoot = Optional.ofNullable(commandLine.getOptionValue("r")).map(Path::of).orElse(null);
+                DirectoryWatcher watcher = new DirectoryWatcher(
+                        watchDirectory, outputRoot, settings.fingerprint(directory), parseJobs(commandLine.getOptionValue("j")), WATCH_DEBOUNCE,
+                        corpusTask(directory, settings));
+                watcher.run(summary -> {
+                    System.out.print(summary.asText());
+                    System.out.flush();
+                });
+                return;
+            }
+
+            boolean corpusMode = inputFiles.size() > 1 || sawDirectory || commandLine.hasOption("r");
+            if (!corpusMode && commandLine.hasOption("resume")) {
+                throw new IllegalArgumentException("--resume requires corpus mode (several input files, a directory or --output-root)");
+            }
+            if (!corpusMode && commandLine.hasOption("pipeline")) {
+                throw new IllegalArgumentException("--pipeline requires corpus mode (several input files, a directory or --output-root)");
+            }
+            if (!corpusMode) {
+                Path inputFile = inputFiles.getFirst();
+                try {
+                    process(inputFile, inputFile.toAbsolutePath().getParent(), directory, outputJsonPath, System.out, settings, CorpusJournal.Progress.NONE);
+                } catch (ProcessingException pe) {
+                    System.err.println(pe.getMessage());
+                    System.exit(pe.exitCode());
+                }
+                return;
+            }
 
             //
-            process(inputFile, templates, directory, System.out, sourceMode, reconciliationOptions, effectiveDate, periodiseringMode, outputJsonPath);
+            if (outputJsonPath.isPresent()) {
+                throw new IllegalArgumentException("--output-json cannot be used with several input files; use --output-root");
+            }
+            if (reconciliationOptions.writeBaselinePath().isPresent()) {
+                throw new IllegalArgumentException("--write-reconciliation-baseline cannot be used with several input files");
+            }
+            Path outputRoot = Optional.ofNullable(commandLine.getOptionValue("r")).map(Path::of).orElse(null);
+            int jobs = parseJobs(commandLine.getOptionValue("j"));
+
+            Map<Path, Path> namespaces = CorpusRunner.namespaces(inputFiles, outputRoot);
+            Path journalFile = outputRoot != null ? outputRoot.resolve(CorpusJournal.FILE_NAME) : Path.of(CorpusJournal.FILE_NAME);
+            CorpusRunner.Summary summary;
+            try (CorpusJournal journal = CorpusJournal.open(journalFile, settings.fingerprint(directory), commandLine.hasOption("resume"))) {
+                if (commandLine.hasOption("pipeline")) {
+                    CorpusPipeline.Parallelism parallelism = CorpusPipeline.Parallelism.of(commandLine.getOptionValue("pipeline"));
+                    summary = new CorpusPipeline(parallelism, journal).run(namespaces, pipelineTask(directory, settings));
+                } else {
+                    summary = new CorpusRunner(jobs, journal).run(namespaces, corpusTask(directory, settings));
+                }
+            }
+
+            System.out.print(summary.asText());
+            System.out.flush();
+            if (summary.failed() > 0) {
+                System.exit(summary.exitCode());
+            }
         } catch (Throwable t) {
             log.error(t.getMessage(), t);
             t.printStackTrace(System.err);
         }
     }
 
-    private static void process(final Path inputFile, final Collection<Path> templates, final Path directory, final PrintStream out, final SourceMode sourceMode, final ReconciliationOptions reconciliationOptions, final Optional<LocalDate> effectiveDate, final PeriodiseringMode periodiseringMode, final Optional<Path> outputJsonPath) {
+    /**
+     * Processes a document into its own output namespace, as done in corpus and watch modes.
+     * LaTeX output goes to a subdirectory of {@code latexRoot} named after the namespace.
+     */
+    private static CorpusRunner.DocumentTask corpusTask(final Path latexRoot, final RunSettings settings) {
+        return (inputFile, outputDirectory, progress) -> {
+            Path latexDirectory = null;
+            if (latexRoot != null) {
+                latexDirectory = latexRoot.resolve(outputDirectory.getFileName());
+                try {
+                    Files.createDirectories(latexDirectory);
+                } catch (IOException ioe) {
+                    throw new ProcessingException(3, "Could not create output directory: " + latexDirectory, ioe);
+                }
+            }
+            process(inputFile, outputDirectory, latexDirectory, Optional.empty(), System.out, settings, progress);
+        };
+    }
+
+    /**
+     * Processes a single input document. All reports are written into {@code outputDirectory}
+     * and LaTeX output (if templates are given) into {@code latexDirectory}. Finished stages are
+     * reported to {@code progress}, and stages it reports as done by an earlier run are skipped.
+     */
+    static void process(final Path inputFile, final Path outputDirectory, final Path latexDirectory, final Optional<Path> outputJsonPath, final PrintStream out, final RunSettings settings, final CorpusJournal.Progress progress) throws ProcessingException {
+        DocumentRun run = new DocumentRun(inputFile, outputDirectory, latexDirectory, outputJsonPath, out, settings, progress);
+        ProcessingException failure = null;
         try {
-            DocumentSources sourceStreams = DocumentSources.from(inputFile, StandardCharsets.UTF_8);
-            String lagName = sourceStreams.title().orElse("Unknown law");
-            String lagId = sourceStreams.id().orElse("unknown");
-            HtmlProcessor htmlProcessor = new HtmlProcessor(lagName, lagId);
-            TextProcessor textProcessor = new TextProcessor(lagName, lagId);
-
-            Optional<Lag> lagFromHtml = Optional.empty();
-            if (sourceMode.parseHtml()) {
-                Optional<InputStream> htmlStream = sourceStreams.openHtmlStream();
-                if (htmlStream.isPresent()) {
-                    try (InputStream is = htmlStream.get()) {
-                        lagFromHtml = pullFromStream(is, "http://nope.local", StandardCharsets.UTF_8, htmlProcessor);
+            run.extract();
+            run.parse();
+            for (DocumentRun.Output output : run.reconcile()) {
+                try {
+                    run.evaluate(output);
+                    run.render(output);
+                } catch (ProcessingException pe) {
+                    // Produce the remaining dates before failing
+                    if (failure == null) {
+                        failure = pe;
                     }
                 }
             }
+        } catch (ProcessingException pe) {
+            failure = pe;
+        }
+        run.finish(failure);
+        if (failure != null) {
+            throw failure;
+        }
+    }
 
-            Optional<Lag> lagFromText = Optional.empty();
-            if (sourceMode.parseText()) {
-                Optional<InputStream> textStream = sourceStreams.openTextStream();
-                if (textStream.isPresent()) {
-                    try (InputStream is = textStream.get();
-                         Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8)) {
-                        lagFromText = pullFromText(reader, textProcessor);
+    /**
+     * Processes documents into their own output namespaces as {@link #corpusTask} does, with the
+     * stages of {@link DocumentRun} run by a {@link CorpusPipeline}.
+     */
+    private static CorpusPipeline.StagedTask<DocumentRun, DocumentRun.Output> pipelineTask(final Path latexRoot, final RunSettings settings) {
+        return new CorpusPipeline.StagedTask<>() {
+            @Override
+            public DocumentRun start(Path inputFile, Path outputDirectory, CorpusJournal.Progress progress) throws ProcessingException {
+                Path latexDirectory = null;
+                if (latexRoot != null) {
+                    latexDirectory = latexRoot.resolve(outputDirectory.getFileName());
+                    try {
+                        Files.createDirectories(latexDirectory);
+                    } catch (IOException ioe) {
+                        throw new ProcessingException(3, "Could not create output directory: " + latexDirectory, ioe);
                     }
                 }
+                return new DocumentRun(inputFile, outputDirectory, latexDirectory, Optional.empty(), System.out, settings, progress);
+            }
+
+            @Override
+            public void extract(DocumentRun run) throws ProcessingException {
+                run.extract();
             }
 
-            Optional<Lag> _lag = sourceMode.selectPrimary(lagFromHtml, lagFromText);
-            if (sourceMode == SourceMode.HYBRID && lagFromHtml.isPresent() && lagFromText.isPresent()) {
-                log.info("Both HTML and text payload parsed from '{}'. Using HTML as primary structure source.",
-                        inputFile.getFileName());
+            @Override
+            public void parse(DocumentRun run) throws ProcessingException {
+                run.parse();
+            }
 
-                HybridReconciler reconciler = new HybridReconciler();
-                HybridReconciler.Result reconciliation = reconciler.reconcile(lagFromHtml.get(), lagFromText.get());
-                log.info("Hybrid reconciliation produced {} findings for '{}'",
-                        reconciliation.findingCount(), inputFile.getFileName());
+            @Override
+            public List<DocumentRun.Output> reconcile(DocumentRun run) throws ProcessingException {
+                return run.reconcile();
+            }
 
-                Path reportFile = inputFile.resolveSibling("reconciliation-report.txt");
-                Files.writeString(reportFile, reconciliation.asText(), StandardCharsets.UTF_8);
-                Path reportJson = inputFile.resolveSibling("reconciliation.json");
-                Files.writeString(reportJson, gson.toJson(reconciliation), StandardCharsets.UTF_8);
+            @Override
+            public void evaluate(DocumentRun run, DocumentRun.Output output) throws ProcessingException {
+                run.evaluate(output);
+            }
 
-                Set<String> baselineKeys = loadBaselineKeys(reconciliationOptions.baselinePath().orElse(null));
-                List<HybridReconciler.Finding> newHigh = reconciliation.findings().stream()
-                        .filter(f -> f.severity() == HybridReconciler.Severity.HIGH)
-                        .filter(f -> !baselineKeys.contains(f.key()))
-                        .toList();
+            @Override
+            public void render(DocumentRun run, DocumentRun.Output output) throws ProcessingException {
+                run.render(output);
+            }
+
+            @Override
+            public void finish(DocumentRun run, ProcessingException failure) throws ProcessingException {
+                run.finish(failure);
+            }
+        };
+    }
 
-                Path newHighReport = inputFile.resolveSibling("reconciliation-new-high.txt");
-                writeNewHighReport(newHighReport, newHigh);
+    /**
+     * The processing of one input document, in stages: {@link #extract}, {@link #parse},
+     * {@link #reconcile} (which writes the reconciliation reports and lists the outputs to
+     * produce), then {@link #evaluate} and {@link #render} for every output. The stages may run
+     * on different threads, one after another; the outputs of a document may be evaluated and
+     * rendered side by side. {@link #finish} writes the stage metrics and comes last, also after
+     * a failure.
+     * <p>
+     * With {@link RunSettings#bundle} the reports go into a {@link ReportBundle} rather than into
+     * files of their own, and {@link #finish} publishes the bundle. With
+     * {@link RunSettings#reproducible} JSON is written canonically and every output gets a
+     * digest: a {@code .sha256} file beside it, or its line in the manifest of the bundle.
+     */
+    static final class DocumentRun implements ReportWriter {
+        private final Path inputFile;
+        private final Path outputDirectory;
+        private final Path latexDirectory;
+        private final Optional<Path> outputJsonPath;
+        private final PrintStream out;
+        private final RunSettings settings;
+        private final CorpusJournal.Progress progress;
+        private final StageMetrics metrics = new StageMetrics();
+        private ReportBundle bundle = null;
+        private SfsReader reader = null;
+        private SfsReader.Pending pending = null;
+        private SfsReader.Parsed parsed = null;
 
-                if (reconciliationOptions.writeBaselinePath().isPresent()) {
-                    Path baselineOut = reconciliationOptions.writeBaselinePath().get();
-                    writeBaselineKeys(baselineOut, reconciliation.findings().stream()
-                            .filter(f -> f.severity() == HybridReconciler.Severity.HIGH)
-                            .toList());
-                    log.info("Wrote reconciliation HIGH-severity baseline to: {}", baselineOut);
-                }
+        DocumentRun(Path inputFile, Path outputDirectory, Path latexDirectory, Optional<Path> outputJsonPath, PrintStream out, RunSettings settings, CorpusJournal.Progress progress) {
+            this.inputFile = inputFile;
+            this.outputDirectory = outputDirectory;
+            this.latexDirectory = latexDirectory;
+            this.outputJsonPath = outputJsonPath;
+            this.out = out;
+            this.settings = settings;
+            // A bundle is published whole, so there are no finished stages of an earlier run to skip
+            this.progress = settings.bundle() ? CorpusJournal.Progress.NONE : progress;
+        }
 
+        /**
+         * Reads the input and extracts its payloads.
+         */
+        void extract() throws ProcessingException {
+            final SourceMode sourceMode = settings.sourceMode();
+            final ReconciliationOptions reconciliationOptions = settings.reconciliationOptions();
+            try {
+                if (settings.bundle()) {
+                    bundle = new ReportBundle(outputDirectory.resolve(ReportBundle.FILE_NAME),
+                            settings.reproducible() ? settings.clock().instant() : null);
+                }
+                Set<String> baselineKeys = loadBaselineKeys(reconciliationOptions.baselinePath().orElse(null));
                 if (!baselineKeys.isEmpty()) {
                     log.info("Loaded reconciliation baseline with {} keys", baselineKeys.size());
                 }
-
-                if (reconciliationOptions.failOnNewHigh() && !newHigh.isEmpty()) {
-                    System.err.println("New HIGH severity reconciliation findings not in baseline: " + newHigh.size());
-                    System.err.println("See: " + newHighReport);
-                    System.exit(10);
+                Optional<AdaptiveStore> adaptive = Optional.empty();
+                if (sourceMode == SourceMode.ADAPTIVE) {
+                    // Kept beside the parse cache when there is one, else beside the input
+                    Path adaptiveDirectory = settings.cache()
+                            .map(c -> c.directory().resolve("adaptive"))
+                            .orElse(ArchiveInput.directoryOf(inputFile).resolve(AdaptiveStore.DEFAULT_DIRECTORY));
+                    adaptive = Optional.of(new AdaptiveStore(adaptiveDirectory));
                 }
+                Set<String> anomalyChapters = Set.of();
+                if (reconciliationOptions.anomalyListPath().isPresent()) {
+                    anomalyChapters = ChapterwiseParser.loadAnomalyChapters(reconciliationOptions.anomalyListPath().get());
+                }
+                reader = new SfsReader(new SfsReader.Options(
+                        sourceMode, settings.periodiseringMode(), baselineKeys, reconciliationOptions.failOnNewHigh(), anomalyChapters,
+                        settings.clock()),
+                        settings.cache(), adaptive);
+            } catch (Exception e) {
+                throw failure(e);
             }
+            pending = reader.extract(inputFile, metrics);
+        }
 
-            if (_lag.isEmpty()) {
-                System.err.println("No parseable payload for mode '" + sourceMode.mode() + "' in input file: " + inputFile.getFileName());
-                System.exit(3);
-                return;
-            }
+        /**
+         * Parses the extracted payloads.
+         */
+        void parse() throws ProcessingException {
+            reader.parsePayloads(pending, metrics);
+        }
+
+        /**
+         * Reconciles the parsed payloads and writes the reconciliation reports. Returns the outputs
+         * to produce: one per effective date, or a single one without a date, less those that an
+         * earlier run already wrote.
+         */
+        List<Output> reconcile() throws ProcessingException {
+            final ReconciliationOptions reconciliationOptions = settings.reconciliationOptions();
+            parsed = reader.reconcile(pending, metrics);
+            pending = null;
+            try {
+                progress.finished("parse", List.of());
+                if (progress.isDone("reconciliation")) {
+                    log.info("Reconciliation reports of '{}' already written by an earlier run", inputFile.getFileName());
+                } else if (parsed.reconciliation().isPresent()) {
+                    HybridReconciler.Result reconciliation = parsed.reconciliation().get();
+
+                    Path reportFile = write(outputDirectory.resolve("reconciliation-report.txt"), reconciliation::writeText);
+                    Path reportJson = writeJson(outputDirectory.resolve("reconciliation.json"), reconciliation);
+
+                    List<HybridReconciler.Finding> newHigh = parsed.newHighFindings();
+                    Path newHighReport = write(outputDirectory.resolve("reconciliation-new-high.txt"), newHighReport(newHigh));
+
+                    if (reconciliationOptions.writeBaselinePath().isPresent()) {
+                        Path baselineOut = reconciliationOptions.writeBaselinePath().get();
+                        writeBaselineKeys(baselineOut, reconciliation.findings().stream()
+                                .filter(f -> f.severity() == HybridReconciler.Severity.HIGH)
+                                .toList());
+                        log.info("Wrote reconciliation HIGH-severity baseline to: {}", baselineOut);
+                    }
+
+                    if (reconciliationOptions.failOnNewHigh() && !newHigh.isEmpty()) {
+                        throw new ProcessingException(SfsReader.Status.NEW_HIGH_FINDINGS.exitCode(),
+                                "New HIGH severity reconciliation findings not in baseline: " + newHigh.size()
+                                        + System.lineSeparator() + "See: " + newHighReport);
+                    }
+                    progress.finished("reconciliation", List.of(reportFile, reportJson, newHighReport));
+                }
+
+                if (!parsed.hasPayload()) {
+                    throw new ProcessingException(3,
+                            "No parseable payload for mode '" + settings.sourceMode().mode() + "' in input file: " + inputFile.getFileName());
+                }
 
-            Lag lag = _lag.get();
-            if (effectiveDate.isPresent()) {
-                EffectiveDateFilter.Report filterReport = EffectiveDateFilter.apply(lag, effectiveDate.get());
-                Path effectiveDateReport = inputFile.resolveSibling("effective-date-report.json");
-                Files.writeString(effectiveDateReport, gson.toJson(filterReport), StandardCharsets.UTF_8);
+                List<LocalDate> dates = new ArrayList<>(settings.effectiveDates());
+                if (settings.allTransitionDates()) {
+                    LocalDate today = LocalDate.now(settings.clock());
+                    PeriodiseringSchedule.Report schedule = metrics.measure("PeriodiseringSchedule.build[dates]",
+                            () -> parsed.schedule(today).orElseThrow());
+                    dates.add(today);
+                    dates.addAll(PeriodiseringSchedule.upcomingDates(schedule));
+                    dates = dates.stream().distinct().sorted().toList();
+                    log.info("Producing output for {} effective dates of '{}'", dates.size(), inputFile.getFileName());
+                }
+
+                if (dates.size() <= 1) {
+                    // Only one output, so the parsed tree itself can be used
+                    if (progress.isDone("render")) {
+                        log.info("Output of '{}' already written by an earlier run", inputFile.getFileName());
+                        return List.of();
+                    }
+                    Path jsonOut = outputJsonPath.orElseGet(() -> outputDirectory.resolve("output.json"));
+                    return List.of(new Output(dates.stream().findFirst(), "", outputDirectory, latexDirectory, jsonOut));
+                }
+
+                // The evaluation modifies the tree, so every date gets its own copy of the parsed model
+                List<Output> outputs = new ArrayList<>();
+                for (LocalDate date : dates) {
+                    String label = "[" + date + "]";
+                    if (progress.isDone("render" + label)) {
+                        log.info("Output of '{}' for {} already written by an earlier run", inputFile.getFileName(), date);
+                        continue;
+                    }
+                    Path dateDirectory = outputDirectory.resolve(date.toString());
+                    Path dateLatexDirectory = latexDirectory == null ? null : latexDirectory.resolve(date.toString());
+                    outputs.add(new Output(Optional.of(date), label, dateDirectory, dateLatexDirectory, dateDirectory.resolve("output.json")));
+                }
+                return outputs;
+            } catch (Exception e) {
+                throw failure(e);
             }
+        }
 
-            if (periodiseringMode != PeriodiseringMode.OFF) {
-                PeriodiseringValidator.Result periodiseringValidation = PeriodiseringValidator.validate(lag);
-                Path periodiseringReport = inputFile.resolveSibling("periodisering-validation.json");
-                Files.writeString(periodiseringReport, gson.toJson(periodiseringValidation), StandardCharsets.UTF_8);
-                if (periodiseringMode == PeriodiseringMode.STRICT
-                        && (periodiseringValidation.invalidCount() > 0
-                        || periodiseringValidation.unresolvedCount() > 0
-                        || periodiseringValidation.inlineInTextCount() > 0)) {
-                    System.err.println("Strict periodisering check failed: invalid="
-                            + periodiseringValidation.invalidCount()
-                            + ", unresolved=" + periodiseringValidation.unresolvedCount()
-                            + ", inlineInText=" + periodiseringValidation.inlineInTextCount());
-                    System.err.println("See: " + periodiseringReport);
-                    System.exit(12);
+        /**
+         * Evaluates the parsed document for the date of {@code output}.
+         */
+        void evaluate(Output output) throws ProcessingException {
+            try {
+                Lag lag;
+                if (output.label().isEmpty()) {
+                    lag = parsed.primary();
+                } else {
+                    if (bundle == null) {
+                        Files.createDirectories(output.directory());
+                    }
+                    if (output.latexDirectory() != null) {
+                        Files.createDirectories(output.latexDirectory());
+                    }
+                    lag = parsed.copy(metrics, output.label());
                 }
+                output.result = reader.evaluate(parsed, lag, output.date(), metrics, output.label());
+            } catch (Exception e) {
+                throw failure(e);
             }
+        }
 
-            LocalDate scheduleReferenceDate = effectiveDate.orElse(LocalDate.now());
-            PeriodiseringSchedule.Report scheduleReport = PeriodiseringSchedule.build(lag, scheduleReferenceDate);
-            Path scheduleReportPath = inputFile.resolveSibling("periodisering-schedule.json");
-            Files.writeString(scheduleReportPath, gson.toJson(scheduleReport), StandardCharsets.UTF_8);
-            lag.prune();
+        /**
+         * Writes the reports, LaTeX output and output.json of an evaluated output.
+         */
+        void render(Output output) throws ProcessingException {
+            try {
+                String label = output.label();
+                progress.finished("render" + label, Application.render(output.result, output.directory(), output.latexDirectory(), output.jsonOut(),
+                        this, out, settings, metrics, label));
+            } catch (Exception e) {
+                throw failure(e);
+            } finally {
+                output.result = null;
+            }
+        }
 
-            if (!templates.isEmpty()) {
-                assert directory != null : "Expected output directory when templates are provided";
-                LatexProcessor printer = new LatexProcessor();
-                printer.process(lag, templates, directory, out);
+        /**
+         * Writes the stage metrics; also written for failed runs, covering the stages that did run.
+         * Publishes the bundle, with the outcome of the run in its manifest; fails the run if the
+         * bundle cannot be written and the run had not failed already.
+         */
+        void finish(ProcessingException failure) throws ProcessingException {
+            StageMetrics.Report report = metrics.report(inputFile.getFileName().toString(), settings.sourceMode().mode());
+            // Timings differ from run to run, so reproducible output leaves them out of the bundle
+            if (bundle == null || settings.reproducible()) {
+                writeStageMetrics(outputDirectory.resolve(StageMetrics.REPORT_FILE), report);
+            }
+            if (bundle == null) {
+                return;
+            }
+            try (ReportBundle b = bundle) {
+                if (!settings.reproducible()) {
+                    b.add(StageMetrics.REPORT_FILE, json(report));
+                }
+                b.commit(inputFile.getFileName().toString(),
+                        failure == null ? 0 : failure.exitCode(), failure == null ? null : failure.getMessage());
+            } catch (IOException ioe) {
+                if (failure == null) {
+                    throw new ProcessingException(3, "Could not write report bundle " + bundle.target() + ": " + ioe.getMessage(), ioe);
+                }
+                log.warn("Could not write report bundle {}: {}", bundle.target(), ioe.getMessage());
             }
+        }
 
-            //
-            Path jsonOut = outputJsonPath.orElseGet(() -> inputFile.resolveSibling("output.json"));
-            Path parent = jsonOut.toAbsolutePath().getParent();
+        /**
+         * Writes a report: into its own file, or as the bundle entry named after its path relative
+         * to the output directory. With {@link RunSettings#gzip} the file gets a {@code .gz}
+         * suffix, and a file named so is compressed as it is written; the digest of reproducible
+         * mode is that of the compressed file.
+         */
+        @Override
+        public Path write(Path file, ReportBundle.Content content) throws IOException {
+            if (bundle != null) {
+                StringJoiner name = new StringJoiner("/");
+                outputDirectory.relativize(file).forEach(part -> name.add(part.toString()));
+                bundle.add(name.toString(), content);
+                return file;
+            }
+            Path target = settings.gzip() && !isGzip(file) ? file.resolveSibling(file.getFileName() + GZIP_SUFFIX) : file;
+            Path parent = target.toAbsolutePath().getParent();
             if (parent != null) {
                 Files.createDirectories(parent);
             }
-            try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(jsonOut, StandardCharsets.UTF_8))) {
-                lag.prepareForSerialization();
-                pw.write(gson.toJson(lag));
+            MessageDigest digest = settings.reproducible() ? sha256() : null;
+            OutputStream stream = Files.newOutputStream(target);
+            if (digest != null) {
+                stream = new DigestOutputStream(stream, digest);
+            }
+            if (isGzip(target)) {
+                stream = new GZIPOutputStream(stream, GZIP_BUFFER);
+            }
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8))) {
+                content.writeTo(writer);
+            }
+            if (digest != null) {
+                writeDigest(target, HexFormat.of().formatHex(digest.digest()));
+            }
+            return target;
+        }
+
+        @Override
+        public Path writeJson(Path file, Object value) throws IOException {
+            return write(file, settings.reproducible() ? writer -> CanonicalJson.write(gson, value, writer) : json(value));
+        }
+
+        private static boolean isGzip(Path file) {
+            return file.getFileName().toString().endsWith(GZIP_SUFFIX);
+        }
+
+        @Override
+        public void digest(Path file) throws IOException {
+            if (settings.reproducible() && bundle == null) {
+                writeDigest(file, FileIO.sha256(file));
+            }
+        }
+
+        /**
+         * Writes {@code <file>.sha256} in the format of {@code sha256sum}.
+         */
+        private static void writeDigest(Path file, String sha256) throws IOException {
+            Files.writeString(file.resolveSibling(file.getFileName() + ".sha256"),
+                    sha256 + "  " + file.getFileName() + "\n", StandardCharsets.UTF_8);
+        }
+
+        private ProcessingException failure(Exception e) {
+            if (e instanceof ProcessingException pe) {
+                return pe;
+            }
+            if (e instanceof IOException) {
+                return new ProcessingException(3, "Can't read file: " + inputFile.getFileName() + ": " + e.getMessage(), e);
+            }
+            return new ProcessingException(3, "Can't parse file: " + inputFile.getFileName() + ": " + e.getMessage(), e);
+        }
+
+        /**
+         * One output of a document: for a date (or none), with the stage label and where it goes.
+         */
+        static final class Output {
+            private final Optional<LocalDate> date;
+            private final String label;
+            private final Path directory;
+            private final Path latexDirectory;
+            private final Path jsonOut;
+            private SfsReader.Result result = null;
+
+            private Output(Optional<LocalDate> date, String label, Path directory, Path latexDirectory, Path jsonOut) {
+                this.date = date;
+                this.label = label;
+                this.directory = directory;
+                this.latexDirectory = latexDirectory;
+                this.jsonOut = jsonOut;
+            }
+
+            Optional<LocalDate> date() {
+                return date;
+            }
+
+            String label() {
+                return label;
+            }
+
+            Path directory() {
+                return directory;
+            }
+
+            Path latexDirectory() {
+                return latexDirectory;
             }
-        } catch (IOException e) {
-            System.err.println("Can't read file: " + inputFile.getFileName() + ": " + e.getMessage());
-            System.exit(3);
-        } catch (Exception e) {
-            System.err.println("Can't parse file: " + inputFile.getFileName() + ": " + e.getMessage());
-            System.exit(3);
+
+            Path jsonOut() {
+                return jsonOut;
+            }
+        }
+    }
+
+    /**
+     * Writes the date dependent reports, LaTeX output and output.json of an evaluated document,
+     * the reports and output.json through {@code reports}. Stage names in the metrics get
+     * {@code label} appended. Returns the written files.
+     */
+    private static List<Path> render(
+            final SfsReader.Result result,
+            final Path outputDirectory,
+            final Path latexDirectory,
+            final Path jsonOut,
+            final ReportWriter reports,
+            final PrintStream out,
+            final RunSettings settings,
+            final StageMetrics metrics,
+            final String label
+    ) throws Exception {
+        final Collection<Path> templates = settings.templates();
+        final Lag lag = result.lag();
+        final List<Path> written = new ArrayList<>();
+
+        if (result.effectiveDateReport().isPresent()) {
+            written.add(reports.writeJson(outputDirectory.resolve("effective-date-report.json"), result.effectiveDateReport().get()));
+        }
+
+        if (result.periodiseringValidation().isPresent()) {
+            PeriodiseringValidator.Result periodiseringValidation = result.periodiseringValidation().get();
+            Path periodiseringReport = reports.writeJson(outputDirectory.resolve("periodisering-validation.json"), periodiseringValidation);
+            written.add(periodiseringReport);
+            if (result.status() == SfsReader.Status.PERIODISERING_FAILED) {
+                throw new ProcessingException(SfsReader.Status.PERIODISERING_FAILED.exitCode(),
+                        "Strict periodisering check failed: invalid="
+                                + periodiseringValidation.invalidCount()
+                                + ", unresolved=" + periodiseringValidation.unresolvedCount()
+                                + ", inlineInText=" + periodiseringValidation.inlineInTextCount()
+                                + System.lineSeparator() + "See: " + periodiseringReport);
+            }
+        }
+
+        written.add(reports.writeJson(outputDirectory.resolve("periodisering-schedule.json"), result.schedule()));
+
+        if (!templates.isEmpty()) {
+            assert latexDirectory != null : "Expected output directory when templates are provided";
+            LatexProcessor printer = new LatexProcessor(settings.clock());
+            metrics.measure("LatexProcessor.process" + label, () -> printer.process(lag, templates, latexDirectory, out));
+            Path latexFile = latexDirectory.resolve("output.tex");
+            reports.digest(latexFile);
+            written.add(latexFile);
         }
+
+        //
+        written.add(metrics.measure("json" + label, () -> {
+            lag.prepareForSerialization();
+            return reports.writeJson(jsonOut, lag);
+        }));
+        return written;
     }
 
-    private static Optional<Lag> pullFromStream(InputStream is, String baseUri, Charset charset, HtmlProcessor processor) throws IOException {
-        Document doc = Jsoup.parse(is, charset.name(), baseUri);
-        return processor.process(doc);
+    /**
+     * Where the reports of a document go; see {@link DocumentRun#write}.
+     */
+    private interface ReportWriter {
+        /**
+         * Returns the file written, which may be {@code file} with a suffix.
+         */
+        Path write(Path file, ReportBundle.Content content) throws IOException;
+
+        Path writeJson(Path file, Object value) throws IOException;
+
+        /**
+         * Gives a file written by other means its digest, in reproducible mode.
+         */
+        void digest(Path file) throws IOException;
     }
 
-    private static Optional<Lag> pullFromText(Reader reader, TextProcessor processor) throws IOException {
-        return processor.process(reader);
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Serializes {@code value} straight into the writer, without building the JSON in memory first.
+     */
+    private static ReportBundle.Content json(Object value) {
+        return writer -> {
+            try {
+                gson.toJson(value, writer);
+            } catch (JsonIOException e) {
+                throw e.getCause() instanceof IOException ioe ? ioe : new IOException(e.getMessage(), e);
+            }
+        };
+    }
+
+    private static void writeStageMetrics(Path target, StageMetrics.Report report) {
+        try (Writer writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            json(report).writeTo(writer);
+        } catch (IOException ioe) {
+            log.warn("Could not write stage metrics to {}: {}", target, ioe.getMessage());
+        }
     }
 
     private static Set<String> loadBaselineKeys(Path baselinePath) throws IOException {
@@ -349,131 +1128,239 @@ public class Application {
         return keys;
     }
 
-    private static Optional<LocalDate> parseEffectiveDate(String value) {
+    static List<LocalDate> parseEffectiveDates(String value) {
         if (value == null || value.isBlank()) {
-            return Optional.empty();
+            return List.of();
         }
-        try {
-            return Optional.of(LocalDate.parse(value.trim()));
-        } catch (DateTimeParseException e) {
-            throw new IllegalArgumentException("Invalid --effective-date: " + value + " (expected YYYY-MM-DD)");
+        Set<LocalDate> dates = new TreeSet<>();
+        for (String date : value.split(",")) {
+            if (date.isBlank()) {
+                continue;
+            }
+            try {
+                dates.add(LocalDate.parse(date.trim()));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid --effective-date: " + date.trim() + " (expected YYYY-MM-DD)");
+            }
         }
+        return List.copyOf(dates);
     }
 
-    private static void writeBaselineKeys(Path target, List<HybridReconciler.Finding> findings) throws IOException {
-        Set<String> keys = new LinkedHashSet<>();
-        for (HybridReconciler.Finding finding : findings) {
-            keys.add(finding.key());
+    private static int parseJobs(String value) {
+        if (value == null || value.isBlank()) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        try {
+            int jobs = Integer.parseInt(value.trim());
+            if (jobs < 1) {
+                throw new NumberFormatException();
+            }
+            return jobs;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid --jobs: " + value + " (expected a positive integer)");
         }
-        List<String> sorted = new ArrayList<>(keys);
-        sorted.sort(Comparator.naturalOrder());
-        Files.write(target, sorted, StandardCharsets.UTF_8);
     }
 
-    private static void writeNewHighReport(Path target, List<HybridReconciler.Finding> newHigh) throws IOException {
-        List<String> lines = new ArrayList<>();
-        lines.add("New HIGH severity reconciliation findings: " + newHigh.size());
-        lines.add("");
-        for (HybridReconciler.Finding finding : newHigh) {
-            lines.add(finding.key() + " :: " + finding.message());
+    private static long parseCacheMaxBytes(String value) {
+        if (value == null || value.isBlank()) {
+            return DEFAULT_CACHE_MAX_MB * 1024 * 1024;
+        }
+        try {
+            long mb = Long.parseLong(value.trim());
+            if (mb < 0) {
+                throw new NumberFormatException();
+            }
+            return mb * 1024 * 1024;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid --cache-max-mb: " + value + " (expected a non-negative integer)");
         }
-        Files.write(target, lines, StandardCharsets.UTF_8);
     }
 
-    private enum SourceMode {
-        HTML("html"),
-        TEXT("text"),
-        HYBRID("hybrid");
-
-        private final String mode;
-
-        SourceMode(String mode) {
-            this.mode = mode;
+    private static long parseHeapBudget(String value) {
+        try {
+            long mb = Long.parseLong(value.trim());
+            if (mb < 1) {
+                throw new NumberFormatException();
+            }
+            long maxMb = Runtime.getRuntime().maxMemory() / (1024 * 1024);
+            if (mb > maxMb) {
+                log.warn("--heap-budget of {} MB is above the maximum heap of {} MB", mb, maxMb);
+            }
+            return mb * 1024 * 1024;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid --heap-budget: " + value + " (expected a positive integer)");
         }
+    }
 
-        String mode() {
-            return mode;
+    /**
+     * The clock giving today's date: fixed at {@code today}, if given, else in reproducible mode at
+     * {@code SOURCE_DATE_EPOCH} (seconds since the epoch), else the system clock.
+     */
+    static Clock parseClock(String today, boolean reproducible, String sourceDateEpoch) {
+        if (today != null && !today.isBlank()) {
+            try {
+                return Clock.fixed(LocalDate.parse(today.trim()).atStartOfDay(ZoneOffset.UTC).toInstant(), ZoneOffset.UTC);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid --today: " + today.trim() + " (expected YYYY-MM-DD)");
+            }
         }
-
-        boolean parseHtml() {
-            return this == HTML || this == HYBRID;
+        if (!reproducible) {
+            return Clock.systemDefaultZone();
         }
-
-        boolean parseText() {
-            return this == TEXT || this == HYBRID;
+        if (sourceDateEpoch == null || sourceDateEpoch.isBlank()) {
+            throw new IllegalArgumentException("--reproducible requires --today or SOURCE_DATE_EPOCH");
         }
-
-        Optional<Lag> selectPrimary(Optional<Lag> html, Optional<Lag> text) {
-            return switch (this) {
-                case HTML -> html;
-                case TEXT -> text;
-                case HYBRID -> html.isPresent() ? html : text;
-            };
+        try {
+            return Clock.fixed(Instant.ofEpochSecond(Long.parseLong(sourceDateEpoch.trim())), ZoneOffset.UTC);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid SOURCE_DATE_EPOCH: " + sourceDateEpoch.trim() + " (expected seconds since the epoch)");
         }
+    }
 
-        static SourceMode from(String value) {
-            if (null == value || value.isBlank()) {
-                return HYBRID;
+    private static Duration parseLeaseTimeout(String value) {
+        if (value == null || value.isBlank()) {
+            return Duration.ofSeconds(DEFAULT_LEASE_SECONDS);
+        }
+        try {
+            long seconds = Long.parseLong(value.trim());
+            if (seconds < 1) {
+                throw new NumberFormatException();
             }
-            String normalized = value.trim().toLowerCase();
-            return switch (normalized) {
-                case "html" -> HTML;
-                case "text" -> TEXT;
-                case "hybrid" -> HYBRID;
-                default -> throw new IllegalArgumentException("Unsupported --source-mode: " + value + ". Expected html|text|hybrid");
-            };
+            return Duration.ofSeconds(seconds);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid --lease-seconds: " + value + " (expected a positive integer)");
         }
     }
 
-    private enum PeriodiseringMode {
-        STRICT("strict"),
-        LENIENT("lenient"),
-        OFF("off");
-
-        private final String mode;
-
-        PeriodiseringMode(String mode) {
-            this.mode = mode;
+    private static int parsePort(String value) {
+        try {
+            int port = Integer.parseInt(value.trim());
+            if (port < 0 || port > 65535) {
+                throw new NumberFormatException();
+            }
+            return port;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid --serve port: " + value);
         }
+    }
 
-        static PeriodiseringMode from(String value, boolean strictFlag) {
-            PeriodiseringMode fromOption;
-            if (value == null || value.isBlank()) {
-                fromOption = LENIENT;
-            } else {
-                fromOption = switch (value.trim().toLowerCase()) {
-                    case "strict" -> STRICT;
-                    case "lenient" -> LENIENT;
-                    case "off" -> OFF;
-                    default -> throw new IllegalArgumentException("Unsupported --periodisering-mode: " + value + ". Expected strict|lenient|off");
-                };
+    private static double parseFetchRate(String value) {
+        if (value == null || value.isBlank()) {
+            return BulkFetcher.DEFAULT_REQUESTS_PER_SECOND;
+        }
+        try {
+            double rate = Double.parseDouble(value.trim());
+            if (!(rate > 0) || Double.isInfinite(rate)) {
+                throw new NumberFormatException();
             }
+            return rate;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid --fetch-rate: " + value + " (expected a positive number)");
+        }
+    }
 
-            if (strictFlag && fromOption == OFF) {
-                throw new IllegalArgumentException("Conflicting flags: --strict-periodisering cannot be combined with --periodisering-mode off");
-            }
-            if (strictFlag) {
-                return STRICT;
+    private static URI parseFetchUrl(String value) {
+        if (value == null || value.isBlank()) {
+            return BulkFetcher.DEFAULT_BASE_URI;
+        }
+        try {
+            URI uri = new URI(value.trim());
+            if (!"http".equals(uri.getScheme()) && !"https".equals(uri.getScheme())) {
+                throw new URISyntaxException(value, "not an http(s) URL");
             }
-            return fromOption;
+            return uri;
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid --fetch-url: " + value + " (expected an http(s) URL)");
+        }
+    }
+
+    private static void writeBaselineKeys(Path target, List<HybridReconciler.Finding> findings) throws IOException {
+        Set<String> keys = new LinkedHashSet<>();
+        for (HybridReconciler.Finding finding : findings) {
+            keys.add(finding.key());
         }
+        List<String> sorted = new ArrayList<>(keys);
+        sorted.sort(Comparator.naturalOrder());
+        Files.write(target, sorted, StandardCharsets.UTF_8);
+    }
+
+    static ReportBundle.Content newHighReport(List<HybridReconciler.Finding> newHigh) {
+        return writer -> {
+            writer.write("New HIGH severity reconciliation findings: " + newHigh.size() + "\n\n");
+            for (HybridReconciler.Finding finding : newHigh) {
+                writer.write(finding.key() + " :: " + finding.message() + "\n");
+            }
+        };
     }
 
-    private record ReconciliationOptions(
+    record ReconciliationOptions(
             Optional<Path> baselinePath,
             Optional<Path> writeBaselinePath,
-            boolean failOnNewHigh
+            boolean failOnNewHigh,
+            Optional<Path> anomalyListPath
     ) {
+        static ReconciliationOptions none() {
+            return new ReconciliationOptions(Optional.empty(), Optional.empty(), false, Optional.empty());
+        }
+
         static ReconciliationOptions from(CommandLine commandLine) {
             String baseline = commandLine.getOptionValue("b");
             String writeBaseline = commandLine.getOptionValue("w");
             boolean failOnNewHigh = commandLine.hasOption("f");
+            String anomalyList = commandLine.getOptionValue("anomaly-list");
 
             return new ReconciliationOptions(
                     baseline == null || baseline.isBlank() ? Optional.empty() : Optional.of(Path.of(baseline)),
                     writeBaseline == null || writeBaseline.isBlank() ? Optional.empty() : Optional.of(Path.of(writeBaseline)),
-                    failOnNewHigh
+                    failOnNewHigh,
+                    anomalyList == null || anomalyList.isBlank() ? Optional.empty() : Optional.of(Path.of(anomalyList))
             );
         }
     }
+
+    record RunSettings(
+            Collection<Path> templates,
+            SourceMode sourceMode,
+            ReconciliationOptions reconciliationOptions,
+            List<LocalDate> effectiveDates,
+            boolean allTransitionDates,
+            PeriodiseringMode periodiseringMode,
+            Optional<ParseCache> cache,
+            boolean bundle,
+            Clock clock,
+            boolean reproducible,
+            boolean gzip
+    ) {
+        /**
+         * Fingerprint of everything that decides what a run writes for a document apart from the
+         * input itself: the settings, the content of templates and baseline, and the parser version.
+         */
+        String fingerprint(Path latexRoot) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            sb.append("parser ").append(ParseCache.parserVersion()).append('\n');
+            sb.append("source-mode ").append(sourceMode.mode()).append('\n');
+            sb.append("periodisering-mode ").append(periodiseringMode.mode()).append('\n');
+            sb.append("effective-dates ").append(effectiveDates).append('\n');
+            sb.append("all-transition-dates ").append(allTransitionDates).append('\n');
+            sb.append("fail-on-new-high ").append(reconciliationOptions.failOnNewHigh()).append('\n');
+            sb.append("bundle ").append(bundle).append('\n');
+            sb.append("reproducible ").append(reproducible).append('\n');
+            sb.append("gzip ").append(gzip).append('\n');
+            if (!clock.equals(Clock.systemDefaultZone())) {
+                sb.append("today ").append(LocalDate.now(clock)).append('\n');
+            }
+            if (reconciliationOptions.baselinePath().isPresent() && Files.exists(reconciliationOptions.baselinePath().get())) {
+                sb.append("baseline ").append(FileIO.sha256(reconciliationOptions.baselinePath().get())).append('\n');
+            }
+            if (reconciliationOptions.anomalyListPath().isPresent() && Files.exists(reconciliationOptions.anomalyListPath().get())) {
+                sb.append("anomaly-list ").append(FileIO.sha256(reconciliationOptions.anomalyListPath().get())).append('\n');
+            }
+            sb.append("latex ").append(latexRoot == null ? "" : latexRoot.toAbsolutePath().normalize()).append('\n');
+            for (Path template : templates) {
+                sb.append("template ").append(template.toAbsolutePath().normalize())
+                        .append(' ').append(FileIO.sha256(template)).append('\n');
+            }
+            return FileIO.sha256(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
 }
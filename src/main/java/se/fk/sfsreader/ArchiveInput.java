@@ -0,0 +1,72 @@
+package se.fk.sfsreader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Zip archives of input documents, such as riksdagen's bulk downloads of dokumentstatus files,
+ * used as input without unpacking them. An archive is opened as a read-only zip file system, and
+ * its documents are paths in it: they are read (inflated) straight from the archive when their
+ * turn comes, by as many workers at a time as the corpus run has.
+ * <p>
+ * An archive is kept open for the rest of the run, since its paths are only valid while it is.
+ */
+final class ArchiveInput {
+    private static final Logger log = LoggerFactory.getLogger(ArchiveInput.class);
+
+    private static final String SUFFIX = ".zip";
+
+    private ArchiveInput() {
+    }
+
+    static boolean isArchive(Path path) {
+        return Files.isRegularFile(path) && path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(SUFFIX);
+    }
+
+    /**
+     * The input documents in an archive, in any directory of it, sorted on their path in the archive.
+     */
+    static List<Path> entries(Path archive) throws IOException {
+        FileSystem zip = FileSystems.newFileSystem(archive, Map.of("accessMode", "readOnly"));
+        try (Stream<Path> entries = Files.walk(zip.getPath("/"))) {
+            List<Path> inputs = entries
+                    .filter(Files::isRegularFile)
+                    .filter(p -> CorpusRunner.stem(p) != null)
+                    .sorted(Comparator.comparing(Path::toString))
+                    .toList();
+            log.info("Archive {} holds {} input documents", archive, inputs.size());
+            return inputs;
+        }
+    }
+
+    /**
+     * The directory on disk that an input is in; for a document in an archive, the directory of the archive.
+     */
+    static Path directoryOf(Path input) {
+        if (input.getFileSystem() == FileSystems.getDefault()) {
+            return input.toAbsolutePath().getParent();
+        }
+        return archiveOf(input).toAbsolutePath().getParent();
+    }
+
+    /**
+     * The archive of a document in one, from its {@code jar:file:///archive.zip!/entry} URI.
+     */
+    private static Path archiveOf(Path entry) {
+        String uri = entry.toUri().getRawSchemeSpecificPart();
+        int separator = uri.indexOf("!/");
+        return Path.of(URI.create(separator < 0 ? uri : uri.substring(0, separator)));
+    }
+}
@@ -0,0 +1,295 @@
+package se.fk.sfsreader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads the dokumentstatus XML of many SFS ids from riksdagen, on a bounded worker pool
+ * under a common limit of requests per second. A request that fails on the way, or that the
+ * server answers with 429 or 5xx, is retried after an exponentially growing pause.
+ * <p>
+ * Each document is written as {@code sfs-<år>-<nr>.txt.xml} into the download directory, as
+ * {@link HttpFetcher} does it: atomically, and not at all if the server reports it as not
+ * modified since the last download. Optionally, every downloaded document is handed straight to
+ * a {@link CorpusRunner.DocumentTask} by the worker that downloaded it, while the others keep
+ * downloading. With a {@link CorpusJournal}, a document that the journal records as complete for
+ * the same content and settings is not processed again, whether or not it was downloaded anew.
+ */
+final class BulkFetcher {
+    private static final Logger log = LoggerFactory.getLogger(BulkFetcher.class);
+
+    static final URI DEFAULT_BASE_URI = URI.create("https://data.riksdagen.se/dokument/");
+    /** Directory in the download directory where the validators of the responses are kept */
+    static final String CACHE_DIRECTORY = ".sfsreader-http";
+    static final double DEFAULT_REQUESTS_PER_SECOND = 5;
+    private static final int MAX_ATTEMPTS = 4;
+    private static final String REMOTE_SUFFIX = ".txt";
+    private static final String LOCAL_SUFFIX = ".txt.xml";
+
+    private final HttpFetcher fetcher;
+    private final URI baseUri;
+    private final int workers;
+    private final RateLimiter limiter;
+    private final Duration backoff;
+
+    /**
+     * @param baseUri           where the documents are, as {@code <baseUri>sfs-2010-110.txt}
+     * @param requestsPerSecond requests started per second at most, by all workers together
+     * @param backoff           pause before the first retry; doubled for every further one
+     */
+    BulkFetcher(HttpFetcher fetcher, URI baseUri, int workers, double requestsPerSecond, Duration backoff) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Number of workers must be positive: " + workers);
+        }
+        this.fetcher = fetcher;
+        this.baseUri = baseUri.toString().endsWith("/") ? baseUri : URI.create(baseUri + "/");
+        this.workers = workers;
+        this.limiter = new RateLimiter(requestsPerSecond);
+        this.backoff = backoff;
+    }
+
+    /**
+     * Collects SFS ids from arguments that are either ids ({@code 2010:110}) or files listing ids,
+     * one per line; empty lines and lines starting with {@code #} are ignored. Duplicates are dropped.
+     */
+    static List<String> ids(List<String> arguments) throws IOException {
+        Set<String> ids = new LinkedHashSet<>();
+        for (String argument : arguments) {
+            String item = argument.trim();
+            if (CorpusRunner.isSfsId(item)) {
+                ids.add(item);
+                continue;
+            }
+            Path file = Path.of(item);
+            if (!Files.isRegularFile(file)) {
+                throw new IllegalArgumentException("Not an SFS id (e.g. 2010:110) or a file of them: " + argument);
+            }
+            int lineNumber = 0;
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                lineNumber++;
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (!CorpusRunner.isSfsId(line)) {
+                    throw new IllegalArgumentException("Not an SFS id at " + file + ":" + lineNumber + ": " + line);
+                }
+                ids.add(line);
+            }
+        }
+        return List.copyOf(ids);
+    }
+
+    /**
+     * Downloads the documents of {@code ids} into {@code directory}. With a {@code task}, every
+     * downloaded document is processed into its output namespace below {@code outputRoot} (or
+     * next to it, if null) as soon as it is downloaded, and recorded in {@code journal} unless null.
+     */
+    Summary run(List<String> ids, Path directory, CorpusRunner.DocumentTask task, Path outputRoot, CorpusJournal journal)
+            throws IOException, InterruptedException {
+        Files.createDirectories(directory);
+        int poolSize = Math.max(1, Math.min(workers, ids.size()));
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize, r -> {
+            Thread t = new Thread(r, "fetch-worker-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        long start = System.nanoTime();
+        try {
+            List<Future<Download>> futures = new ArrayList<>();
+            for (String id : ids) {
+                futures.add(executor.submit(fetchOne(id, directory, task, outputRoot, journal)));
+            }
+
+            List<Download> downloads = new ArrayList<>(futures.size());
+            for (Future<Download> future : futures) {
+                try {
+                    downloads.add(future.get());
+                } catch (ExecutionException e) {
+                    // fetchOne() catches everything it can; this is a bug rather than a failed download
+                    throw new IllegalStateException("Fetch worker failed unexpectedly", e.getCause());
+                }
+            }
+            return new Summary(poolSize, System.nanoTime() - start, downloads);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Callable<Download> fetchOne(String id, Path directory, CorpusRunner.DocumentTask task, Path outputRoot, CorpusJournal journal) {
+        return () -> {
+            String stem = CorpusRunner.stemOf(id);
+            URI uri = baseUri.resolve(stem + REMOTE_SUFFIX);
+            Path file = directory.resolve(stem + LOCAL_SUFFIX);
+            long start = System.nanoTime();
+
+            HttpFetcher.Result result = null;
+            String failure = null;
+            int attempt = 0;
+            while (result == null && failure == null) {
+                attempt++;
+                limiter.acquire();
+                try {
+                    result = fetcher.fetch(uri, file);
+                } catch (IOException e) {
+                    if (attempt >= MAX_ATTEMPTS || !retryable(e)) {
+                        log.warn("Failed to download {} after {} attempts: {}", id, attempt, e.getMessage());
+                        failure = e.getMessage();
+                    } else {
+                        Duration pause = backoff.multipliedBy(1L << (attempt - 1));
+                        log.info("Download of {} failed ({}), retrying in {} ms", id, e.getMessage(), pause.toMillis());
+                        TimeUnit.MILLISECONDS.sleep(pause.toMillis());
+                    }
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            if (failure != null) {
+                return new Download(id, file, null, attempt, elapsed, failure, null);
+            }
+            log.info("{} {} ({} bytes, {} ms)", result.modified() ? "Downloaded" : "Not modified:", id, result.bytes(), elapsed / 1_000_000);
+
+            CorpusRunner.Outcome processed = null;
+            if (task != null) {
+                // Whether a document needs processing is up to the journal: not being modified only
+                // means that it is unchanged, not that an earlier processing of it went through
+                Path outputDirectory = CorpusRunner.namespaces(List.of(file), outputRoot).get(file);
+                processed = CorpusRunner.processOne(file, outputDirectory, task, journal);
+            }
+            return new Download(id, file, result.status(), attempt, elapsed, null, processed);
+        };
+    }
+
+    /**
+     * Transport failures and statuses that say "not now" are worth another attempt; others, like 404, are not.
+     */
+    private static boolean retryable(IOException e) {
+        if (e instanceof HttpFetcher.StatusException status) {
+            return status.status() == 429 || status.status() >= 500;
+        }
+        return true;
+    }
+
+    /**
+     * Spaces out permits evenly, {@code 1 / requestsPerSecond} apart, among all threads.
+     */
+    static final class RateLimiter {
+        private final long intervalNanos;
+        private long next = System.nanoTime();
+
+        RateLimiter(double requestsPerSecond) {
+            if (!(requestsPerSecond > 0)) {
+                throw new IllegalArgumentException("Requests per second must be positive: " + requestsPerSecond);
+            }
+            this.intervalNanos = (long) (1_000_000_000L / requestsPerSecond);
+        }
+
+        void acquire() throws InterruptedException {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long slot = Math.max(now, next);
+                next = slot + intervalNanos;
+                wait = slot - now;
+            }
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+
+    /**
+     * @param status    how the download went, or null if it failed
+     * @param processed how processing the document went, or null if it was not processed
+     */
+    record Download(
+            String id,
+            Path file,
+            HttpFetcher.Status status,
+            int attempts,
+            long wallNanos,
+            String message,
+            CorpusRunner.Outcome processed
+    ) {
+        boolean succeeded() {
+            return status != null && (processed == null || processed.succeeded());
+        }
+
+        int exitCode() {
+            if (status == null) {
+                return 3;
+            }
+            return processed == null ? 0 : processed.exitCode();
+        }
+    }
+
+    record Summary(
+            int workers,
+            long wallNanos,
+            List<Download> downloads
+    ) {
+        long count(HttpFetcher.Status status) {
+            return downloads.stream().filter(d -> d.status() == status).count();
+        }
+
+        long failed() {
+            return downloads.stream().filter(d -> !d.succeeded()).count();
+        }
+
+        /**
+         * Exit code for the run as a whole: 0 if all documents were downloaded (and processed),
+         * otherwise the highest exit code of a failing one.
+         */
+        int exitCode() {
+            return downloads.stream().mapToInt(Download::exitCode).max().orElse(0);
+        }
+
+        String asText() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Fetch: ").append(downloads.size()).append(" documents, ")
+                    .append(workers).append(" workers\n");
+            for (Download download : downloads) {
+                String state = download.status() == null ? "FAIL"
+                        : download.status() == HttpFetcher.Status.FETCHED ? "OK" : "SAME";
+                sb.append(String.format(Locale.ROOT, "- %-4s %8d ms  %s -> %s",
+                        state, download.wallNanos() / 1_000_000, download.id(), download.file()));
+                if (download.attempts() > 1) {
+                    sb.append(" (").append(download.attempts()).append(" attempts)");
+                }
+                if (download.status() == null) {
+                    sb.append(" [exit 3] ").append(download.message());
+                }
+                CorpusRunner.Outcome processed = download.processed();
+                if (processed != null) {
+                    sb.append(processed.skipped() ? "; not reprocessed" : processed.succeeded()
+                            ? "; processed into " + processed.outputDirectory()
+                            : "; processing failed [exit " + processed.exitCode() + "] " + processed.message());
+                }
+                sb.append("\n");
+            }
+            sb.append(String.format(Locale.ROOT, "Downloaded: %d, not modified: %d, failed: %d, wall time: %d ms\n",
+                    count(HttpFetcher.Status.FETCHED), count(HttpFetcher.Status.NOT_MODIFIED), failed(), wallNanos / 1_000_000));
+            return sb.toString();
+        }
+    }
+}
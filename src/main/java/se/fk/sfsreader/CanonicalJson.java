@@ -0,0 +1,66 @@
+package se.fk.sfsreader;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Canonical JSON: the members of every object sorted by name (in UTF-16 code unit order, as
+ * {@link String#compareTo}), no whitespace, no HTML escaping, nulls left out. The bytes depend
+ * only on the value, not on the declaration order of fields or the iteration order of maps.
+ * <p>
+ * The value is converted to a JSON tree before it is written, since members cannot be sorted
+ * as they stream out; this takes a few times the size of the JSON in heap.
+ */
+final class CanonicalJson {
+
+    private CanonicalJson() {
+    }
+
+    static void write(Gson gson, Object value, Writer writer) throws IOException {
+        JsonWriter json = new JsonWriter(writer);
+        json.setHtmlSafe(false);
+        json.setSerializeNulls(false);
+        write(gson.toJsonTree(value), json);
+        json.flush();
+    }
+
+    private static void write(JsonElement element, JsonWriter json) throws IOException {
+        if (element == null || element.isJsonNull()) {
+            json.nullValue();
+        } else if (element instanceof JsonObject object) {
+            List<Map.Entry<String, JsonElement>> members = new ArrayList<>(object.entrySet());
+            members.sort(Map.Entry.comparingByKey());
+            json.beginObject();
+            for (Map.Entry<String, JsonElement> member : members) {
+                json.name(member.getKey());
+                write(member.getValue(), json);
+            }
+            json.endObject();
+        } else if (element instanceof JsonArray array) {
+            json.beginArray();
+            for (JsonElement item : array) {
+                write(item, json);
+            }
+            json.endArray();
+        } else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                json.value(primitive.getAsBoolean());
+            } else if (primitive.isNumber()) {
+                json.value(primitive.getAsNumber());
+            } else {
+                json.value(primitive.getAsString());
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package se.fk.sfsreader;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.fk.sfsreader.model.Kapitel;
+import se.fk.sfsreader.model.Lag;
+import se.fk.sfsreader.model.Overgang;
+import se.fk.sfsreader.model.Paragraf;
+import se.fk.sfsreader.model.Stycke;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Chapter-granular hybrid parse. The text payload is parsed in full, and the HTML payload only
+ * for the chapters that need it: chapters with inline periodisering left in the text, chapters
+ * with paragraph variants (where the payloads tend to disagree on the variant count) and
+ * chapters named in an anomaly list. Each of those chapters is cut out of the HTML payload, from
+ * its {@code <h3 name="K..">} anchor up to the next chapter or avdelning heading, and the cut-outs
+ * are parsed as one small document. The HTML chapters then replace their text counterparts, and
+ * only they are reconciled.
+ */
+final class ChapterwiseParser {
+    private static final Logger log = LoggerFactory.getLogger(ChapterwiseParser.class);
+
+    private static final String BASE_URI = "http://nope.local";
+    private static final Pattern CHAPTER_ANCHOR_RE = Pattern.compile("<h3\\s+name=\"K(\\d+[a-zA-Z]?)\"");
+    private static final Pattern HEADING_RE = Pattern.compile("<h[23][\\s>]");
+    private static final Pattern ANOMALY_RE = Pattern.compile("\\bK(\\d+[a-z]?)(?=P\\d|\\b)");
+
+    private ChapterwiseParser() {
+    }
+
+    /**
+     * Reads the chapter ids mentioned in an anomaly list such as {@code sfb-anomalier.txt}, i.e.
+     * every {@code K<chapter>} or {@code K<chapter>P<paragraph>} anchor in the file.
+     */
+    static Set<String> loadAnomalyChapters(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            throw new IOException("Anomaly list does not exist: " + file);
+        }
+        Set<String> chapters = new TreeSet<>();
+        Matcher matcher = ANOMALY_RE.matcher(Files.readString(file, StandardCharsets.UTF_8));
+        while (matcher.find()) {
+            chapters.add(matcher.group(1));
+        }
+        return chapters;
+    }
+
+    static Result parse(
+            final DocumentSources sources,
+            final Set<String> anomalyChapters,
+            final HtmlProcessor htmlProcessor,
+            final TextProcessor textProcessor,
+            final StageMetrics metrics
+    ) throws Exception {
+        Optional<Lag> parsedText = PayloadParser.parse(sources, false, true, htmlProcessor, textProcessor, metrics).text();
+        if (parsedText.isEmpty()) {
+            return new Result(null, null, Map.of());
+        }
+        Lag text = parsedText.get();
+
+        if (!sources.hasHtml()) {
+            log.info("No HTML payload; using the text payload throughout");
+            return new Result(text, null, Map.of());
+        }
+
+        Map<String, String> flagged = metrics.measure("ChapterwiseParser.flag", () -> flag(text, anomalyChapters));
+        String fragments = slice(sources, flagged.keySet(), metrics);
+
+        List<Kapitel> htmlKapitel = new ArrayList<>();
+        if (!fragments.isEmpty()) {
+            long estimate = (long) fragments.length() * HeapBudget.HTML_FACTOR;
+            HeapBudget.Reservation reservation = HeapBudget.global().reserve("HTML chapter parse", estimate);
+            try {
+                Document doc = metrics.measure("Jsoup.parse", () -> Jsoup.parse("<div>" + fragments + "</div>", BASE_URI));
+                Optional<Lag> parsedHtml = metrics.measure("HtmlProcessor.process", () -> htmlProcessor.process(doc));
+                parsedHtml.ifPresent(lag -> lag.getKapitel().stream()
+                        .filter(k -> !(k instanceof Overgang) && !k.isSynthetic())
+                        .forEach(htmlKapitel::add));
+            } finally {
+                reservation.close();
+            }
+        }
+
+        // Reconcile against the text chapters before they are replaced
+        List<Kapitel> textKapitel = chapters(text).stream()
+                .filter(k -> flagged.containsKey(normalizeId(k.id())))
+                .toList();
+        HybridReconciler.Result reconciliation = metrics.measure("HybridReconciler.reconcile",
+                () -> new HybridReconciler().reconcile(htmlKapitel, textKapitel));
+
+        Map<String, Kapitel> byId = new LinkedHashMap<>();
+        for (Kapitel kapitel : textKapitel) {
+            byId.putIfAbsent(normalizeId(kapitel.id()), kapitel);
+        }
+        for (Kapitel kapitel : htmlKapitel) {
+            Kapitel replaced = byId.remove(normalizeId(kapitel.id()));
+            if (replaced != null) {
+                kapitel.adoptPositionOf(replaced);
+                text.replaceKapitel(replaced, kapitel);
+            }
+        }
+        log.info("Parsed {} of {} chapters from HTML ({} characters of a {} byte HTML payload)",
+                htmlKapitel.size(), chapters(text).size(), fragments.length(), sources.htmlSize());
+        return new Result(text, reconciliation, flagged);
+    }
+
+    /**
+     * The chapters of {@code text} that should be parsed from HTML, with the reason for each.
+     */
+    static Map<String, String> flag(Lag text, Set<String> anomalyChapters) {
+        Map<String, String> flagged = new LinkedHashMap<>();
+        for (Kapitel kapitel : chapters(text)) {
+            String id = normalizeId(kapitel.id());
+            Set<String> seen = new HashSet<>();
+            for (Paragraf paragraf : kapitel.get()) {
+                if (!seen.add(normalizeId(paragraf.nummer()))) {
+                    flagged.putIfAbsent(id, "paragraph variants");
+                }
+                for (Stycke stycke : paragraf.get()) {
+                    if (stycke.get().stream().anyMatch(PeriodiseringMarker::containsInlineMarker)) {
+                        flagged.putIfAbsent(id, "inline periodisering");
+                    }
+                }
+            }
+            if (anomalyChapters.contains(id)) {
+                flagged.putIfAbsent(id, "anomaly list");
+            }
+        }
+        flagged.forEach((id, reason) -> log.debug("Chapter K{} flagged for HTML: {}", id, reason));
+        if (log.isInfoEnabled()) {
+            Map<String, Long> byReason = new TreeMap<>(flagged.values().stream()
+                    .collect(Collectors.groupingBy(Function.identity(), Collectors.counting())));
+            log.info("Flagged {} chapters for HTML: {}", flagged.size(), byReason);
+        }
+        return flagged;
+    }
+
+    /**
+     * Cuts the given chapters out of the HTML payload. The decoded payload is only referenced
+     * from here, so it is garbage before the cut-outs are parsed.
+     */
+    private static String slice(DocumentSources sources, Collection<String> chapterIds, StageMetrics metrics) throws Exception {
+        String html;
+        try (InputStream is = sources.openHtmlStream().orElseThrow()) {
+            html = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        return metrics.measure("ChapterwiseParser.slice", () -> slice(html, chapterIds));
+    }
+
+    /**
+     * Cuts the given chapters out of {@code html}, each from its {@code <h3 name="K..">} anchor up to
+     * the next chapter or avdelning heading, in document order.
+     */
+    static String slice(String html, Collection<String> chapterIds) {
+        StringBuilder fragments = new StringBuilder();
+        Matcher anchor = CHAPTER_ANCHOR_RE.matcher(html);
+        Matcher heading = HEADING_RE.matcher(html);
+        Set<String> wanted = new HashSet<>(chapterIds);
+        while (!wanted.isEmpty() && anchor.find()) {
+            if (!wanted.remove(anchor.group(1))) {
+                continue;
+            }
+            int end = heading.find(anchor.end()) ? heading.start() : html.length();
+            fragments.append(html, anchor.start(), end).append('\n');
+        }
+        if (!wanted.isEmpty()) {
+            log.warn("No HTML anchor for chapters {}", new TreeSet<>(wanted));
+        }
+        return fragments.toString();
+    }
+
+    private static List<Kapitel> chapters(Lag lag) {
+        return lag.getKapitel().stream()
+                .filter(k -> !(k instanceof Overgang) && !k.isSynthetic())
+                .toList();
+    }
+
+    private static String normalizeId(String id) {
+        return id == null ? "" : id.replaceAll("\\s+", "");
+    }
+
+    /**
+     * The merged structure (text with the flagged chapters from HTML), the reconciliation of the
+     * flagged chapters (absent without an HTML payload) and the flagged chapter ids with the reason.
+     */
+    record Result(
+            Lag lag,
+            HybridReconciler.Result reconciliation,
+            Map<String, String> flagged
+    ) {}
+}
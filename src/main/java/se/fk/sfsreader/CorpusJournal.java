@@ -0,0 +1,288 @@
+package se.fk.sfsreader;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append-only journal of a corpus run, one JSON object per line. Every finished stage of a
+ * document is recorded together with the hash of its input, a fingerprint of the run settings
+ * and the files it wrote, followed by a final "complete" or "failed" entry.
+ * <p>
+ * Entries are written through to the operating system as they are recorded but only forced
+ * to disk in batches, so a crash loses at most the last batch -- which only means that those
+ * documents are processed again. A resumed run reads the journal back, skips documents that
+ * are complete and lets partially processed ones skip the stages they already finished.
+ * A torn last line is ignored.
+ */
+final class CorpusJournal implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(CorpusJournal.class);
+
+    static final String FILE_NAME = ".sfsreader-journal.jsonl";
+
+    static final String COMPLETE = "complete";
+    static final String FAILED = "failed";
+    private static final String DONE = "done";
+
+    private static final int SYNC_BATCH = 32;
+    private static final long SYNC_INTERVAL_NANOS = 1_000_000_000L;
+
+    private static final Gson gson = new Gson();
+
+    /**
+     * Progress of one document, as seen by the processing pipeline.
+     */
+    interface Progress {
+        Progress NONE = new Progress() {
+            @Override
+            public boolean isDone(String stage) {
+                return false;
+            }
+
+            @Override
+            public void finished(String stage, List<Path> outputs) {
+            }
+        };
+
+        /**
+         * Whether {@code stage} was finished by an earlier, interrupted run on the same input and settings.
+         */
+        boolean isDone(String stage);
+
+        void finished(String stage, List<Path> outputs) throws IOException;
+    }
+
+    private final Path file;
+    private final String settings;
+    private final Map<String, State> previous;
+    private final FileChannel channel;
+    private int unsynced = 0;
+    private long lastSync = System.nanoTime();
+
+    private CorpusJournal(Path file, String settings, Map<String, State> previous, FileChannel channel) {
+        this.file = file;
+        this.settings = settings;
+        this.previous = previous;
+        this.channel = channel;
+    }
+
+    /**
+     * Opens the journal in {@code file}. When resuming, the entries already in the journal are
+     * read back and new entries are appended; otherwise a new journal is started.
+     *
+     * @param settings fingerprint of the settings of the run; stages finished with other settings are not reused
+     */
+    static CorpusJournal open(Path file, String settings, boolean resume) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Map<String, State> previous = new HashMap<>();
+        if (resume && Files.exists(file)) {
+            previous = read(file);
+            log.info("Resuming from journal {} ({} documents)", file, previous.size());
+        }
+        FileChannel channel = resume
+                ? FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+                : FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new CorpusJournal(file, settings, previous, channel);
+    }
+
+    Path file() {
+        return file;
+    }
+
+    /**
+     * Starts (or resumes) journaling of a document.
+     */
+    Document begin(Path inputFile, Path outputDirectory) throws IOException {
+        String key = outputDirectory.toAbsolutePath().normalize().toString();
+        String inputHash = FileIO.sha256(inputFile);
+        State state = previous.get(key);
+        if (state != null && !(state.inputHash.equals(inputHash) && state.settings.equals(settings))) {
+            log.info("Input or settings of '{}' changed since the journaled run; starting over", inputFile.getFileName());
+            state = null;
+        }
+        return new Document(key, inputFile, inputHash, state);
+    }
+
+    private synchronized void append(Entry entry) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap((gson.toJson(entry) + "\n").getBytes(StandardCharsets.UTF_8));
+        while (line.hasRemaining()) {
+            channel.write(line);
+        }
+        unsynced++;
+        if (unsynced >= SYNC_BATCH || System.nanoTime() - lastSync >= SYNC_INTERVAL_NANOS) {
+            sync();
+        }
+    }
+
+    private void sync() throws IOException {
+        channel.force(false);
+        unsynced = 0;
+        lastSync = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (unsynced > 0) {
+                sync();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static Map<String, State> read(Path file) throws IOException {
+        Map<String, State> states = new HashMap<>();
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                Entry entry;
+                try {
+                    entry = gson.fromJson(line, Entry.class);
+                } catch (JsonParseException jpe) {
+                    // Typically the last line, torn by a crash while it was written
+                    log.warn("Ignoring unreadable journal line {} in {}", lineNumber, file);
+                    continue;
+                }
+                if (entry == null || entry.output() == null || entry.inputHash() == null || entry.settings() == null) {
+                    continue;
+                }
+                State state = states.get(entry.output());
+                if (state == null || !state.inputHash.equals(entry.inputHash()) || !state.settings.equals(entry.settings())) {
+                    state = new State(entry.inputHash(), entry.settings());
+                    states.put(entry.output(), state);
+                }
+                state.apply(entry);
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Journal view of one document.
+     */
+    final class Document implements Progress {
+        private final String output;
+        private final Path inputFile;
+        private final String inputHash;
+        private final State resumed;
+
+        private Document(String output, Path inputFile, String inputHash, State resumed) {
+            this.output = output;
+            this.inputFile = inputFile;
+            this.inputHash = inputHash;
+            this.resumed = resumed;
+        }
+
+        /**
+         * Whether an earlier run completed this document and all files it wrote are still there.
+         */
+        boolean isComplete() {
+            if (resumed == null || !resumed.complete) {
+                return false;
+            }
+            for (String path : resumed.outputs) {
+                if (!Files.exists(Path.of(path))) {
+                    log.info("Output {} of '{}' is missing; processing again", path, inputFile.getFileName());
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isDone(String stage) {
+            return resumed != null && resumed.stages.contains(stage);
+        }
+
+        @Override
+        public void finished(String stage, List<Path> outputs) throws IOException {
+            append(entry(stage, DONE, outputs, null, null));
+        }
+
+        void complete() throws IOException {
+            append(entry(COMPLETE, COMPLETE, List.of(), 0, null));
+        }
+
+        void failed(int exitCode, String message) throws IOException {
+            append(entry(FAILED, FAILED, List.of(), exitCode, message));
+        }
+
+        private Entry entry(String stage, String status, List<Path> outputs, Integer exitCode, String message) {
+            List<String> paths = new ArrayList<>(outputs.size());
+            for (Path path : outputs) {
+                paths.add(path.toAbsolutePath().normalize().toString());
+            }
+            return new Entry(Instant.now().toString(), output, inputFile.toString(), inputHash, settings,
+                    stage, status, paths, exitCode, message);
+        }
+    }
+
+    /**
+     * What earlier runs recorded for one document, for its latest input and settings.
+     */
+    private static final class State {
+        private final String inputHash;
+        private final String settings;
+        private final Set<String> stages = new LinkedHashSet<>();
+        private final Set<String> outputs = new LinkedHashSet<>();
+        private boolean complete = false;
+
+        private State(String inputHash, String settings) {
+            this.inputHash = inputHash;
+            this.settings = settings;
+        }
+
+        private void apply(Entry entry) {
+            if (COMPLETE.equals(entry.status())) {
+                complete = true;
+            } else if (FAILED.equals(entry.status())) {
+                complete = false;
+            } else if (DONE.equals(entry.status())) {
+                stages.add(entry.stage());
+                if (entry.outputs() != null) {
+                    outputs.addAll(entry.outputs());
+                }
+            }
+        }
+    }
+
+    record Entry(
+            String time,
+            String output,
+            String input,
+            String inputHash,
+            String settings,
+            String stage,
+            String status,
+            List<String> outputs,
+            Integer exitCode,
+            String message
+    ) {}
+}
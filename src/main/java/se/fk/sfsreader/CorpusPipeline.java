@@ -0,0 +1,450 @@
+package se.fk.sfsreader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs a corpus as a pipeline instead of one document per worker: the stages of the processing
+ * -- read and extract, parse, reconcile, evaluate (effective date filter, validation, schedule)
+ * and render -- are connected by {@link Flow} publishers, and each stage has a pool of threads of
+ * its own. While one document is rendered, the next can be parsed and the one after that read.
+ * <p>
+ * A stage only requests as many documents as it has threads, and hands its results to a buffer
+ * of {@value #BUFFER} in front of the next stage, blocking when that is full. A slow stage thus
+ * holds back the stages before it, down to reading, which bounds the number of documents in
+ * memory. After reconciliation a document fans out into one item per effective date, which are
+ * evaluated and rendered independently.
+ * <p>
+ * Failures are handled as in {@link CorpusRunner}: a failing document does not stop the others,
+ * it just skips its remaining stages (or, for a failing date, that date's rendering), and the
+ * journal and summary are kept the same way.
+ */
+final class CorpusPipeline {
+    private static final Logger log = LoggerFactory.getLogger(CorpusPipeline.class);
+
+    private static final int BUFFER = 2;
+
+    /**
+     * A document task split into the stages of the pipeline. {@link #start} runs on the submitting
+     * thread, the others on the pool of their stage; {@link #finish} is called once a started
+     * document has passed all stages (or failed), on an arbitrary thread, with the failure if
+     * any. It may fail a document that had not failed yet.
+     *
+     * @param <D> state of a document between the stages
+     * @param <O> one output of a document
+     */
+    interface StagedTask<D, O> {
+        D start(Path inputFile, Path outputDirectory, CorpusJournal.Progress progress) throws ProcessingException;
+
+        void extract(D document) throws ProcessingException;
+
+        void parse(D document) throws ProcessingException;
+
+        /**
+         * Returns the outputs to evaluate and render.
+         */
+        List<O> reconcile(D document) throws ProcessingException;
+
+        void evaluate(D document, O output) throws ProcessingException;
+
+        void render(D document, O output) throws ProcessingException;
+
+        void finish(D document, ProcessingException failure) throws ProcessingException;
+    }
+
+    /**
+     * Number of threads per stage.
+     */
+    record Parallelism(int read, int parse, int reconcile, int evaluate, int render) {
+        Parallelism {
+            if (read < 1 || parse < 1 || reconcile < 1 || evaluate < 1 || render < 1) {
+                throw new IllegalArgumentException("Every stage needs at least one thread");
+            }
+        }
+
+        /**
+         * Parses {@code read,parse,reconcile,evaluate,render}, e.g. {@code 1,4,2,2,1}.
+         */
+        static Parallelism of(String spec) {
+            String[] parts = spec.trim().split("\\s*,\\s*");
+            if (parts.length != 5) {
+                throw new IllegalArgumentException("Invalid --pipeline: " + spec + " (expected read,parse,reconcile,evaluate,render, e.g. 1,4,2,2,1)");
+            }
+            int[] threads = new int[5];
+            try {
+                for (int i = 0; i < 5; i++) {
+                    threads[i] = Integer.parseInt(parts[i]);
+                    if (threads[i] < 1) {
+                        throw new NumberFormatException();
+                    }
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid --pipeline: " + spec + " (expected positive integers)");
+            }
+            return new Parallelism(threads[0], threads[1], threads[2], threads[3], threads[4]);
+        }
+
+        int threads() {
+            return read + parse + reconcile + evaluate + render;
+        }
+
+        String asText() {
+            return String.format(Locale.ROOT, "read=%d parse=%d reconcile=%d evaluate=%d render=%d",
+                    read, parse, reconcile, evaluate, render);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Step<D, O> {
+        List<Item<D, O>> apply(Item<D, O> item) throws ProcessingException;
+    }
+
+    private final Parallelism parallelism;
+    private final CorpusJournal journal;
+
+    /**
+     * @param journal journal to record progress in and resume from, or null
+     */
+    CorpusPipeline(Parallelism parallelism, CorpusJournal journal) {
+        this.parallelism = parallelism;
+        this.journal = journal;
+    }
+
+    <D, O> CorpusRunner.Summary run(Map<Path, Path> namespaces, StagedTask<D, O> task) throws InterruptedException {
+        log.info("Running {} documents through the pipeline ({})", namespaces.size(), parallelism.asText());
+        List<ExecutorService> pools = new ArrayList<>();
+        ExecutorService delivery = Executors.newCachedThreadPool(daemon("pipeline-flow", new AtomicInteger()));
+        pools.add(delivery);
+
+        long start = System.nanoTime();
+        List<CorpusRunner.Outcome> outcomes = Collections.synchronizedList(new ArrayList<>());
+        try {
+            SubmissionPublisher<Item<D, O>> source = new SubmissionPublisher<>(delivery, BUFFER);
+            Flow.Publisher<Item<D, O>> tail = source;
+            tail = stage(tail, "read", parallelism.read(), item -> {
+                item.job.start = System.nanoTime();
+                task.extract(item.job.document);
+                return List.of(item);
+            }, delivery, pools);
+            tail = stage(tail, "parse", parallelism.parse(), item -> {
+                task.parse(item.job.document);
+                return List.of(item);
+            }, delivery, pools);
+            tail = stage(tail, "reconcile", parallelism.reconcile(), item -> {
+                List<O> outputs = task.reconcile(item.job.document);
+                if (outputs.isEmpty()) {
+                    return List.of(item);
+                }
+                // The item stands for the document until here; from now on every output counts
+                item.job.pending.addAndGet(outputs.size() - 1);
+                List<Item<D, O>> items = new ArrayList<>(outputs.size());
+                for (O output : outputs) {
+                    items.add(new Item<>(item.job, output));
+                }
+                return items;
+            }, delivery, pools);
+            tail = stage(tail, "evaluate", parallelism.evaluate(), item -> {
+                if (item.output != null) {
+                    task.evaluate(item.job.document, item.output);
+                }
+                return List.of(item);
+            }, delivery, pools);
+            tail = stage(tail, "render", parallelism.render(), item -> {
+                if (item.output != null) {
+                    task.render(item.job.document, item.output);
+                }
+                return List.of(item);
+            }, delivery, pools);
+
+            Sink<D, O> sink = new Sink<>(job -> outcomes.add(complete(job, task)));
+            tail.subscribe(sink);
+
+            for (Map.Entry<Path, Path> entry : namespaces.entrySet()) {
+                Job<D, O> job = begin(entry.getKey(), entry.getValue(), task, outcomes);
+                if (job != null) {
+                    // Blocks while the read stage is behind
+                    source.submit(new Item<>(job, null));
+                }
+            }
+            source.close();
+            sink.await();
+        } finally {
+            pools.forEach(ExecutorService::shutdownNow);
+        }
+
+        Map<Path, Integer> order = new HashMap<>();
+        for (Path input : namespaces.keySet()) {
+            order.put(input, order.size());
+        }
+        List<CorpusRunner.Outcome> sorted = new ArrayList<>(outcomes);
+        sorted.sort(Comparator.comparing(o -> order.get(o.inputFile())));
+        return new CorpusRunner.Summary(parallelism.threads(), System.nanoTime() - start, sorted);
+    }
+
+    private <D, O> Flow.Publisher<Item<D, O>> stage(Flow.Publisher<Item<D, O>> upstream, String name, int threads, Step<D, O> step,
+                                                   ExecutorService delivery, List<ExecutorService> pools) {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, daemon("pipeline-" + name, new AtomicInteger()));
+        pools.add(workers);
+        Stage<D, O> stage = new Stage<>(name, threads, step, workers, new SubmissionPublisher<>(delivery, BUFFER));
+        upstream.subscribe(stage);
+        return stage;
+    }
+
+    /**
+     * Starts a document: checks the journal and prepares the output directory. Returns null if
+     * the document is done with already (skipped or failed to start), after adding its outcome.
+     */
+    private <D, O> Job<D, O> begin(Path inputFile, Path outputDirectory, StagedTask<D, O> task, List<CorpusRunner.Outcome> outcomes) {
+        long start = System.nanoTime();
+        CorpusJournal.Document document = null;
+        CorpusRunner.Outcome outcome;
+        try {
+            if (journal != null) {
+                document = journal.begin(inputFile, outputDirectory);
+                if (document.isComplete()) {
+                    log.info("Skipping '{}', already complete in {}", inputFile.getFileName(), journal.file());
+                    outcomes.add(new CorpusRunner.Outcome(inputFile, outputDirectory, 0, null, System.nanoTime() - start, true));
+                    return null;
+                }
+            }
+            Files.createDirectories(outputDirectory);
+            D state = task.start(inputFile, outputDirectory, document != null ? document : CorpusJournal.Progress.NONE);
+            return new Job<>(inputFile, outputDirectory, document, state, start);
+        } catch (ProcessingException e) {
+            log.warn("Failed to process '{}': {}", inputFile.getFileName(), e.getMessage());
+            outcome = new CorpusRunner.Outcome(inputFile, outputDirectory, e.exitCode(), e.getMessage(), System.nanoTime() - start, false);
+        } catch (IOException e) {
+            log.warn("Failed to prepare output directory {}: {}", outputDirectory, e.getMessage());
+            outcome = new CorpusRunner.Outcome(inputFile, outputDirectory, 3, "Can't write to " + outputDirectory + ": " + e.getMessage(), System.nanoTime() - start, false);
+        }
+        CorpusRunner.record(journal, document, outcome);
+        outcomes.add(outcome);
+        return null;
+    }
+
+    private <D, O> CorpusRunner.Outcome complete(Job<D, O> job, StagedTask<D, O> task) {
+        try {
+            task.finish(job.document, job.failure());
+        } catch (ProcessingException e) {
+            job.fail(e);
+        }
+        long elapsed = System.nanoTime() - job.start;
+        ProcessingException failure = job.failure();
+        CorpusRunner.Outcome outcome;
+        if (failure == null) {
+            log.info("Processed '{}' into {} in {} ms", job.inputFile.getFileName(), job.outputDirectory, elapsed / 1_000_000);
+            outcome = new CorpusRunner.Outcome(job.inputFile, job.outputDirectory, 0, null, elapsed, false);
+        } else {
+            log.warn("Failed to process '{}': {}", job.inputFile.getFileName(), failure.getMessage());
+            outcome = new CorpusRunner.Outcome(job.inputFile, job.outputDirectory, failure.exitCode(), failure.getMessage(), elapsed, false);
+        }
+        CorpusRunner.record(journal, job.journalDocument, outcome);
+        return outcome;
+    }
+
+    private static ThreadFactory daemon(String prefix, AtomicInteger count) {
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * A document in the pipeline. Before reconciliation it is one item, after it one per output;
+     * {@code pending} counts the items still on their way.
+     */
+    private static final class Job<D, O> {
+        private final Path inputFile;
+        private final Path outputDirectory;
+        private final CorpusJournal.Document journalDocument;
+        private final D document;
+        // Reset when the document enters the pipeline, so its time does not include the wait to get in
+        private volatile long start;
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private ProcessingException failure = null;
+
+        Job(Path inputFile, Path outputDirectory, CorpusJournal.Document journalDocument, D document, long start) {
+            this.inputFile = inputFile;
+            this.outputDirectory = outputDirectory;
+            this.journalDocument = journalDocument;
+            this.document = document;
+            this.start = start;
+        }
+
+        synchronized void fail(ProcessingException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+
+        synchronized ProcessingException failure() {
+            return failure;
+        }
+    }
+
+    private static final class Item<D, O> {
+        private final Job<D, O> job;
+        private final O output;
+        private volatile boolean failed = false;
+
+        Item(Job<D, O> job, O output) {
+            this.job = job;
+            this.output = output;
+        }
+    }
+
+    /**
+     * One stage: takes items from upstream, at most as many at a time as it has threads, and
+     * publishes what its step makes of them. Failed items pass through untouched.
+     */
+    private static final class Stage<D, O> implements Flow.Processor<Item<D, O>, Item<D, O>> {
+        private final String name;
+        private final int threads;
+        private final Step<D, O> step;
+        private final ExecutorService workers;
+        private final SubmissionPublisher<Item<D, O>> out;
+        private final AtomicInteger active = new AtomicInteger();
+        private volatile boolean upstreamDone = false;
+        private volatile Flow.Subscription subscription;
+
+        Stage(String name, int threads, Step<D, O> step, ExecutorService workers, SubmissionPublisher<Item<D, O>> out) {
+            this.name = name;
+            this.threads = threads;
+            this.step = step;
+            this.workers = workers;
+            this.out = out;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super Item<D, O>> subscriber) {
+            out.subscribe(subscriber);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(threads);
+        }
+
+        @Override
+        public void onNext(Item<D, O> item) {
+            active.incrementAndGet();
+            workers.execute(() -> {
+                try {
+                    for (Item<D, O> next : apply(item)) {
+                        // Blocks while the next stage is behind
+                        out.submit(next);
+                    }
+                } finally {
+                    subscription.request(1);
+                    if (active.decrementAndGet() == 0 && upstreamDone) {
+                        out.close();
+                    }
+                }
+            });
+        }
+
+        private List<Item<D, O>> apply(Item<D, O> item) {
+            if (item.failed) {
+                return List.of(item);
+            }
+            try {
+                return step.apply(item);
+            } catch (ProcessingException e) {
+                fail(item, e);
+            } catch (RuntimeException e) {
+                log.error("Unexpected failure in stage {} of '{}'", name, item.job.inputFile.getFileName(), e);
+                fail(item, new ProcessingException(3, String.valueOf(e.getMessage()), e));
+            }
+            return List.of(item);
+        }
+
+        private static <D, O> void fail(Item<D, O> item, ProcessingException e) {
+            item.failed = true;
+            item.job.fail(e);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            out.closeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            upstreamDone = true;
+            if (active.get() == 0) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * End of the pipeline: completes a document when the last of its items arrives.
+     */
+    private static final class Sink<D, O> implements Flow.Subscriber<Item<D, O>> {
+        private final Consumer<Job<D, O>> completion;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Throwable error = null;
+
+        Sink(Consumer<Job<D, O>> completion) {
+            this.completion = completion;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            // Completing a document is cheap, so the sink never holds anything back
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(Item<D, O> item) {
+            if (item.job.pending.decrementAndGet() == 0) {
+                try {
+                    completion.accept(item.job);
+                } catch (RuntimeException e) {
+                    // Thrown from here, it would cancel the subscription and stall the pipeline
+                    log.error("Could not complete '{}'", item.job.inputFile.getFileName(), e);
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            done.await();
+            if (error != null) {
+                // Stages catch what they can; this is a bug rather than a document failure
+                throw new IllegalStateException("Corpus pipeline failed unexpectedly", error);
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package se.fk.sfsreader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Runs the processing pipeline for many input documents in one JVM, on a bounded
+ * worker pool. Every document gets its own output namespace (a directory named
+ * after the input file) so that reports from different laws do not overwrite
+ * each other.
+ */
+final class CorpusRunner {
+    private static final Logger log = LoggerFactory.getLogger(CorpusRunner.class);
+
+    private static final String[] INPUT_SUFFIXES = {
+            ".txt.xml.gz", ".xml.gz", ".html.gz", ".htm.gz", ".dokumentstatus.json.gz",
+            ".txt.xml", ".xml", ".html", ".htm", ".dokumentstatus.json"};
+    private static final Pattern SFS_ID_RE = Pattern.compile("\\d{4}:\\d+[a-zA-Z]?");
+
+    @FunctionalInterface
+    interface DocumentTask {
+        void process(Path inputFile, Path outputDirectory, CorpusJournal.Progress progress) throws ProcessingException;
+    }
+
+    private final int workers;
+    private final CorpusJournal journal;
+
+    CorpusRunner(int workers) {
+        this(workers, null);
+    }
+
+    /**
+     * @param journal journal to record progress in and resume from, or null
+     */
+    CorpusRunner(int workers, CorpusJournal journal) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Number of workers must be positive: " + workers);
+        }
+        this.workers = workers;
+        this.journal = journal;
+    }
+
+    /**
+     * Expands a directory or a zip archive into the (sorted) input documents it contains. Plain files are returned as is.
+     */
+    static List<Path> expand(Path path) throws IOException {
+        return expand(path, p -> true);
+    }
+
+    /**
+     * As {@link #expand(Path)}, keeping only the documents of a directory or archive that {@code selection} accepts.
+     */
+    static List<Path> expand(Path path, Predicate<Path> selection) throws IOException {
+        if (ArchiveInput.isArchive(path)) {
+            return ArchiveInput.entries(path).stream().filter(selection).toList();
+        }
+        if (!Files.isDirectory(path)) {
+            return List.of(path);
+        }
+        try (Stream<Path> entries = Files.list(path)) {
+            return entries
+                    .filter(Files::isRegularFile)
+                    .filter(p -> stem(p) != null)
+                    .filter(selection)
+                    .sorted(Comparator.comparing(p -> p.getFileName().toString()))
+                    .toList();
+        }
+    }
+
+    /**
+     * Parses a comma separated list of SFS ids ({@code 2010:110}, matching riksdagen's document
+     * name {@code sfs-2010-110}) and file name globs ({@code sfs-2010-*.xml}) into a test of input
+     * files that accepts a file matching any of them.
+     */
+    static Predicate<Path> selection(String spec) {
+        Predicate<Path> selection = p -> false;
+        for (String item : spec.trim().split("\\s*,\\s*")) {
+            if (item.isEmpty()) {
+                throw new IllegalArgumentException("Invalid --select: " + spec);
+            }
+            Predicate<Path> test;
+            if (isSfsId(item)) {
+                String stem = stemOf(item);
+                test = p -> stem.equalsIgnoreCase(stem(p));
+            } else {
+                PathMatcher glob = FileSystems.getDefault().getPathMatcher("glob:" + item);
+                test = p -> glob.matches(Path.of(p.getFileName().toString()));
+            }
+            selection = selection.or(test);
+        }
+        return selection;
+    }
+
+    static boolean isSfsId(String id) {
+        return SFS_ID_RE.matcher(id).matches();
+    }
+
+    /**
+     * Riksdagen's document name for an SFS id ("2010:110" -> "sfs-2010-110"), which is also the
+     * stem of its input files.
+     */
+    static String stemOf(String sfsId) {
+        return "sfs-" + sfsId.replace(':', '-');
+    }
+
+    /**
+     * Name of the output namespace for an input file, i.e. the file name without its input suffix
+     * ("sfs-2010-110.txt.xml" or "sfs-2010-110.txt.xml.gz" -> "sfs-2010-110"). Returns null for files that are not recognized as input.
+     */
+    static String stem(Path inputFile) {
+        String name = inputFile.getFileName().toString();
+        String lower = name.toLowerCase(Locale.ROOT);
+        for (String suffix : INPUT_SUFFIXES) {
+            if (lower.endsWith(suffix) && lower.length() > suffix.length()) {
+                return name.substring(0, name.length() - suffix.length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Assigns an output namespace below {@code outputRoot} to every input. If no output root
+     * is given, the namespace is created next to the input file, or next to the archive it is in.
+     */
+    static Map<Path, Path> namespaces(List<Path> inputs, Path outputRoot) {
+        Map<Path, Path> out = new LinkedHashMap<>();
+        Map<Path, Path> taken = new LinkedHashMap<>();
+        for (Path input : inputs) {
+            String stem = stem(input);
+            if (stem == null) {
+                stem = input.getFileName().toString();
+            }
+            Path namespace = (outputRoot != null ? outputRoot.resolve(stem) : ArchiveInput.directoryOf(input).resolve(stem))
+                    .toAbsolutePath().normalize();
+            Path previous = taken.putIfAbsent(namespace, input);
+            if (previous != null) {
+                throw new IllegalArgumentException("Inputs '" + previous + "' and '" + input
+                        + "' would share output directory: " + namespace);
+            }
+            out.put(input, namespace);
+        }
+        return out;
+    }
+
+    Summary run(Map<Path, Path> namespaces, DocumentTask task) throws InterruptedException {
+        int poolSize = Math.max(1, Math.min(workers, namespaces.size()));
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize, r -> {
+            Thread t = new Thread(r, "corpus-worker-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        long start = System.nanoTime();
+        try {
+            List<Future<Outcome>> futures = new ArrayList<>();
+            for (Map.Entry<Path, Path> entry : namespaces.entrySet()) {
+                futures.add(executor.submit(runOne(entry.getKey(), entry.getValue(), task, journal)));
+            }
+
+            List<Outcome> outcomes = new ArrayList<>(futures.size());
+            for (Future<Outcome> future : futures) {
+                try {
+                    outcomes.add(future.get());
+                } catch (ExecutionException e) {
+                    // runOne() catches everything it can; this is a bug rather than a document failure
+                    throw new IllegalStateException("Corpus worker failed unexpectedly", e.getCause());
+                }
+            }
+            return new Summary(poolSize, System.nanoTime() - start, outcomes);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Callable<Outcome> runOne(Path inputFile, Path outputDirectory, DocumentTask task, CorpusJournal journal) {
+        return () -> processOne(inputFile, outputDirectory, task, journal);
+    }
+
+    /**
+     * Processes a document into its output namespace, recording it in the journal if there is
+     * one. Failures are reported in the outcome rather than thrown.
+     */
+    static Outcome processOne(Path inputFile, Path outputDirectory, DocumentTask task, CorpusJournal journal) {
+        long start = System.nanoTime();
+        CorpusJournal.Document document = null;
+        Outcome outcome;
+        try {
+            if (journal != null) {
+                document = journal.begin(inputFile, outputDirectory);
+                if (document.isComplete()) {
+                    log.info("Skipping '{}', already complete in {}", inputFile.getFileName(), journal.file());
+                    return new Outcome(inputFile, outputDirectory, 0, null, System.nanoTime() - start, true);
+                }
+            }
+            Files.createDirectories(outputDirectory);
+            task.process(inputFile, outputDirectory, document != null ? document : CorpusJournal.Progress.NONE);
+            long elapsed = System.nanoTime() - start;
+            log.info("Processed '{}' into {} in {} ms", inputFile.getFileName(), outputDirectory, elapsed / 1_000_000);
+            outcome = new Outcome(inputFile, outputDirectory, 0, null, elapsed, false);
+        } catch (ProcessingException e) {
+            log.warn("Failed to process '{}': {}", inputFile.getFileName(), e.getMessage());
+            outcome = new Outcome(inputFile, outputDirectory, e.exitCode(), e.getMessage(), System.nanoTime() - start, false);
+        } catch (IOException e) {
+            log.warn("Failed to prepare output directory {}: {}", outputDirectory, e.getMessage());
+            outcome = new Outcome(inputFile, outputDirectory, 3, "Can't write to " + outputDirectory + ": " + e.getMessage(), System.nanoTime() - start, false);
+        } catch (RuntimeException e) {
+            log.error("Unexpected failure while processing '{}'", inputFile.getFileName(), e);
+            outcome = new Outcome(inputFile, outputDirectory, 3, String.valueOf(e.getMessage()), System.nanoTime() - start, false);
+        }
+
+        record(journal, document, outcome);
+        return outcome;
+    }
+
+    /**
+     * Records the outcome of a document in the journal, if there is one.
+     */
+    static void record(CorpusJournal journal, CorpusJournal.Document document, Outcome outcome) {
+        if (document == null) {
+            return;
+        }
+        try {
+            if (outcome.succeeded()) {
+                document.complete();
+            } else {
+                document.failed(outcome.exitCode(), outcome.message());
+            }
+        } catch (IOException e) {
+            log.warn("Could not record '{}' in journal {}: {}", outcome.inputFile().getFileName(), journal.file(), e.getMessage());
+        }
+    }
+
+    record Outcome(
+            Path inputFile,
+            Path outputDirectory,
+            int exitCode,
+            String message,
+            long wallNanos,
+            boolean skipped
+    ) {
+        boolean succeeded() {
+            return exitCode == 0;
+        }
+    }
+
+    record Summary(
+            int workers,
+            long wallNanos,
+            List<Outcome> outcomes
+    ) {
+        long succeeded() {
+            return outcomes.stream().filter(Outcome::succeeded).count();
+        }
+
+        long failed() {
+            return outcomes.size() - succeeded();
+        }
+
+        long skipped() {
+            return outcomes.stream().filter(Outcome::skipped).count();
+        }
+
+        double documentsPerSecond() {
+            if (wallNanos <= 0) {
+                return 0.0;
+            }
+            return outcomes.size() / (wallNanos / 1_000_000_000.0);
+        }
+
+        /**
+         * Exit code for the run as a whole: 0 if all documents succeeded, otherwise the
+         * highest exit code reported by a failing document.
+         */
+        int exitCode() {
+            return outcomes.stream().mapToInt(Outcome::exitCode).max().orElse(0);
+        }
+
+        String asText() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Corpus run: ").append(outcomes.size()).append(" documents, ")
+                    .append(workers).append(" workers\n");
+            for (Outcome outcome : outcomes) {
+                sb.append(String.format(Locale.ROOT, "- %-4s %8d ms  %s -> %s",
+                        outcome.skipped() ? "SKIP" : outcome.succeeded() ? "OK" : "FAIL",
+                        outcome.wallNanos() / 1_000_000,
+                        outcome.inputFile().getFileName(),
+                        outcome.outputDirectory()));
+                if (!outcome.succeeded()) {
+                    sb.append(" [exit ").append(outcome.exitCode()).append("] ").append(outcome.message());
+                }
+                sb.append("\n");
+            }
+            sb.append(String.format(Locale.ROOT, "Succeeded: %d, failed: %d, wall time: %d ms, %.2f documents/s\n",
+                    succeeded(), failed(), wallNanos / 1_000_000, documentsPerSecond()));
+            if (skipped() > 0) {
+                sb.append("Skipped (already complete): ").append(skipped()).append("\n");
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package se.fk.sfsreader;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches a directory of dokumentstatus (or HTML) files and reprocesses the ones that
+ * actually changed. Files are first compared on size and modification time, so unchanged
+ * files cost a stat only; when those differ the content hash decides. Bursts of events for
+ * the same file (e.g. a fetch job writing in several chunks) are debounced.
+ * <p>
+ * The state of the last successful processing is kept in {@value #STATE_FILE} in the
+ * watched directory, so a restarted watcher does not redo work. Like the corpus journal, the
+ * state records the settings of the run and where the output went: a file processed with other
+ * settings or into another output root counts as changed.
+ */
+final class DirectoryWatcher {
+    private static final Logger log = LoggerFactory.getLogger(DirectoryWatcher.class);
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    static final String STATE_FILE = ".sfsreader-watch-state.json";
+    private static final String[] WATCHED_SUFFIXES = {".txt.xml", ".html", ".dokumentstatus.json", ".txt.xml.gz", ".html.gz", ".dokumentstatus.json.gz"};
+
+    private final Path directory;
+    private final Path outputRoot;
+    private final String settings;
+    private final CorpusRunner runner;
+    private final CorpusRunner.DocumentTask task;
+    private final Duration debounce;
+    private final Path stateFile;
+    private final Map<String, FileState> state;
+
+    /**
+     * @param settings fingerprint of the settings of the run; files processed with other settings are processed again
+     */
+    DirectoryWatcher(Path directory, Path outputRoot, String settings, int workers, Duration debounce, CorpusRunner.DocumentTask task) throws IOException {
+        this.directory = directory.toAbsolutePath().normalize();
+        this.outputRoot = outputRoot;
+        this.settings = settings;
+        this.runner = new CorpusRunner(workers);
+        this.debounce = debounce;
+        this.task = task;
+        this.stateFile = this.directory.resolve(STATE_FILE);
+        this.state = loadState(stateFile);
+    }
+
+    static boolean isWatched(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        for (String suffix : WATCHED_SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Processes every watched file in the directory that changed since it was last processed,
+     * then keeps reacting to file system events until the thread is interrupted. Each batch of
+     * processed files is reported to {@code listener}.
+     */
+    void run(Consumer<CorpusRunner.Summary> listener) throws IOException, InterruptedException {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            // Register before the initial scan, so that nothing written in between is missed
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+            List<Path> existing = new ArrayList<>();
+            for (Path file : CorpusRunner.expand(directory)) {
+                if (isWatched(file)) {
+                    existing.add(file);
+                }
+            }
+            processChanged(existing).ifPresent(listener);
+            log.info("Watching {} for changes", directory);
+
+            Map<Path, Long> pending = new LinkedHashMap<>(); // file -> nano time of last event
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = pending.isEmpty()
+                        ? watchService.take()
+                        : watchService.poll(debounce.toMillis(), TimeUnit.MILLISECONDS);
+
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // Events were lost, so fall back to checking everything
+                            for (Path file : CorpusRunner.expand(directory)) {
+                                if (isWatched(file)) {
+                                    pending.put(file, System.nanoTime());
+                                }
+                            }
+                            continue;
+                        }
+                        Path file = directory.resolve((Path) event.context());
+                        if (isWatched(file)) {
+                            pending.put(file, System.nanoTime());
+                        }
+                    }
+                    if (!key.reset()) {
+                        log.warn("Watched directory {} is no longer accessible", directory);
+                        return;
+                    }
+                }
+
+                List<Path> settled = new ArrayList<>();
+                long now = System.nanoTime();
+                Iterator<Map.Entry<Path, Long>> it = pending.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Path, Long> entry = it.next();
+                    if (now - entry.getValue() >= debounce.toNanos()) {
+                        settled.add(entry.getKey());
+                        it.remove();
+                    }
+                }
+                if (!settled.isEmpty()) {
+                    processChanged(settled).ifPresent(listener);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            log.info("Stopped watching {}", directory);
+        }
+    }
+
+    /**
+     * Runs the pipeline for those of the given files that changed since they were last
+     * processed successfully. Returns how that went, or nothing if no file had changed.
+     */
+    Optional<CorpusRunner.Summary> processChanged(List<Path> candidates) throws IOException, InterruptedException {
+        Map<Path, FileState> changed = new LinkedHashMap<>();
+        for (Path file : candidates) {
+            changedState(file).ifPresent(s -> changed.put(file, s));
+        }
+        if (changed.isEmpty()) {
+            return Optional.empty();
+        }
+
+        List<Path> files = new ArrayList<>(changed.keySet());
+        CorpusRunner.Summary summary = runner.run(CorpusRunner.namespaces(files, outputRoot), task);
+
+        for (CorpusRunner.Outcome outcome : summary.outcomes()) {
+            if (outcome.succeeded()) {
+                state.put(key(outcome.inputFile()), changed.get(outcome.inputFile()));
+            }
+        }
+        saveState();
+        return Optional.of(summary);
+    }
+
+    private Optional<FileState> changedState(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+
+        String output = outputRoot == null ? "" : outputRoot.toAbsolutePath().normalize().toString();
+        FileState previous = state.get(key(file));
+        if (previous != null && !(settings.equals(previous.settings()) && output.equals(previous.outputRoot()))) {
+            log.info("Settings or output root changed since '{}' was processed; processing it again", file.getFileName());
+            previous = null;
+        }
+        if (previous != null && previous.size() == size && previous.lastModified() == modified) {
+            log.debug("Unchanged (stat): {}", file.getFileName());
+            return Optional.empty();
+        }
+
+        String hash = FileIO.sha256(file);
+        FileState current = new FileState(size, modified, hash, settings, output);
+        if (previous != null && previous.sha256().equals(hash)) {
+            // Touched but not changed: remember the new stat so the next check is cheap again
+            log.debug("Unchanged (content): {}", file.getFileName());
+            state.put(key(file), current);
+            saveState();
+            return Optional.empty();
+        }
+        return Optional.of(current);
+    }
+
+    private String key(Path file) {
+        return directory.relativize(file.toAbsolutePath().normalize()).toString();
+    }
+
+    private static Map<String, FileState> loadState(Path stateFile) throws IOException {
+        if (!Files.exists(stateFile)) {
+            return new TreeMap<>();
+        }
+        Map<String, FileState> loaded = gson.fromJson(
+                Files.readString(stateFile, StandardCharsets.UTF_8),
+                new TypeToken<TreeMap<String, FileState>>() {}.getType());
+        return loaded == null ? new TreeMap<>() : loaded;
+    }
+
+    private void saveState() throws IOException {
+        Path tmp = stateFile.resolveSibling(STATE_FILE + ".tmp");
+        Files.writeString(tmp, gson.toJson(state), StandardCharsets.UTF_8);
+        Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param outputRoot absolute output root, or empty if the output went next to the input
+     */
+    record FileState(
+            long size,
+            long lastModified,
+            String sha256,
+            String settings,
+            String outputRoot
+    ) {}
+}
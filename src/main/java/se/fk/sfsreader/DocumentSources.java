@@ -1,67 +1,184 @@
 package se.fk.sfsreader;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.w3c.dom.Node;
-import org.xml.sax.InputSource;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathFactory;
-import java.io.ByteArrayInputStream;
+import se.fk.sfsreader.DokumentstatusScanner.Region;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * The text and HTML payloads of an input document, with the title and SFS id. A dokumentstatus
+ * file, usually memory-mapped (see {@link FileIO#read}), is first scanned for where its payloads
+ * lie by {@link DokumentstatusScanner}: the payloads then stay views of the file bytes, and are
+ * unescaped only as they are read. Files the scanner gives up on are read in one streaming (StAX)
+ * pass instead, which encodes the payloads into byte buffers as their characters arrive. Either
+ * way title, id and systemdatum are picked up on the way, and neither a decoded copy of the file
+ * nor a DOM is ever built. Riksdagen's JSON form of dokumentstatus is read in one streaming pass
+ * too, with Gson's {@link JsonReader}. Sources made {@link #singleUse() single-use} let go of each
+ * payload when it is opened, so that it becomes garbage as soon as its parser is done.
+ */
 final class DocumentSources {
     private static final Logger log = LogManager.getLogger(DocumentSources.class);
     private static final Pattern TITLE_WITH_ID_RE = Pattern.compile("(?m)^\\s*([^\\n]{3,200}?)\\s*\\((\\d{4}:\\d+[a-zA-Z]?)\\)\\s*$");
-    private static final Pattern SFS_NR_RE = Pattern.compile("(?im)SFS\\s*nr\\s*:?\\s*(\\d{4}:\\d+[a-zA-Z]?)");
+    // Also as in the header of riksdagen's HTML: <b>SFS nr</b>: 2010:110
+    private static final Pattern SFS_NR_RE = Pattern.compile("(?im)SFS\\s*nr\\s*(?:</?b>\\s*)?:?\\s*(\\d{4}:\\d+[a-zA-Z]?)");
     private static final Pattern BARE_ID_RE = Pattern.compile("(?m)^\\s*(\\d{4}:\\d+[a-zA-Z]?)\\s*$");
 
-    private final Optional<byte[]> text;
-    private final Optional<byte[]> html;
+    // Title and SFS number, when given in a payload, are in its header; only this much of it is searched
+    static final int METADATA_PREFIX_CHARS = 16 * 1024;
+
+    // A dokumentstatus file starts with its root element, perhaps after an XML declaration
+    private static final int DETECT_BYTES = 4 * 1024;
+    private static final Pattern ROOT_RE = Pattern.compile("^\\uFEFF?\\s*(<\\?xml[^>]*\\?>\\s*)?(<!--.*?-->\\s*)*<dokumentstatus[\\s>]", Pattern.DOTALL);
+    // ... and riksdagen's JSON with an object holding a dokumentstatus object
+    private static final Pattern JSON_ROOT_RE = Pattern.compile("^\\uFEFF?\\s*\\{\\s*\"dokumentstatus\"\\s*:\\s*\\{");
+
+    // The children of /dokumentstatus/dokument read
+    private static final Set<String> WANTED = Set.of("text", "html", "titel", "beteckning", "systemdatum");
+
+    // Safe to share between threads once configured
+    private static final XMLInputFactory XML_INPUT_FACTORY = xmlInputFactory();
+
+    // null once handed out by a single-use source; the sizes are -1 when there is no such payload
+    private Payload text;
+    private Payload html;
+    private final int textSize;
+    private final int htmlSize;
     private final Optional<String> title;
     private final Optional<String> id;
+    private final Optional<String> systemdatum;
+    private boolean singleUse = false;
+    private Optional<String> textDigest = null;
+    private Optional<String> htmlDigest = null;
 
-    private DocumentSources(Optional<byte[]> text, Optional<byte[]> html, Optional<String> title, Optional<String> id) {
-        this.text = text;
-        this.html = html;
+    private DocumentSources(Optional<Payload> text, Optional<Payload> html, Optional<String> title, Optional<String> id, Optional<String> systemdatum) {
+        this.text = text.orElse(null);
+        this.html = html.orElse(null);
+        this.textSize = text.map(Payload::length).orElse(-1);
+        this.htmlSize = html.map(Payload::length).orElse(-1);
         this.title = title;
         this.id = id;
+        this.systemdatum = systemdatum;
     }
 
     static DocumentSources from(Path inputFile, Charset charset) throws Exception {
-        byte[] bytes = Files.readAllBytes(inputFile);
-        String content = new String(bytes, charset);
-
-        if (looksLikeRiksdagenXml(content)) {
-            DocumentSources extracted = fromRiksdagenXml(content, charset);
-            DocumentSources resolved = extracted.resolveMetadata(charset);
-            log.info("Input '{}' detected as dokumentstatus XML (text={}, html={})",
-                    inputFile.getFileName(),
-                    resolved.text.map(b -> b.length).orElse(0),
-                    resolved.html.map(b -> b.length).orElse(0));
+        return from(FileIO.read(inputFile), inputFile.getFileName().toString(), charset);
+    }
+
+    /**
+     * As {@link #from(Path, Charset)}, for a document already in memory. {@code name} is only used in logging.
+     */
+    static DocumentSources from(byte[] bytes, String name, Charset charset) throws Exception {
+        return from(ByteBuffer.wrap(bytes), name, charset);
+    }
+
+    /**
+     * As {@link #from(Path, Charset)}, for the remaining bytes of {@code bytes}, which must not
+     * change while the sources are in use. {@code name} is only used in logging.
+     */
+    static DocumentSources from(ByteBuffer bytes, String name, Charset charset) throws Exception {
+        ByteBuffer document = bytes.slice();
+        String start = start(document, charset);
+        if (looksLikeRiksdagenXml(start)) {
+            DocumentSources resolved = fromRiksdagenXml(document, charset).resolveMetadata();
+            log.info("Input '{}' detected as dokumentstatus XML (text={}, html={}, systemdatum={})",
+                    name, Math.max(resolved.textSize, 0), Math.max(resolved.htmlSize, 0), resolved.systemdatum.orElse("-"));
+            return resolved;
+        }
+        if (looksLikeRiksdagenJson(start)) {
+            DocumentSources resolved = parseRiksdagenJson(document, charset).resolveMetadata();
+            log.info("Input '{}' detected as dokumentstatus JSON (text={}, html={}, systemdatum={})",
+                    name, Math.max(resolved.textSize, 0), Math.max(resolved.htmlSize, 0), resolved.systemdatum.orElse("-"));
             return resolved;
         }
 
         // Backward-compatible mode for raw HTML files.
-        log.info("Input '{}' treated as HTML", inputFile.getFileName());
-        return new DocumentSources(Optional.empty(), Optional.of(bytes), Optional.empty(), Optional.empty())
-                .resolveMetadata(charset);
+        log.info("Input '{}' treated as HTML", name);
+        Payload html = new Payload(document, null, charset, document.remaining());
+        return new DocumentSources(Optional.empty(), Optional.of(html), Optional.empty(), Optional.empty(), Optional.empty())
+                .resolveMetadata();
+    }
+
+    /**
+     * Makes the payloads single-use: opening one hands it over to the returned stream, and a
+     * second open fails. Digests wanted later must be taken before the payloads are opened.
+     */
+    synchronized DocumentSources singleUse() {
+        singleUse = true;
+        return this;
+    }
+
+    synchronized Optional<InputStream> openTextStream() {
+        if (textSize < 0) {
+            return Optional.empty();
+        }
+        InputStream stream = payload(text, "text").open();
+        if (singleUse) {
+            text = null;
+        }
+        return Optional.of(stream);
+    }
+
+    synchronized Optional<InputStream> openHtmlStream() {
+        if (htmlSize < 0) {
+            return Optional.empty();
+        }
+        InputStream stream = payload(html, "HTML").open();
+        if (singleUse) {
+            html = null;
+        }
+        return Optional.of(stream);
+    }
+
+    boolean hasText() {
+        return textSize >= 0;
+    }
+
+    boolean hasHtml() {
+        return htmlSize >= 0;
     }
 
-    Optional<InputStream> openTextStream() {
-        return text.map(ByteArrayInputStream::new);
+    /**
+     * Size of the text payload in bytes, 0 if there is none. Known also after the payload is handed out.
+     */
+    long textSize() {
+        return Math.max(textSize, 0);
     }
 
-    Optional<InputStream> openHtmlStream() {
-        return html.map(ByteArrayInputStream::new);
+    /**
+     * Size of the HTML payload in bytes, 0 if there is none. Known also after the payload is handed out.
+     */
+    long htmlSize() {
+        return Math.max(htmlSize, 0);
     }
 
     Optional<String> title() {
@@ -72,59 +189,275 @@ final class DocumentSources {
         return id;
     }
 
-    static boolean looksLikeRiksdagenXml(String content) {
-        return content.contains("<dokumentstatus>")
-                && content.contains("<dokument>")
-                && content.contains("<text>")
-                && content.contains("<html>");
+    /**
+     * When riksdagen last changed the document, as given in dokumentstatus XML.
+     */
+    Optional<String> systemdatum() {
+        return systemdatum;
     }
 
-    private static DocumentSources fromRiksdagenXml(String xml, Charset charset) throws Exception {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-        factory.setNamespaceAware(false);
+    /**
+     * SHA-256 of the text payload, if present.
+     */
+    synchronized Optional<String> textDigest() {
+        if (textDigest == null) {
+            textDigest = textSize < 0 ? Optional.empty() : Optional.of(payload(text, "text").sha256());
+        }
+        return textDigest;
+    }
 
-        var builder = factory.newDocumentBuilder();
-        var dom = builder.parse(new InputSource(new StringReader(xml)));
-        var xpath = XPathFactory.newInstance().newXPath();
+    /**
+     * SHA-256 of the HTML payload, if present.
+     */
+    synchronized Optional<String> htmlDigest() {
+        if (htmlDigest == null) {
+            htmlDigest = htmlSize < 0 ? Optional.empty() : Optional.of(payload(html, "HTML").sha256());
+        }
+        return htmlDigest;
+    }
 
-        Node textNode = (Node) xpath.evaluate("/dokumentstatus/dokument/text", dom, XPathConstants.NODE);
-        Node htmlNode = (Node) xpath.evaluate("/dokumentstatus/dokument/html", dom, XPathConstants.NODE);
-        Node titleNode = (Node) xpath.evaluate("/dokumentstatus/dokument/titel", dom, XPathConstants.NODE);
-        Node idNode = (Node) xpath.evaluate("/dokumentstatus/dokument/beteckning", dom, XPathConstants.NODE);
+    private static Payload payload(Payload payload, String kind) {
+        if (payload == null) {
+            throw new IllegalStateException("The " + kind + " payload has already been handed out");
+        }
+        return payload;
+    }
 
-        Optional<byte[]> textBytes = Optional.ofNullable(textNode)
-                .map(Node::getTextContent)
-                .filter(s -> !s.isBlank())
-                .map(s -> s.getBytes(charset));
-        Optional<byte[]> htmlBytes = Optional.ofNullable(htmlNode)
-                .map(Node::getTextContent)
-                .filter(s -> !s.isBlank())
-                .map(s -> s.getBytes(charset));
+    /**
+     * The first few KB of a document, decoded, which is all that format detection looks at.
+     */
+    private static String start(ByteBuffer bytes, Charset charset) {
+        ByteBuffer prefix = bytes.duplicate().limit(Math.min(bytes.limit(), DETECT_BYTES));
+        return charset.decode(prefix).toString();
+    }
+
+    /**
+     * Whether {@code prefix}, the start of a document, opens a dokumentstatus root element.
+     */
+    static boolean looksLikeRiksdagenXml(String prefix) {
+        return ROOT_RE.matcher(prefix).lookingAt();
+    }
+
+    /**
+     * Whether {@code prefix}, the start of a document, opens riksdagen's JSON form of dokumentstatus.
+     */
+    static boolean looksLikeRiksdagenJson(String prefix) {
+        return JSON_ROOT_RE.matcher(prefix).lookingAt();
+    }
+
+    private static XMLInputFactory xmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
 
-        Optional<String> title = Optional.ofNullable(titleNode)
-                .map(Node::getTextContent)
-                .map(String::strip)
-                .filter(s -> !s.isEmpty());
-        Optional<String> id = Optional.ofNullable(idNode)
-                .map(Node::getTextContent)
-                .map(String::strip)
-                .filter(s -> !s.isEmpty());
+    /**
+     * Reads the payloads and metadata of {@code /dokumentstatus/dokument}: by scanning the bytes
+     * when the scanner can, else in a StAX pass.
+     */
+    private static DocumentSources fromRiksdagenXml(ByteBuffer xml, Charset charset) throws Exception {
+        if (DokumentstatusScanner.handles(charset)) {
+            Optional<Map<String, Region>> regions = DokumentstatusScanner.scan(xml, WANTED);
+            if (regions.isPresent()) {
+                Map<String, Region> found = regions.get();
+                return new DocumentSources(
+                        scanned(xml, found.get("text"), charset),
+                        scanned(xml, found.get("html"), charset),
+                        scanned(xml, found.get("titel"), charset).map(p -> p.decode().strip()),
+                        scanned(xml, found.get("beteckning"), charset).map(p -> p.decode().strip()),
+                        scanned(xml, found.get("systemdatum"), charset).map(p -> p.decode().strip()));
+            }
+            log.debug("Falling back to a StAX pass over a dokumentstatus file the scanner leaves alone");
+        }
+        return parseRiksdagenXml(xml, charset);
+    }
 
-        return new DocumentSources(textBytes, htmlBytes, title, id);
+    /**
+     * A payload over the scanned content of an element, absent if the element is missing or
+     * blank. The content is read through once here, which also has it checked.
+     */
+    private static Optional<Payload> scanned(ByteBuffer xml, Region region, Charset charset) throws IOException {
+        if (region == null) {
+            return Optional.empty();
+        }
+        int length = 0;
+        boolean blank = true;
+        boolean ascii = true;
+        byte[] buffer = new byte[16 * 1024];
+        try (InputStream in = DokumentstatusScanner.content(xml, region, charset)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                for (int i = 0; blank && i < n; i++) {
+                    byte b = buffer[i];
+                    ascii &= b >= 0;
+                    blank = b < 0 || Character.isWhitespace(b);
+                }
+                length += n;
+            }
+        }
+        Payload payload = new Payload(xml, region, charset, length);
+        if (blank && !ascii) {
+            // Whether a non-ASCII character is white space takes decoding
+            blank = payload.decode().isBlank();
+        }
+        return blank ? Optional.empty() : Optional.of(payload);
     }
 
-    private DocumentSources resolveMetadata(Charset charset) {
-        String textContent = text.map(b -> new String(b, charset)).orElse("");
-        String htmlContent = html.map(b -> new String(b, charset)).orElse("");
+    /**
+     * Reads the payloads and metadata of {@code /dokumentstatus/dokument} in one pass. Like
+     * {@code getTextContent()}, the content of an element includes that of its descendants.
+     */
+    private static DocumentSources parseRiksdagenXml(ByteBuffer xml, Charset charset) throws Exception {
+        Map<String, Content> wanted = new HashMap<>();
+        for (String name : WANTED) {
+            wanted.put(name, new Content(charset));
+        }
 
-        Optional<String> resolvedId = id.or(() -> inferId(textContent)).or(() -> inferId(htmlContent));
-        Optional<String> resolvedTitle = title.or(() -> inferTitle(textContent)).or(() -> inferTitle(htmlContent));
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new ByteBufferInputStream(xml.duplicate()), charset.name());
+        try {
+            int depth = 0;
+            boolean inDokument = false;
+            Content current = null;
+            int currentDepth = 0;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        depth++;
+                        String name = reader.getLocalName();
+                        if (depth == 1 && !name.equals("dokumentstatus")) {
+                            throw new XMLStreamException("Not a dokumentstatus document: <" + name + ">", reader.getLocation());
+                        }
+                        if (depth == 2 && name.equals("dokument")) {
+                            inDokument = true;
+                        } else if (depth == 3 && inDokument && current == null) {
+                            Content content = wanted.get(name);
+                            // Only the first of each
+                            if (content != null && !content.seen) {
+                                content.seen = true;
+                                current = content;
+                                currentDepth = depth;
+                            }
+                        }
+                    }
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        if (current != null && depth == currentDepth) {
+                            current = null;
+                        }
+                        if (depth == 2) {
+                            inDokument = false;
+                        }
+                        depth--;
+                    }
+                    case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE -> {
+                        if (current != null) {
+                            current.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return new DocumentSources(
+                wanted.get("text").payload(),
+                wanted.get("html").payload(),
+                wanted.get("titel").string(),
+                wanted.get("beteckning").string(),
+                wanted.get("systemdatum").string());
+    }
+
+    /**
+     * Reads the payloads and metadata of {@code dokumentstatus.dokument} in riksdagen's JSON, in one
+     * pass that skips everything else. String values are encoded into their payloads as they are
+     * read; members that are null, or not strings, count as missing.
+     */
+    private static DocumentSources parseRiksdagenJson(ByteBuffer json, Charset charset) throws IOException {
+        Map<String, Content> wanted = new HashMap<>();
+        for (String name : WANTED) {
+            wanted.put(name, new Content(charset));
+        }
+
+        Reader in = new BufferedReader(new InputStreamReader(new ByteBufferInputStream(json.duplicate()), charset));
+        in.mark(1);
+        if (in.read() != '\uFEFF') {
+            in.reset();
+        }
+        try (JsonReader reader = new JsonReader(in)) {
+            boolean found = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (!found && name.equals("dokumentstatus") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    found = true;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("dokument") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                            readDokument(reader, wanted);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (!found) {
+                throw new IOException("Not a dokumentstatus document: no \"dokumentstatus\" object");
+            }
+        }
+
+        return new DocumentSources(
+                wanted.get("text").payload(),
+                wanted.get("html").payload(),
+                wanted.get("titel").string(),
+                wanted.get("beteckning").string(),
+                wanted.get("systemdatum").string());
+    }
+
+    private static void readDokument(JsonReader reader, Map<String, Content> wanted) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            Content content = wanted.get(reader.nextName());
+            JsonToken token = reader.peek();
+            // Only the first of each
+            if (content != null && !content.seen && (token == JsonToken.STRING || token == JsonToken.NUMBER)) {
+                content.seen = true;
+                content.append(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Infers title and SFS number missing from the XML (or JSON) from the start of the payloads, text before
+     * HTML. Only {@link #METADATA_PREFIX_CHARS} of a payload are decoded, and the HTML payload not
+     * at all if the text payload answers.
+     */
+    private DocumentSources resolveMetadata() {
+        if (title.isPresent() && id.isPresent()) {
+            // The usual case for dokumentstatus XML; no need to decode the payloads
+            return this;
+        }
+        Prefix textPrefix = new Prefix(text);
+        Prefix htmlPrefix = new Prefix(html);
+
+        Optional<String> resolvedId = id.or(() -> inferId(textPrefix.get())).or(() -> inferId(htmlPrefix.get()));
+        Optional<String> resolvedTitle = title.or(() -> inferTitle(textPrefix.get())).or(() -> inferTitle(htmlPrefix.get()));
 
         if (resolvedTitle.isEmpty() && resolvedId.isPresent()) {
             resolvedTitle = Optional.of("SFS " + resolvedId.get());
         }
-        return new DocumentSources(text, html, resolvedTitle, resolvedId);
+        return new DocumentSources(Optional.ofNullable(text), Optional.ofNullable(html), resolvedTitle, resolvedId, systemdatum);
     }
 
     private static Optional<String> inferTitle(String content) {
@@ -152,4 +485,179 @@ final class DocumentSources {
         }
         return Optional.empty();
     }
+
+    /**
+     * Payload bytes, {@code length} of them: the remaining bytes of {@code bytes}, or, with a
+     * {@code region}, the content of an element in them as read by {@link DokumentstatusScanner#content}.
+     */
+    private record Payload(ByteBuffer bytes, Region region, Charset charset, int length) {
+        InputStream open() {
+            return region == null
+                    ? new ByteBufferInputStream(bytes.duplicate())
+                    : DokumentstatusScanner.content(bytes, region, charset);
+        }
+
+        /**
+         * The first {@code maxChars} characters, cut back to the last complete line if the payload
+         * is longer, so that line-anchored patterns see whole lines only.
+         */
+        String prefix(int maxChars) {
+            try (Reader reader = new InputStreamReader(open(), charset)) {
+                char[] chars = new char[maxChars];
+                int n = 0;
+                int read;
+                while (n < maxChars && (read = reader.read(chars, n, maxChars - n)) > 0) {
+                    n += read;
+                }
+                if (n < maxChars || reader.read() < 0) {
+                    return new String(chars, 0, n);
+                }
+                int lastLine = n;
+                while (lastLine > 0 && chars[lastLine - 1] != '\n') {
+                    lastLine--;
+                }
+                return new String(chars, 0, lastLine);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        String decode() {
+            if (region == null) {
+                return charset.decode(bytes.duplicate()).toString();
+            }
+            try (InputStream in = open()) {
+                return new String(in.readAllBytes(), charset);
+            } catch (IOException e) {
+                // The content was read through when the payload was made
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        String sha256() {
+            if (region == null) {
+                return FileIO.sha256(bytes);
+            }
+            try (DigestInputStream in = new DigestInputStream(open(), MessageDigest.getInstance("SHA-256"))) {
+                in.transferTo(OutputStream.nullOutputStream());
+                return HexFormat.of().formatHex(in.getMessageDigest().digest());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not available", e);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * The start of a payload, decoded when first asked for. Empty if there is no payload.
+     */
+    private static final class Prefix {
+        private final Payload payload;
+        private String prefix = null;
+
+        Prefix(Payload payload) {
+            this.payload = payload;
+        }
+
+        String get() {
+            if (prefix == null) {
+                prefix = payload == null ? "" : payload.prefix(METADATA_PREFIX_CHARS);
+            }
+            return prefix;
+        }
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer bytes;
+
+        ByteBufferInputStream(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            return bytes.hasRemaining() ? bytes.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!bytes.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, bytes.remaining());
+            bytes.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return bytes.remaining();
+        }
+    }
+
+    /**
+     * The character data of an element, encoded as it arrives.
+     */
+    private static final class Content {
+        private final Buffer buffer = new Buffer();
+        private final Charset charset;
+        private final Writer writer;
+        private boolean seen = false;
+        private boolean blank = true;
+
+        Content(Charset charset) {
+            this.charset = charset;
+            this.writer = new OutputStreamWriter(buffer, charset);
+        }
+
+        void append(char[] chars, int start, int length) throws IOException {
+            for (int i = start; blank && i < start + length; i++) {
+                blank = Character.isWhitespace(chars[i]);
+            }
+            writer.write(chars, start, length);
+        }
+
+        void append(String string) throws IOException {
+            for (int i = 0; blank && i < string.length(); i++) {
+                blank = Character.isWhitespace(string.charAt(i));
+            }
+            writer.write(string);
+        }
+
+        /**
+         * The content, absent if the element is missing or blank.
+         */
+        Optional<Payload> payload() throws IOException {
+            if (blank) {
+                return Optional.empty();
+            }
+            writer.flush();
+            return Optional.of(buffer.payload(charset));
+        }
+
+        Optional<String> string() throws IOException {
+            return payload().map(p -> p.decode().strip());
+        }
+    }
+
+    /**
+     * Hands out its buffer rather than a copy, unless a copy saves much.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(8 * 1024);
+        }
+
+        Payload payload(Charset charset) {
+            byte[] bytes = buf.length - count > count / 4 ? toByteArray() : buf;
+            return new Payload(ByteBuffer.wrap(bytes, 0, count).slice(), null, charset, count);
+        }
+    }
 }
@@ -0,0 +1,313 @@
+package se.fk.sfsreader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Finds the elements of {@code /dokumentstatus/dokument} in the bytes of a dokumentstatus file
+ * without decoding it, e.g. in a memory-mapped file. Only markup is looked at: the content of an
+ * element is located, not copied, and {@link #content} reads it on demand, resolving character
+ * references, CDATA sections and line ends as an XML parser would.
+ * <p>
+ * The scan handles what riksdagen serves: elements, comments, processing instructions and CDATA,
+ * in an ASCII compatible encoding. It gives up on anything else (a DOCTYPE, markup inside a wanted
+ * element, an unexpected root, mismatched tags) so that the caller can fall back to a full XML
+ * parser, which also reports malformed input.
+ */
+final class DokumentstatusScanner {
+
+    private static final byte[] COMMENT = ascii("<!--");
+    private static final byte[] COMMENT_END = ascii("-->");
+    private static final byte[] CDATA = ascii("<![CDATA[");
+    private static final byte[] CDATA_END = ascii("]]>");
+    private static final byte[] PI = ascii("<?");
+    private static final byte[] PI_END = ascii("?>");
+
+    private DokumentstatusScanner() {
+    }
+
+    /**
+     * Where the content of an element lies in the scanned buffer.
+     */
+    record Region(int start, int end) {}
+
+    /**
+     * Whether the scanner can read {@code charset}: one that encodes the characters of markup as in ASCII.
+     */
+    static boolean handles(Charset charset) {
+        String markup = "<>/!?&#;[]-\"'\r\n abcdefghijklmnopqrstuvwxyz";
+        return charset.canEncode() && Arrays.equals(markup.getBytes(charset), ascii(markup));
+    }
+
+    /**
+     * Locates the first of each of the {@code wanted} children of {@code /dokumentstatus/dokument}.
+     * Returns empty if the scan gives up.
+     */
+    static Optional<Map<String, Region>> scan(ByteBuffer bytes, Set<String> wanted) {
+        Map<String, Region> found = new LinkedHashMap<>();
+        Deque<String> open = new ArrayDeque<>();
+        int limit = bytes.limit();
+        int p = bytes.position();
+        boolean inDokument = false;
+        String current = null;
+        int currentStart = -1;
+
+        while (true) {
+            int lt = indexOf(bytes, (byte) '<', p, limit);
+            if (lt < 0) {
+                return open.isEmpty() ? Optional.of(found) : Optional.empty();
+            }
+            if (startsWith(bytes, lt, COMMENT)) {
+                p = skipPast(bytes, lt, COMMENT_END);
+                if (current != null) {
+                    return Optional.empty();
+                }
+            } else if (startsWith(bytes, lt, CDATA)) {
+                p = skipPast(bytes, lt, CDATA_END);
+            } else if (startsWith(bytes, lt, PI)) {
+                p = skipPast(bytes, lt, PI_END);
+                if (current != null) {
+                    return Optional.empty();
+                }
+            } else if (lt + 1 < limit && bytes.get(lt + 1) == '!') {
+                // DOCTYPE: leave entities and the like to the XML parser
+                return Optional.empty();
+            } else if (lt + 1 < limit && bytes.get(lt + 1) == '/') {
+                int gt = indexOf(bytes, (byte) '>', lt, limit);
+                if (gt < 0 || open.isEmpty() || !name(bytes, lt + 2, gt).equals(open.peek())) {
+                    return Optional.empty();
+                }
+                if (current != null) {
+                    found.put(current, new Region(currentStart, lt));
+                    current = null;
+                }
+                if (open.size() == 2) {
+                    inDokument = false;
+                }
+                open.pop();
+                p = gt + 1;
+            } else {
+                if (current != null) {
+                    return Optional.empty();
+                }
+                int gt = endOfTag(bytes, lt, limit);
+                if (gt < 0) {
+                    return Optional.empty();
+                }
+                String name = name(bytes, lt + 1, gt);
+                boolean empty = bytes.get(gt - 1) == '/';
+                open.push(name);
+                int depth = open.size();
+                if (depth == 1 && !name.equals("dokumentstatus")) {
+                    return Optional.empty();
+                }
+                if (depth == 2 && name.equals("dokument")) {
+                    inDokument = !empty;
+                } else if (depth == 3 && inDokument && wanted.contains(name) && !found.containsKey(name)) {
+                    if (empty) {
+                        found.put(name, new Region(gt + 1, gt + 1));
+                    } else {
+                        current = name;
+                        currentStart = gt + 1;
+                    }
+                }
+                if (empty) {
+                    open.pop();
+                }
+                p = gt + 1;
+            }
+            if (p < 0) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    /**
+     * Reads the content of {@code region}, encoded in {@code charset}, as the bytes an XML
+     * parser would report in that encoding.
+     */
+    static InputStream content(ByteBuffer bytes, Region region, Charset charset) {
+        return new Content(bytes.duplicate().limit(region.end()).position(region.start()).slice(), charset);
+    }
+
+    private static int indexOf(ByteBuffer bytes, byte b, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (bytes.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(ByteBuffer bytes, int at, byte[] prefix) {
+        if (at + prefix.length > bytes.limit()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes.get(at + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The position after {@code end}, searching from {@code from}; -1 if there is none.
+     */
+    private static int skipPast(ByteBuffer bytes, int from, byte[] end) {
+        int limit = bytes.limit();
+        for (int i = from; i + end.length <= limit; i++) {
+            if (startsWith(bytes, i, end)) {
+                return i + end.length;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The position of the {@code >} closing the start tag at {@code lt}, skipping quoted attribute values.
+     */
+    private static int endOfTag(ByteBuffer bytes, int lt, int limit) {
+        byte quote = 0;
+        for (int i = lt + 1; i < limit; i++) {
+            byte b = bytes.get(i);
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String name(ByteBuffer bytes, int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            byte b = bytes.get(i);
+            if (b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '/') {
+                break;
+            }
+            sb.append((char) (b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * The character data of an element: copies bytes, except that it resolves character and
+     * predefined entity references, unwraps CDATA sections and turns CR LF and CR into LF.
+     */
+    private static final class Content extends InputStream {
+        private final ByteBuffer bytes;
+        private final Charset charset;
+        private boolean inCdata = false;
+        private byte[] pending = null;
+        private int pendingAt = 0;
+
+        Content(ByteBuffer bytes, Charset charset) {
+            this.bytes = bytes;
+            this.charset = charset;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n = 0;
+            while (n < len) {
+                if (pending != null) {
+                    b[off + n++] = pending[pendingAt++];
+                    if (pendingAt == pending.length) {
+                        pending = null;
+                    }
+                    continue;
+                }
+                if (!bytes.hasRemaining()) {
+                    break;
+                }
+                int at = bytes.position();
+                byte c = bytes.get();
+                if (c == '\r') {
+                    if (bytes.hasRemaining() && bytes.get(bytes.position()) == '\n') {
+                        continue;
+                    }
+                    b[off + n++] = '\n';
+                } else if (inCdata) {
+                    if (c == ']' && startsWith(bytes, at, CDATA_END)) {
+                        bytes.position(at + CDATA_END.length);
+                        inCdata = false;
+                    } else {
+                        b[off + n++] = c;
+                    }
+                } else if (c == '<') {
+                    // The scan only lets CDATA sections through
+                    bytes.position(at + CDATA.length);
+                    inCdata = true;
+                } else if (c == '&') {
+                    pending = reference(at);
+                    pendingAt = 0;
+                } else {
+                    b[off + n++] = c;
+                }
+            }
+            return n == 0 ? -1 : n;
+        }
+
+        private byte[] reference(int at) throws IOException {
+            int semicolon = indexOf(bytes, (byte) ';', at, Math.min(bytes.limit(), at + 12));
+            if (semicolon < 0) {
+                throw new IOException("Unterminated entity reference at byte " + at);
+            }
+            StringBuilder sb = new StringBuilder();
+            for (int i = at + 1; i < semicolon; i++) {
+                sb.append((char) (bytes.get(i) & 0xff));
+            }
+            bytes.position(semicolon + 1);
+            String name = sb.toString();
+            String value = switch (name) {
+                case "lt" -> "<";
+                case "gt" -> ">";
+                case "amp" -> "&";
+                case "quot" -> "\"";
+                case "apos" -> "'";
+                default -> {
+                    try {
+                        if (name.startsWith("#x")) {
+                            yield Character.toString(Integer.parseInt(name.substring(2), 16));
+                        } else if (name.startsWith("#")) {
+                            yield Character.toString(Integer.parseInt(name.substring(1)));
+                        }
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException("Invalid character reference &" + name + ";", e);
+                    }
+                    throw new IOException("Undeclared entity &" + name + ";");
+                }
+            };
+            return value.getBytes(charset);
+        }
+    }
+}
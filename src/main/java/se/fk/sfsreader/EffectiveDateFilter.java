@@ -15,7 +15,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-final class EffectiveDateFilter {
+public final class EffectiveDateFilter {
     private static final Logger log = LoggerFactory.getLogger(EffectiveDateFilter.class);
 
     private EffectiveDateFilter() {
@@ -135,7 +135,7 @@ final class EffectiveDateFilter {
         return new Stats(chapterCount, paragraphGroupCount, paragraphVariantCount);
     }
 
-    record Report(
+    public record Report(
             String effectiveDate,
             int selectedVariants,
             int droppedVariants,
@@ -1,11 +1,5 @@
 package se.fk.sfsreader;
 
-import org.apache.http.Header;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,6 +10,15 @@ import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Various handy file IO related functions.
@@ -40,6 +43,89 @@ public class FileIO {
         }
     }
 
+    /**
+     * Calculates the SHA-256 digest of a file, as a hex string
+     */
+    public static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream is = Files.newInputStream(file)) {
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Files of at least this size are memory-mapped by {@link #read(Path)}; below it a plain read is cheaper.
+     */
+    static final int MAP_THRESHOLD = 64 * 1024;
+
+    /**
+     * Reads a file into a read-only buffer. Files of {@link #MAP_THRESHOLD} bytes or more are
+     * memory-mapped rather than copied onto the heap, so their pages are read on demand and
+     * shared (through the page cache) with every other reader of the file. The mapping stays
+     * valid until the buffer is garbage collected. Files of other file systems, such as documents
+     * in a zip archive, are read onto the heap, and so are gzip files ({@code .gz}), which are
+     * decompressed as they are read.
+     */
+    public static ByteBuffer read(Path file) throws IOException {
+        if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".gz")) {
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(file), 64 * 1024)) {
+                return ByteBuffer.wrap(in.readAllBytes()).asReadOnlyBuffer();
+            }
+        }
+        if (file.getFileSystem() != FileSystems.getDefault()) {
+            return ByteBuffer.wrap(Files.readAllBytes(file)).asReadOnlyBuffer();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < MAP_THRESHOLD) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // read on
+                }
+                return buffer.flip().asReadOnlyBuffer();
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + file + " (" + size + " bytes)");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * Calculates the SHA-256 digest of the remaining bytes of a buffer, as a hex string. The
+     * position of the buffer is left as it is.
+     */
+    public static String sha256(ByteBuffer bytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(bytes.duplicate());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Calculates the SHA-256 digest of a byte array, as a hex string
+     */
+    public static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
     /**
      * Writes from an InputStream to a file
      */
@@ -121,30 +207,31 @@ public class FileIO {
         return d.delete();
     }
 
-    private static final String USER_AGENT = "Mozilla/5.0";
-
+    /**
+     * Downloads a document into a file, on a connection pool shared by all downloads.
+     *
+     * @return false if the server answered with anything but 200
+     */
     public static boolean download(URI uri, File file) throws IOException {
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-
-            HttpGet getMethod = new HttpGet(uri);
-            getMethod.addHeader("User-Agent", USER_AGENT);
-
-            HttpResponse rawResponse = client.execute(getMethod);
-            int status = rawResponse.getStatusLine().getStatusCode();
-            if (200 == status) {
-                HttpEntity entity = rawResponse.getEntity();
-                Header contentType = entity.getContentType();
-                log.debug("Download {} from {} [{}]", file.getName(), uri, contentType.getValue());
+        try {
+            HttpFetcher.Result result = SharedFetcher.INSTANCE.fetch(uri, file.toPath());
+            log.debug("Download {} from {} ({} bytes)", file.getName(), uri, result.bytes());
+            return true;
+        } catch (HttpFetcher.StatusException e) {
+            log.warn(e.getMessage());
+            return false;
+        }
+    }
 
-                writeToFile(entity.getContent(), file);
-                return true;
+    private static final class SharedFetcher {
+        private static final HttpFetcher INSTANCE = create();
 
-            } else {
-                log.warn("Failed to retrieve data from {}: [{}] {}",
-                        uri, status, rawResponse.getStatusLine().getReasonPhrase());
+        private static HttpFetcher create() {
+            try {
+                return new HttpFetcher(null, 4);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-
-            return false;
         }
     }
 }
@@ -0,0 +1,112 @@
+package se.fk.sfsreader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide budget for the heap held by the large transient structures of a parse: the
+ * payloads being extracted from a dokumentstatus file, a Jsoup document, a text payload being
+ * split into lines. Each such stage reserves an estimate of its peak before it starts and returns
+ * it when done, and a stage whose reservation does not fit beside those already held waits for
+ * them. With a tight budget the stages thereby run one after another rather than side by side --
+ * the two payload parses of hybrid mode, or the documents of a corpus run. A reservation larger
+ * than the whole budget is cut down to the budget, so the stage still runs, alone.
+ * <p>
+ * Stages never reserve while holding a reservation, so waiting cannot deadlock. The budget is
+ * unlimited unless set with {@code --heap-budget}.
+ */
+final class HeapBudget {
+    private static final Logger log = LoggerFactory.getLogger(HeapBudget.class);
+
+    // Heap per input byte while extracting the payloads, from allocatedBytes of DocumentSources.from
+    // in stage-metrics.json for the SFB: 8.4 MB for 2.3 MB of XML, scanned in place. JSON and the
+    // StAX fallback allocate about twice that, but mostly decoding buffers that do not live long
+    static final int EXTRACTION_FACTOR = 4;
+    // Peak heap per payload byte, from the peak figures of stage-metrics.json for the SFB
+    static final int HTML_FACTOR = 30;
+    static final int TEXT_FACTOR = 20;
+
+    private static final long MB = 1024L * 1024L;
+
+    private static volatile HeapBudget global = new HeapBudget(Long.MAX_VALUE);
+
+    private final long budgetBytes;
+    private long reservedBytes = 0L;
+
+    HeapBudget(long budgetBytes) {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("Heap budget must be positive: " + budgetBytes);
+        }
+        this.budgetBytes = budgetBytes;
+    }
+
+    static HeapBudget global() {
+        return global;
+    }
+
+    static void setGlobal(HeapBudget budget) {
+        global = budget;
+    }
+
+    boolean isLimited() {
+        return budgetBytes != Long.MAX_VALUE;
+    }
+
+    long budgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * Whether stages needing {@code bytes} together may run side by side at all.
+     */
+    boolean fits(long bytes) {
+        return bytes <= budgetBytes;
+    }
+
+    /**
+     * Reserves {@code bytes} for {@code stage}, waiting until they fit beside the reservations
+     * of other stages. Close the reservation when the stage is done.
+     */
+    Reservation reserve(String stage, long bytes) throws InterruptedException {
+        if (!isLimited()) {
+            return new Reservation(0L);
+        }
+        long amount = Math.min(Math.max(bytes, 0L), budgetBytes);
+        synchronized (this) {
+            if (reservedBytes > 0 && reservedBytes + amount > budgetBytes) {
+                log.info("{} waits for heap budget: needs {} MB, {} of {} MB reserved",
+                        stage, amount / MB, reservedBytes / MB, budgetBytes / MB);
+                while (reservedBytes > 0 && reservedBytes + amount > budgetBytes) {
+                    wait();
+                }
+            }
+            reservedBytes += amount;
+        }
+        return new Reservation(amount);
+    }
+
+    synchronized long reservedBytes() {
+        return reservedBytes;
+    }
+
+    private synchronized void release(long amount) {
+        reservedBytes -= amount;
+        notifyAll();
+    }
+
+    final class Reservation implements AutoCloseable {
+        private long amount;
+
+        private Reservation(long amount) {
+            this.amount = amount;
+        }
+
+        @Override
+        public void close() {
+            if (amount > 0) {
+                release(amount);
+                amount = 0L;
+            }
+        }
+    }
+}
@@ -37,6 +37,7 @@ public class HtmlProcessor {
     private final String lagName;
     private final String lagId;
     private boolean sawRealChapter = false;
+    private int overgangCount = 0;
 
     public HtmlProcessor(String lagName, String lagId) {
         this.lagName = lagName;
@@ -95,6 +96,7 @@ public class HtmlProcessor {
      */
     public Optional<Lag> process(Document doc) {
         sawRealChapter = false;
+        overgangCount = 0;
         Stack<Layer> stack = new Stack<>();
         stack.push(new Lag(lagName, lagId));
 
@@ -338,7 +340,7 @@ public class HtmlProcessor {
         Attribute name = element.attribute("name");
         if (/* necessary */ null != name && "overgang".equals(name.getValue())) {
             element.text();
-            kapitel = new Overgang(text, !sawRealChapter);
+            kapitel = new Overgang(++overgangCount, text, !sawRealChapter);
         }
 
         //
@@ -0,0 +1,261 @@
+package se.fk.sfsreader;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches documents over HTTP into files, on pooled keep-alive connections. With a cache
+ * directory, the validators of every response ({@code ETag}, {@code Last-Modified}) are kept per
+ * URI, and a later fetch of the same URI into the same, untouched file is sent as a conditional
+ * GET. A {@code 304 Not Modified} leaves the file as it is and is reported as
+ * {@link Status#NOT_MODIFIED}, so that the caller can skip reprocessing it as well.
+ * <p>
+ * The body of a response is streamed to a temporary file beside the target and moved into place
+ * when complete, so a failed transfer never leaves a truncated document behind. Safe for use by
+ * several threads; a URI should not be fetched by two of them at once.
+ */
+final class HttpFetcher implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(HttpFetcher.class);
+    private static final Gson gson = new Gson();
+
+    private static final String USER_AGENT = "Mozilla/5.0";
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+    private static final int SOCKET_TIMEOUT_MS = 60_000;
+    private static final long IDLE_CONNECTION_SECONDS = 30;
+
+    enum Status {
+        FETCHED,
+        NOT_MODIFIED
+    }
+
+    /**
+     * A response with a status other than 200, or 304 to a conditional GET.
+     */
+    static final class StatusException extends IOException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        StatusException(URI uri, int status, String reason) {
+            super("Failed to fetch " + uri + ": [" + status + "] " + reason);
+            this.status = status;
+        }
+
+        int status() {
+            return status;
+        }
+    }
+
+    /**
+     * Outcome of a fetch.
+     *
+     * @param file   where the document is
+     * @param bytes  size of the document
+     * @param sha256 SHA-256 of the document
+     */
+    record Result(URI uri, Path file, Status status, long bytes, String sha256) {
+        boolean modified() {
+            return status == Status.FETCHED;
+        }
+    }
+
+    /**
+     * What the cache knows of a URI: the validators of its last response and the file the body
+     * went to, with the size and modification time the file had then.
+     */
+    record Entry(String uri, String etag, String lastModified, String file, long size, long modifiedMillis, String sha256) {}
+
+    private final Path cacheDirectory;
+    private final PoolingHttpClientConnectionManager connections;
+    private final CloseableHttpClient client;
+
+    /**
+     * @param cacheDirectory where to keep the validators, or null for plain GETs
+     * @param maxConnections connections kept open at most, per host as in total
+     */
+    HttpFetcher(Path cacheDirectory, int maxConnections) throws IOException {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("Number of connections must be positive: " + maxConnections);
+        }
+        this.cacheDirectory = cacheDirectory;
+        if (cacheDirectory != null) {
+            Files.createDirectories(cacheDirectory);
+        }
+        connections = new PoolingHttpClientConnectionManager();
+        connections.setMaxTotal(maxConnections);
+        connections.setDefaultMaxPerRoute(maxConnections);
+        client = HttpClients.custom()
+                .setConnectionManager(connections)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(CONNECT_TIMEOUT_MS)
+                        .setConnectionRequestTimeout(CONNECT_TIMEOUT_MS)
+                        .setSocketTimeout(SOCKET_TIMEOUT_MS)
+                        .build())
+                .setUserAgent(USER_AGENT)
+                .build();
+    }
+
+    /**
+     * Fetches {@code uri} into {@code target}, conditionally if the cache has validators for it
+     * and the target is as the last fetch left it. Fails on any status but 200 and 304.
+     */
+    Result fetch(URI uri, Path target) throws IOException {
+        Optional<Entry> cached = cached(uri, target);
+        HttpGet get = new HttpGet(uri);
+        cached.map(Entry::etag).ifPresent(etag -> get.addHeader(HttpHeaders.IF_NONE_MATCH, etag));
+        cached.map(Entry::lastModified).ifPresent(date -> get.addHeader(HttpHeaders.IF_MODIFIED_SINCE, date));
+
+        try (CloseableHttpResponse response = client.execute(get)) {
+            int status = response.getStatusLine().getStatusCode();
+            HttpEntity entity = response.getEntity();
+            if (status == HttpStatus.SC_NOT_MODIFIED && cached.isPresent()) {
+                EntityUtils.consume(entity);
+                log.debug("Not modified: {}", uri);
+                return new Result(uri, target, Status.NOT_MODIFIED, cached.get().size(), cached.get().sha256());
+            }
+            if (status != HttpStatus.SC_OK || entity == null) {
+                // Consumed so that the connection can be reused
+                EntityUtils.consume(entity);
+                throw new StatusException(uri, status, response.getStatusLine().getReasonPhrase());
+            }
+
+            MessageDigest digest = sha256();
+            Path parent = target.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temporary = Files.createTempFile(parent, target.getFileName().toString(), ".part");
+            long bytes;
+            try {
+                try (InputStream in = entity.getContent();
+                     OutputStream out = new DigestOutputStream(Files.newOutputStream(temporary), digest)) {
+                    bytes = in.transferTo(out);
+                }
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            String sha256 = HexFormat.of().formatHex(digest.digest());
+            log.debug("Fetched {} ({} bytes) into {}", uri, bytes, target);
+            remember(uri, target, header(response, HttpHeaders.ETAG), header(response, HttpHeaders.LAST_MODIFIED), sha256);
+            return new Result(uri, target, Status.FETCHED, bytes, sha256);
+        }
+    }
+
+    /**
+     * The cache entry for {@code uri}, if it has validators and {@code target} still is the file it describes.
+     */
+    private Optional<Entry> cached(URI uri, Path target) throws IOException {
+        if (cacheDirectory == null) {
+            return Optional.empty();
+        }
+        Entry entry;
+        try {
+            entry = gson.fromJson(Files.readString(entryFile(uri), StandardCharsets.UTF_8), Entry.class);
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (JsonParseException e) {
+            log.warn("Ignoring unreadable HTTP cache entry for {}: {}", uri, e.getMessage());
+            return Optional.empty();
+        }
+        if (entry == null || (entry.etag() == null && entry.lastModified() == null)
+                || !uri.toString().equals(entry.uri()) || !key(target).equals(entry.file()) || !Files.isRegularFile(target)) {
+            return Optional.empty();
+        }
+        BasicFileAttributes attributes = Files.readAttributes(target, BasicFileAttributes.class);
+        if (attributes.size() != entry.size() || attributes.lastModifiedTime().toMillis() != entry.modifiedMillis()) {
+            log.debug("{} changed since it was fetched; fetching it whole", target);
+            return Optional.empty();
+        }
+        return Optional.of(entry);
+    }
+
+    private void remember(URI uri, Path target, String etag, String lastModified, String sha256) throws IOException {
+        if (cacheDirectory == null) {
+            return;
+        }
+        Path file = entryFile(uri);
+        if (etag == null && lastModified == null) {
+            // Nothing to validate against
+            Files.deleteIfExists(file);
+            return;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(target, BasicFileAttributes.class);
+        Entry entry = new Entry(uri.toString(), etag, lastModified, key(target),
+                attributes.size(), attributes.lastModifiedTime().toMillis(), sha256);
+        Path temporary = Files.createTempFile(cacheDirectory, file.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(temporary, gson.toJson(entry), StandardCharsets.UTF_8);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private Path entryFile(URI uri) {
+        return cacheDirectory.resolve(FileIO.sha256(uri.toString().getBytes(StandardCharsets.UTF_8)) + ".json");
+    }
+
+    private static String key(Path target) {
+        return target.toAbsolutePath().normalize().toString();
+    }
+
+    private static String header(CloseableHttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        connections.closeIdleConnections(0, TimeUnit.SECONDS);
+        client.close();
+    }
+
+    /**
+     * Closes connections idle for longer than a server is likely to keep them; for long-lived fetchers.
+     */
+    void closeIdleConnections() {
+        connections.closeExpiredConnections();
+        connections.closeIdleConnections(IDLE_CONNECTION_SECONDS, TimeUnit.SECONDS);
+    }
+}
@@ -2,6 +2,9 @@ package se.fk.sfsreader;
 
 import se.fk.sfsreader.model.*;
 
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 public class HybridReconciler {
@@ -25,7 +28,7 @@ public class HybridReconciler {
             String message,
             String htmlPeriodisering,
             String textPeriodisering
-    ) {
+    ) implements Serializable {
         public Finding(
                 String key,
                 String type,
@@ -42,18 +45,30 @@ public class HybridReconciler {
             Map<String, Integer> byType,
             Map<Severity, Integer> bySeverity,
             List<Finding> findings
-    ) {
+    ) implements Serializable {
         public String asText() {
             StringBuilder sb = new StringBuilder();
+            try {
+                writeText(sb);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Writes the report of {@link #asText()} to {@code sb}, e.g. straight into a file.
+         */
+        public void writeText(Appendable sb) throws IOException {
             sb.append("Hybrid reconciliation report\n");
-            sb.append("Findings: ").append(findingCount).append("\n\n");
+            sb.append("Findings: ").append(String.valueOf(findingCount)).append("\n\n");
 
             if (!bySeverity.isEmpty()) {
                 sb.append("Summary by severity:\n");
                 for (Severity severity : Severity.values()) {
                     int count = bySeverity.getOrDefault(severity, 0);
                     if (count > 0) {
-                        sb.append("- ").append(severity).append(": ").append(count).append("\n");
+                        sb.append("- ").append(String.valueOf(severity)).append(": ").append(String.valueOf(count)).append("\n");
                     }
                 }
                 sb.append("\n");
@@ -62,27 +77,33 @@ public class HybridReconciler {
             if (!byType.isEmpty()) {
                 sb.append("Summary by type:\n");
                 for (Map.Entry<String, Integer> entry : byType.entrySet()) {
-                    sb.append("- ").append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+                    sb.append("- ").append(entry.getKey()).append(": ").append(String.valueOf(entry.getValue())).append("\n");
                 }
                 sb.append("\n");
             }
 
             for (Finding finding : findings) {
                 sb.append("- [")
-                        .append(finding.severity()).append("] ")
+                        .append(String.valueOf(finding.severity())).append("] ")
                         .append(finding.type())
                         .append(" key=").append(finding.key())
                         .append(" :: ")
                         .append(finding.message())
                         .append("\n");
             }
-            return sb.toString();
         }
     }
 
     public Result reconcile(Lag htmlLag, Lag textLag) {
-        Map<String, ChapterView> html = index(htmlLag);
-        Map<String, ChapterView> text = index(textLag);
+        return reconcile(chapters(htmlLag), chapters(textLag));
+    }
+
+    /**
+     * Reconciles two sets of chapters, e.g. the chapters of a law that were parsed from both payloads.
+     */
+    Result reconcile(Collection<Kapitel> htmlKapitel, Collection<Kapitel> textKapitel) {
+        Map<String, ChapterView> html = index(htmlKapitel);
+        Map<String, ChapterView> text = index(textKapitel);
 
         List<Finding> findings = new ArrayList<>();
         Map<String, Integer> byType = new LinkedHashMap<>();
@@ -118,6 +139,11 @@ public class HybridReconciler {
                         ));
                 continue;
             }
+            if (h.transitional || t.transitional) {
+                // Övergångsbestämmelser are only compared as chapters: HTML numbers their provisions
+                // by the SFS number of the amendment, text by point, so paragraph ids do not match
+                continue;
+            }
 
             Set<String> paragraphIds = new TreeSet<>(new ParagraphIdComparator());
             paragraphIds.addAll(h.paragraphs.keySet());
@@ -246,29 +272,34 @@ public class HybridReconciler {
         return new Result(findings.size(), byType, bySeverity, findings);
     }
 
-    private static Map<String, ChapterView> index(Lag lag) {
-        Map<String, ChapterView> out = new HashMap<>();
+    private static Collection<Kapitel> chapters(Lag lag) {
         Set<Kapitel> seenKapitel = Collections.newSetFromMap(new IdentityHashMap<>());
-
+        List<Kapitel> out = new ArrayList<>();
         for (Avdelning avdelning : lag.get()) {
             for (Kapitel kapitel : avdelning.get()) {
-                if (!seenKapitel.add(kapitel)) {
-                    continue;
+                if (seenKapitel.add(kapitel)) {
+                    out.add(kapitel);
                 }
+            }
+        }
+        return out;
+    }
 
-                String chapterId = normalizeId(kapitel.id());
-                ChapterView chapter = out.computeIfAbsent(chapterId, id -> new ChapterView(kapitel.namn()));
-                for (Paragraf paragraf : kapitel.get()) {
-                    String paragraphId = normalizeId(paragraf.nummer());
-                    String body = paragraphBody(paragraf);
-                    String periodisering = normalize(paragraf.getPeriodisering().orElse(""));
-                    String versionIdentity = normalize(paragraf.getVersionIdentity().orElse(""));
-                    String versionStatus = normalize(paragraf.getVersionStatus().orElse("UNTAGGED"));
-                    ParagraphVariant variant = new ParagraphVariant(body, periodisering, versionIdentity, versionStatus);
-                    List<ParagraphVariant> variants = chapter.paragraphs.computeIfAbsent(paragraphId, ignored -> new ArrayList<>());
-                    if (!variants.contains(variant)) {
-                        variants.add(variant);
-                    }
+    private static Map<String, ChapterView> index(Collection<Kapitel> kapitlen) {
+        Map<String, ChapterView> out = new LinkedHashMap<>();
+        for (Kapitel kapitel : kapitlen) {
+            String chapterId = normalizeId(kapitel.id());
+            ChapterView chapter = out.computeIfAbsent(chapterId, id -> new ChapterView(kapitel.namn(), kapitel instanceof Overgang));
+            for (Paragraf paragraf : kapitel.get()) {
+                String paragraphId = normalizeId(paragraf.nummer());
+                String body = paragraphBody(paragraf);
+                String periodisering = normalize(paragraf.getPeriodisering().orElse(""));
+                String versionIdentity = normalize(paragraf.getVersionIdentity().orElse(""));
+                String versionStatus = normalize(paragraf.getVersionStatus().orElse("UNTAGGED"));
+                ParagraphVariant variant = new ParagraphVariant(body, periodisering, versionIdentity, versionStatus);
+                List<ParagraphVariant> variants = chapter.paragraphs.computeIfAbsent(paragraphId, ignored -> new ArrayList<>());
+                if (!variants.contains(variant)) {
+                    variants.add(variant);
                 }
             }
         }
@@ -456,10 +487,12 @@ public class HybridReconciler {
 
     private static final class ChapterView {
         private final String name;
-        private final Map<String, List<ParagraphVariant>> paragraphs = new HashMap<>();
+        private final boolean transitional;
+        private final Map<String, List<ParagraphVariant>> paragraphs = new LinkedHashMap<>();
 
-        private ChapterView(String name) {
+        private ChapterView(String name, boolean transitional) {
             this.name = name;
+            this.transitional = transitional;
         }
     }
 
@@ -0,0 +1,38 @@
+package se.fk.sfsreader;
+
+import se.fk.sfsreader.model.Lag;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Serialized form of a parsed {@link Lag}, from which any number of independent copies
+ * can be restored. Used where several outputs are produced from one parse and each of
+ * them modifies the tree (effective date filtering, pruning, preparing for serialization).
+ */
+final class LagSnapshot {
+    private final byte[] bytes;
+
+    private LagSnapshot(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    static LagSnapshot of(Lag lag) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(1 << 20);
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(lag);
+        }
+        return new LagSnapshot(buffer.toByteArray());
+    }
+
+    Lag restore() throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Lag) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Model class missing when restoring snapshot", e);
+        }
+    }
+}
@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.time.Clock;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.Collection;
@@ -22,6 +23,19 @@ public class LatexProcessor {
     // Cf. se.fk.sfsreader.model.Stycke IS_ITEMIZED_RE
     private static final String NEEDS_EXTRA_SPACING_RE = "^(-\\s|\\d+(\\s?[a-z])?\\.\\s|[a-z]\\.\\s).+";
 
+    private final Clock clock;
+
+    public LatexProcessor() {
+        this(Clock.systemDefaultZone());
+    }
+
+    /**
+     * @param clock gives the date in the preamble
+     */
+    public LatexProcessor(Clock clock) {
+        this.clock = clock;
+    }
+
     public void process(
             final Lag lag,
             final Collection<Path> templates,
@@ -46,7 +60,7 @@ public class LatexProcessor {
                 ST template = group.getInstanceOf("preamble");
                 template.add("namn", lag.namn());
                 template.add("id", lag.id());
-                LocalDate date = LocalDate.now();
+                LocalDate date = LocalDate.now(clock);
                 template.add("date", date.format(DateTimeFormatter.ISO_LOCAL_DATE));
                 s.append(template.render());
             }
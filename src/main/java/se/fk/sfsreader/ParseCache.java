@@ -0,0 +1,313 @@
+package se.fk.sfsreader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.fk.sfsreader.model.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of parsed documents, keyed on the content of the input file, the source
+ * mode and the parser version. A hit hands back the Lag trees (and the hybrid reconciliation)
+ * as they were directly after parsing, so that DocumentSources, Jsoup and the processors
+ * can be skipped altogether.
+ * <p>
+ * Entries are evicted least recently used first when the cache grows beyond its size
+ * bound; the modification time of an entry file is bumped on every hit and serves as
+ * the access time.
+ */
+final class ParseCache {
+    private static final Logger log = LoggerFactory.getLogger(ParseCache.class);
+
+    static final String SUFFIX = ".model";
+    private static final String ANOMALY_SEPARATOR = "-";
+
+    // Bump when the layout of Entry changes in a way not covered by the parser fingerprint
+    private static final int FORMAT_VERSION = 1;
+
+    // Classes whose behaviour decides what a parse produces. Their byte code is part of
+    // the cache key, so a rebuilt parser never gets served trees from an older one.
+    private static final List<Class<?>> PARSER_CLASSES = List.of(
+            SfsReader.class, DocumentSources.class, DokumentstatusScanner.class, PayloadParser.class,
+            HtmlProcessor.class, TextProcessor.class, ChapterwiseParser.class, HybridReconciler.class,
+            PeriodiseringMarker.class, ParseCache.class,
+            Lag.class, Avdelning.class, Underavdelning.class, Kapitel.class, Overgang.class,
+            Sektion.class, Kapitelrubrik.class, Paragrafrubrik.class,
+            Paragraf.class, Stycke.class, Punkt.class
+    );
+
+    private static final ObjectInputFilter FILTER =
+            ObjectInputFilter.Config.createFilter("se.fk.sfsreader.**;java.util.*;java.lang.*;!*");
+
+    private static volatile String parserVersion = null;
+
+    private final Path directory;
+    private final long maxBytes;
+
+    ParseCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+    }
+
+    Path directory() {
+        return directory;
+    }
+
+    /**
+     * Cache key for an input file parsed in a specific source mode. A gzipped file is keyed on
+     * its decompressed content, as it is read for parsing.
+     */
+    String key(Path inputFile, SourceMode sourceMode) throws IOException {
+        return key(contentHash(inputFile), sourceMode);
+    }
+
+    /**
+     * Cache key for a document in memory parsed in a specific source mode.
+     */
+    String key(byte[] content, SourceMode sourceMode) {
+        return key(FileIO.sha256(content), sourceMode);
+    }
+
+    /**
+     * Cache key for a document in memory parsed in chapterwise mode with an anomaly list, which
+     * decides which chapters are parsed from HTML. Without anomaly chapters the key is as above;
+     * with them, it is that key followed by a digest of the chapters, so that {@link #invalidate}
+     * finds the entries of every anomaly list from the content alone.
+     */
+    String key(byte[] content, SourceMode sourceMode, Set<String> anomalyChapters) {
+        return key(ByteBuffer.wrap(content), sourceMode, anomalyChapters);
+    }
+
+    /**
+     * As {@link #key(byte[], SourceMode, Set)}, for the remaining bytes of a buffer such as a mapped file.
+     */
+    String key(ByteBuffer content, SourceMode sourceMode, Set<String> anomalyChapters) {
+        String key = key(FileIO.sha256(content), sourceMode);
+        if (sourceMode != SourceMode.CHAPTERWISE || anomalyChapters.isEmpty()) {
+            return key;
+        }
+        return key + ANOMALY_SEPARATOR + sha256(String.join(",", new TreeSet<>(anomalyChapters)));
+    }
+
+    private static String contentHash(Path inputFile) throws IOException {
+        return FileIO.sha256(FileIO.read(inputFile));
+    }
+
+    private static String key(String contentHash, SourceMode sourceMode) {
+        return sha256(parserVersion() + "\n" + sourceMode.mode() + "\n" + contentHash);
+    }
+
+    Optional<Entry> get(String key) {
+        Path file = directory.resolve(key + SUFFIX);
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            in.setObjectInputFilter(FILTER);
+            Entry entry = (Entry) in.readObject();
+            try {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException ioe) {
+                // Evicted in between -- not a problem, we have already read it
+            }
+            log.debug("Cache hit: {}", key);
+            return Optional.of(entry);
+
+        } catch (NoSuchFileException nsfe) {
+            log.debug("Cache miss: {}", key);
+            return Optional.empty();
+
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            log.warn("Discarding unreadable cache entry {}: {}", file.getFileName(), e.getMessage());
+            remove(file);
+            return Optional.empty();
+        }
+    }
+
+    void put(String key, Entry entry) throws IOException {
+        Path file = directory.resolve(key + SUFFIX);
+        Path tmp = Files.createTempFile(directory, key, ".tmp");
+        try {
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024))) {
+                out.writeObject(entry);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        evict();
+    }
+
+    /**
+     * Removes the entries for the given input files, in all source modes and with any anomaly list.
+     * Returns the number of removed entries.
+     */
+    int invalidate(List<Path> inputFiles) throws IOException {
+        int count = 0;
+        List<Path> entries = entries();
+        for (Path inputFile : inputFiles) {
+            String contentHash = contentHash(inputFile);
+            for (SourceMode sourceMode : SourceMode.values()) {
+                String key = key(contentHash, sourceMode);
+                for (Path file : entries) {
+                    String name = file.getFileName().toString();
+                    if ((name.equals(key + SUFFIX) || name.startsWith(key + ANOMALY_SEPARATOR)) && remove(file)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Removes all entries. Returns the number of removed entries.
+     */
+    int clear() throws IOException {
+        int count = 0;
+        for (Path file : entries()) {
+            if (remove(file)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Removes least recently used entries until the cache fits within its size bound.
+     */
+    synchronized void evict() throws IOException {
+        record Candidate(Path file, long size, long lastUsed) {}
+
+        List<Candidate> candidates = new ArrayList<>();
+        long total = 0L;
+        for (Path file : entries()) {
+            try {
+                Candidate candidate = new Candidate(file, Files.size(file), Files.getLastModifiedTime(file).toMillis());
+                candidates.add(candidate);
+                total += candidate.size();
+            } catch (NoSuchFileException nsfe) {
+                // Removed concurrently
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+
+        candidates.sort(Comparator.comparingLong(Candidate::lastUsed));
+        for (Candidate candidate : candidates) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (remove(candidate.file())) {
+                log.debug("Evicted cache entry {} ({} bytes)", candidate.file().getFileName(), candidate.size());
+            }
+            total -= candidate.size();
+        }
+    }
+
+    private List<Path> entries() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).toList();
+        }
+    }
+
+    private static boolean remove(Path file) {
+        try {
+            return Files.deleteIfExists(file);
+        } catch (IOException ioe) {
+            log.warn("Could not remove cache entry {}: {}", file, ioe.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Fingerprint of the parser, calculated from the byte code of the classes that make up the parser.
+     */
+    static String parserVersion() {
+        String version = parserVersion;
+        if (version == null) {
+            MessageDigest digest = digest();
+            digest.update(("format " + FORMAT_VERSION).getBytes(StandardCharsets.UTF_8));
+            boolean fromClassFiles = true;
+            for (Class<?> clazz : PARSER_CLASSES) {
+                try (InputStream is = clazz.getResourceAsStream(clazz.getSimpleName() + ".class")) {
+                    if (is == null) {
+                        fromClassFiles = false;
+                        break;
+                    }
+                    digest.update(is.readAllBytes());
+                } catch (IOException ioe) {
+                    throw new IllegalStateException("Could not read byte code of " + clazz.getName(), ioe);
+                }
+            }
+            if (!fromClassFiles) {
+                // No class files to look at (a native executable), so every build of
+                // the executable is considered a parser version of its own
+                digest.update(executableIdentity().getBytes(StandardCharsets.UTF_8));
+            }
+            version = HexFormat.of().formatHex(digest.digest());
+            parserVersion = version;
+        }
+        return version;
+    }
+
+    private static String executableIdentity() {
+        Optional<String> command = ProcessHandle.current().info().command();
+        if (command.isPresent()) {
+            try {
+                Path executable = Path.of(command.get());
+                return "native " + executable + " " + Files.size(executable) + " " + Files.getLastModifiedTime(executable).toMillis();
+            } catch (IOException ioe) {
+                log.warn("Could not stat executable {}: {}", command.get(), ioe.getMessage());
+            }
+        }
+        // Unknown build, so never reuse entries across processes
+        return "native " + ProcessHandle.current().pid() + " " + System.nanoTime();
+    }
+
+    private static String sha256(String s) {
+        return HexFormat.of().formatHex(digest().digest(s.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * A document as parsed, before any effective date filtering or pruning.
+     * {@code html} and {@code text} are null when not requested or not present
+     * in the input; {@code reconciliation} is null unless both were parsed.
+     */
+    record Entry(
+            Lag html,
+            Lag text,
+            HybridReconciler.Result reconciliation
+    ) implements Serializable {}
+}
@@ -0,0 +1,298 @@
+package se.fk.sfsreader;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a warmed-up pipeline in a long-running JVM and accepts documents over local HTTP.
+ * <p>
+ * <pre>
+ *   POST /process?source-mode=hybrid&amp;effective-date=2028-07-01&amp;periodisering-mode=strict
+ *   (body: dokumentstatus XML or raw HTML)
+ * </pre>
+ * The response is a single JSON object holding output.json and the analysis reports that
+ * the command line tool would have written next to the input file. The document is parsed in
+ * memory through {@link SfsReader} and the reports are serialized straight into the response.
+ * At most {@code workers} documents are processed at a time; a request arriving when all of
+ * them are busy is answered 503 at once. The server has threads to spare beyond the workers,
+ * so {@code /health} and those 503 answers never wait behind a parse.
+ */
+final class ParseServer {
+    private static final Logger log = LoggerFactory.getLogger(ParseServer.class);
+
+    private static final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+    // Threads beyond the workers, for /health and for turning requests away
+    private static final int SPARE_THREADS = 2;
+    private static final String DOCUMENT_NAME = "input.xml";
+
+    private static final String WARMUP_DOCUMENT = """
+            <dokumentstatus>
+              <dokument>
+                <titel>Uppvärmningslag (2000:1)</titel>
+                <beteckning>2000:1</beteckning>
+                <text>AVD. A UPPVÄRMNING
+            1 kap. Inledande bestämmelser
+            1 § /Upphör att gälla U:2030-01-01/ Denna lag gäller uppvärmning.
+            1 § /Träder i kraft I:2030-01-01/ Denna lag gäller fortfarande uppvärmning.
+            Övergångsbestämmelser
+            1. Denna lag träder i kraft den 1 juli 2000.</text>
+                <html><![CDATA[<div><h2>AVD. A UPPVÄRMNING</h2>
+            <h3 name="K1"><a name="K1">1 kap. Inledande bestämmelser</a></h3>
+            <a class="paragraf" name="K1P1"><b>1 §</b></a> Denna lag gäller uppvärmning.
+            <h3 name="overgang"><a name="overgang">Övergångsbestämmelser</a></h3>
+            1. Denna lag träder i kraft den 1 juli 2000.</div>]]></html>
+              </dokument>
+            </dokumentstatus>
+            """;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int workers;
+    final Semaphore inFlight;
+
+    ParseServer(int port, int workers) throws IOException {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = workers;
+        this.inFlight = new Semaphore(workers);
+        this.executor = Executors.newFixedThreadPool(workers + SPARE_THREADS, r -> {
+            Thread t = new Thread(r, "serve-worker-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/process", this::handleProcess);
+        server.createContext("/health", exchange -> respond(exchange, 200, "text/plain", "ok\n".getBytes(StandardCharsets.UTF_8)));
+        server.setExecutor(executor);
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    void start() {
+        warmUp();
+        server.start();
+        log.info("Serving on http://{}:{}/process with {} workers",
+                server.getAddress().getHostString(), port(), workers);
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs a small synthetic document through all stages, so that class loading and
+     * the first JIT compilations are done before the first real request arrives.
+     */
+    private void warmUp() {
+        long start = System.nanoTime();
+        try {
+            Request request = request(Map.of("effective-date", "2029-01-01"));
+            for (int i = 0; i < 3; i++) {
+                write(process(WARMUP_DOCUMENT.getBytes(StandardCharsets.UTF_8), request), OutputStream.nullOutputStream());
+            }
+            log.info("Warm-up completed in {} ms", (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Warm-up failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private void handleProcess(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                respond(exchange, 405, "text/plain", "Expected POST\n".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            Request request;
+            try {
+                request = request(queryParameters(exchange.getRequestURI().getRawQuery()));
+            } catch (IllegalArgumentException iae) {
+                respond(exchange, 400, "text/plain", (iae.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            if (!inFlight.tryAcquire()) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 503, "text/plain", ("All " + workers + " workers are busy\n").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            try {
+                byte[] document;
+                try (InputStream body = exchange.getRequestBody()) {
+                    document = body.readAllBytes();
+                }
+                Outcome outcome = process(document, request);
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.sendResponseHeaders(outcome.failure() == null ? 200 : 422, 0);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    write(outcome, os);
+                }
+            } finally {
+                inFlight.release();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to handle request: {}", e.getMessage(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Parses and evaluates a document. A failure of either, or of the strict periodisering
+     * check, is returned as the exit code and message the command line tool would have given.
+     */
+    private static Outcome process(byte[] document, Request request) {
+        StageMetrics metrics = new StageMetrics();
+        SfsReader reader = new SfsReader(request.options());
+        SfsReader.Parsed parsed = null;
+        SfsReader.Result result = null;
+        ProcessingException failure = null;
+        try {
+            parsed = reader.parse(document, DOCUMENT_NAME, metrics);
+            result = reader.evaluate(parsed, parsed.primary(), request.effectiveDate(), metrics, "");
+            if (result.status() == SfsReader.Status.PERIODISERING_FAILED) {
+                PeriodiseringValidator.Result validation = result.periodiseringValidation().orElseThrow();
+                failure = new ProcessingException(result.status().exitCode(),
+                        "Strict periodisering check failed: invalid=" + validation.invalidCount()
+                                + ", unresolved=" + validation.unresolvedCount()
+                                + ", inlineInText=" + validation.inlineInTextCount());
+            }
+        } catch (ProcessingException pe) {
+            failure = pe;
+        }
+        return new Outcome(request.options().sourceMode(), metrics, parsed, result, failure);
+    }
+
+    /**
+     * Writes the reports of {@code outcome} as one JSON object. As with the command line tool,
+     * a failed strict periodisering check leaves out the schedule and output.
+     */
+    private static void write(Outcome outcome, OutputStream os) throws IOException {
+        try (JsonWriter json = new JsonWriter(new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8)))) {
+            json.setHtmlSafe(false);
+            json.beginObject();
+            if (outcome.failure() != null) {
+                json.name("exitCode").value(outcome.failure().exitCode());
+                json.name("error").value(outcome.failure().getMessage());
+            }
+            SfsReader.Result result = outcome.result();
+            if (result != null && outcome.failure() == null) {
+                result.lag().prepareForSerialization();
+                json.name("output");
+                value(json, result.lag());
+            }
+            if (outcome.parsed() != null && outcome.parsed().reconciliation().isPresent()) {
+                HybridReconciler.Result reconciliation = outcome.parsed().reconciliation().get();
+                json.name("reconciliation");
+                value(json, reconciliation);
+                json.name("reconciliationReport").value(reconciliation.asText());
+                StringWriter newHigh = new StringWriter();
+                Application.newHighReport(outcome.parsed().newHighFindings()).writeTo(newHigh);
+                json.name("reconciliationNewHigh").value(newHigh.toString());
+            }
+            if (result != null) {
+                if (result.effectiveDateReport().isPresent()) {
+                    json.name("effectiveDateReport");
+                    value(json, result.effectiveDateReport().get());
+                }
+                if (result.periodiseringValidation().isPresent()) {
+                    json.name("periodiseringValidation");
+                    value(json, result.periodiseringValidation().get());
+                }
+                if (outcome.failure() == null) {
+                    json.name("periodiseringSchedule");
+                    value(json, result.schedule());
+                }
+            }
+            json.name("stageMetrics");
+            value(json, outcome.metrics().report(DOCUMENT_NAME, outcome.sourceMode().mode()));
+            json.endObject();
+        }
+    }
+
+    private static void value(JsonWriter json, Object value) throws IOException {
+        try {
+            gson.toJson(value, value.getClass(), json);
+        } catch (JsonIOException e) {
+            throw e.getCause() instanceof IOException ioe ? ioe : new IOException(e.getMessage(), e);
+        }
+    }
+
+    private static Request request(Map<String, String> parameters) {
+        List<LocalDate> effectiveDates = Application.parseEffectiveDates(parameters.get("effective-date"));
+        if (effectiveDates.size() > 1) {
+            // The response holds the reports of a single date
+            throw new IllegalArgumentException("Only one effective-date per request");
+        }
+        SfsReader.Options options = SfsReader.Options.defaults()
+                .withSourceMode(SourceMode.from(parameters.get("source-mode")))
+                .withPeriodiseringMode(PeriodiseringMode.from(parameters.get("periodisering-mode"), false));
+        return new Request(options, effectiveDates.stream().findFirst());
+    }
+
+    static Map<String, String> queryParameters(String rawQuery) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            parameters.put(name, value);
+        }
+        return parameters;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+    }
+
+    private record Request(SfsReader.Options options, Optional<LocalDate> effectiveDate) {}
+
+    private record Outcome(
+            SourceMode sourceMode,
+            StageMetrics metrics,
+            SfsReader.Parsed parsed,
+            SfsReader.Result result,
+            ProcessingException failure
+    ) {}
+}
@@ -0,0 +1,142 @@
+package se.fk.sfsreader;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.fk.sfsreader.model.Lag;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses the HTML and text payloads of a document into {@link Lag} trees. The two payloads are
+ * independent of each other until reconciliation, so when both are requested they are parsed
+ * concurrently. If one of the parses fails, the other is cancelled and the failure is propagated.
+ * <p>
+ * Each parse holds a {@link HeapBudget} reservation for the estimated peak of its payload, and
+ * when the two estimates together exceed the budget the payloads are parsed one at a time.
+ */
+final class PayloadParser {
+    private static final Logger log = LoggerFactory.getLogger(PayloadParser.class);
+
+    private static final String BASE_URI = "http://nope.local";
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private PayloadParser() {
+    }
+
+    static Result parse(
+            final DocumentSources sources,
+            final boolean parseHtml,
+            final boolean parseText,
+            final HtmlProcessor htmlProcessor,
+            final TextProcessor textProcessor,
+            final StageMetrics metrics
+    ) throws Exception {
+        Callable<Optional<Lag>> htmlTask = () -> parseHtml ? parseHtml(sources, htmlProcessor, metrics) : Optional.empty();
+        Callable<Optional<Lag>> textTask = () -> parseText ? parseText(sources, textProcessor, metrics) : Optional.empty();
+
+        if (!parseHtml || !parseText || !sources.hasHtml() || !sources.hasText()) {
+            // Nothing to gain from running concurrently
+            return new Result(htmlTask.call(), textTask.call());
+        }
+        HeapBudget budget = HeapBudget.global();
+        long estimate = htmlEstimate(sources) + textEstimate(sources);
+        if (!budget.fits(estimate)) {
+            log.info("Parsing the payloads one at a time: estimated {} MB exceeds the heap budget of {} MB",
+                    estimate / (1024 * 1024), budget.budgetBytes() / (1024 * 1024));
+            Optional<Lag> html = htmlTask.call();
+            return new Result(html, textTask.call());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "payload-parser-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            CompletionService<Optional<Lag>> completion = new ExecutorCompletionService<>(executor);
+            Future<Optional<Lag>> html = completion.submit(htmlTask);
+            Future<Optional<Lag>> text = completion.submit(textTask);
+
+            for (int i = 0; i < 2; i++) {
+                Future<Optional<Lag>> done = completion.take();
+                try {
+                    done.get();
+                } catch (ExecutionException e) {
+                    html.cancel(true);
+                    text.cancel(true);
+                    log.warn("{} payload parse failed, cancelled the other parse", done == html ? "HTML" : "Text");
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception ex) {
+                        throw ex;
+                    }
+                    throw (Error) cause;
+                }
+            }
+            return new Result(html.get(), text.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Optional<Lag> parseHtml(DocumentSources sources, HtmlProcessor processor, StageMetrics metrics) throws Exception {
+        if (!sources.hasHtml()) {
+            return Optional.empty();
+        }
+        HeapBudget.Reservation reservation = HeapBudget.global().reserve("HTML parse", htmlEstimate(sources));
+        try {
+            Document doc = parseDocument(sources.openHtmlStream().orElseThrow(), metrics);
+            return metrics.measure("HtmlProcessor.process", () -> processor.process(doc));
+        } finally {
+            reservation.close();
+        }
+    }
+
+    /**
+     * Kept apart so that the payload stream, and with a single-use source the payload, is
+     * garbage once the document is built.
+     */
+    private static Document parseDocument(InputStream htmlStream, StageMetrics metrics) throws Exception {
+        try (InputStream is = htmlStream) {
+            return metrics.measure("Jsoup.parse", () -> Jsoup.parse(is, StandardCharsets.UTF_8.name(), BASE_URI));
+        }
+    }
+
+    private static Optional<Lag> parseText(DocumentSources sources, TextProcessor processor, StageMetrics metrics) throws Exception {
+        if (!sources.hasText()) {
+            return Optional.empty();
+        }
+        HeapBudget.Reservation reservation = HeapBudget.global().reserve("Text parse", textEstimate(sources));
+        try (Reader reader = new InputStreamReader(sources.openTextStream().orElseThrow(), StandardCharsets.UTF_8)) {
+            return metrics.measure("TextProcessor.process", () -> processor.process(reader));
+        } finally {
+            reservation.close();
+        }
+    }
+
+    static long htmlEstimate(DocumentSources sources) {
+        return sources.htmlSize() * HeapBudget.HTML_FACTOR;
+    }
+
+    static long textEstimate(DocumentSources sources) {
+        return sources.textSize() * HeapBudget.TEXT_FACTOR;
+    }
+
+    record Result(
+            Optional<Lag> html,
+            Optional<Lag> text
+    ) {}
+}
@@ -0,0 +1,43 @@
+package se.fk.sfsreader;
+
+/**
+ * How periodisering markers are validated: {@code STRICT} fails the document on invalid,
+ * unresolved or inline markers, {@code LENIENT} only reports them and {@code OFF} skips validation.
+ */
+public enum PeriodiseringMode {
+    STRICT("strict"),
+    LENIENT("lenient"),
+    OFF("off");
+
+    private final String mode;
+
+    PeriodiseringMode(String mode) {
+        this.mode = mode;
+    }
+
+    public String mode() {
+        return mode;
+    }
+
+    static PeriodiseringMode from(String value, boolean strictFlag) {
+        PeriodiseringMode fromOption;
+        if (value == null || value.isBlank()) {
+            fromOption = LENIENT;
+        } else {
+            fromOption = switch (value.trim().toLowerCase()) {
+                case "strict" -> STRICT;
+                case "lenient" -> LENIENT;
+                case "off" -> OFF;
+                default -> throw new IllegalArgumentException("Unsupported --periodisering-mode: " + value + ". Expected strict|lenient|off");
+            };
+        }
+
+        if (strictFlag && fromOption == OFF) {
+            throw new IllegalArgumentException("Conflicting flags: --strict-periodisering cannot be combined with --periodisering-mode off");
+        }
+        if (strictFlag) {
+            return STRICT;
+        }
+        return fromOption;
+    }
+}
@@ -11,7 +11,7 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 
-final class PeriodiseringSchedule {
+public final class PeriodiseringSchedule {
     private PeriodiseringSchedule() {
     }
 
@@ -65,7 +65,20 @@ final class PeriodiseringSchedule {
         );
     }
 
-    record Report(
+    /**
+     * Distinct dates of the transitions at or after the reference date of the report, in order.
+     */
+    static List<LocalDate> upcomingDates(Report report) {
+        LocalDate referenceDate = LocalDate.parse(report.referenceDate());
+        return report.transitions().stream()
+                .map(t -> LocalDate.parse(t.date()))
+                .filter(d -> !d.isBefore(referenceDate))
+                .distinct()
+                .sorted()
+                .toList();
+    }
+
+    public record Report(
             String referenceDate,
             String nextTransitionDate,
             int totalDatedTransitions,
@@ -73,7 +86,7 @@ final class PeriodiseringSchedule {
             List<Transition> transitions
     ) {}
 
-    record Transition(
+    public record Transition(
             String location,
             String periodisering,
             String kind,
@@ -9,7 +9,7 @@ import se.fk.sfsreader.model.Stycke;
 import java.util.ArrayList;
 import java.util.List;
 
-final class PeriodiseringValidator {
+public final class PeriodiseringValidator {
     private PeriodiseringValidator() {
     }
 
@@ -61,14 +61,14 @@ final class PeriodiseringValidator {
         return new Result(invalid, unresolved, inline, findings);
     }
 
-    record Finding(
+    public record Finding(
             String key,
             String type,
             String location,
             String message
     ) {}
 
-    record Result(
+    public record Result(
             int invalidCount,
             int unresolvedCount,
             int inlineInTextCount,
@@ -0,0 +1,32 @@
+package se.fk.sfsreader;
+
+import java.io.Serial;
+
+/**
+ * Signals that processing of a single input document failed. Carries the
+ * process exit code that the command line tool reports for this kind of failure,
+ * so that batch runs can record the failure and continue with other documents.
+ * <p>
+ * Exit codes: 3 when the document can't be read or parsed, 10 for new HIGH severity
+ * reconciliation findings and 12 when a strict periodisering check fails.
+ */
+public class ProcessingException extends Exception {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final int exitCode;
+
+    ProcessingException(int exitCode, String message) {
+        super(message);
+        this.exitCode = exitCode;
+    }
+
+    ProcessingException(int exitCode, String message, Throwable cause) {
+        super(message, cause);
+        this.exitCode = exitCode;
+    }
+
+    public int exitCode() {
+        return exitCode;
+    }
+}
@@ -0,0 +1,172 @@
+package se.fk.sfsreader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Worker of a {@link WorkQueue}: claims inputs, processes each of them with the normal
+ * pipeline into a private staging directory and publishes the output when done. Held leases
+ * get a heartbeat several times per lease timeout. The worker stops when every input is
+ * processed or leased by a worker that is no longer alive (those are left to the coordinator).
+ */
+final class QueueWorker {
+    private static final Logger log = LoggerFactory.getLogger(QueueWorker.class);
+
+    private final WorkQueue queue;
+    private final String worker;
+    private final int threads;
+    private final CorpusRunner.DocumentTask task;
+    private final Duration pollInterval;
+    private final Set<WorkQueue.Lease> held = ConcurrentHashMap.newKeySet();
+
+    QueueWorker(WorkQueue queue, int threads, CorpusRunner.DocumentTask task) {
+        this(queue, defaultWorkerId(), threads, task, pollInterval(queue.leaseTimeout()));
+    }
+
+    QueueWorker(WorkQueue queue, String worker, int threads, CorpusRunner.DocumentTask task, Duration pollInterval) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of workers must be positive: " + threads);
+        }
+        this.queue = queue;
+        this.worker = worker;
+        this.threads = threads;
+        this.task = task;
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Processes inputs until there is nothing left to claim. Returns the results published by this worker.
+     */
+    List<WorkQueue.Result> run() throws InterruptedException {
+        long heartbeatMillis = Math.max(1, queue.leaseTimeout().toMillis() / 4);
+        ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "queue-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeats.scheduleAtFixedRate(this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "queue-worker-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<List<WorkQueue.Result>>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(this::loop));
+            }
+            List<WorkQueue.Result> published = new ArrayList<>();
+            for (Future<List<WorkQueue.Result>> future : futures) {
+                try {
+                    published.addAll(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Queue worker failed unexpectedly", e.getCause());
+                }
+            }
+            return published;
+        } finally {
+            executor.shutdownNow();
+            heartbeats.shutdownNow();
+        }
+    }
+
+    private List<WorkQueue.Result> loop() throws IOException, InterruptedException {
+        List<WorkQueue.Result> published = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            Optional<WorkQueue.Lease> lease = queue.claim(worker);
+            if (lease.isEmpty()) {
+                if (!queue.hasLiveLeases()) {
+                    break;
+                }
+                // Others are still working and may lose their leases; look again later
+                Thread.sleep(pollInterval.toMillis());
+                continue;
+            }
+            held.add(lease.get());
+            try {
+                WorkQueue.Result result = processOne(lease.get());
+                if (result != null) {
+                    published.add(result);
+                }
+            } catch (IOException e) {
+                // The lease is left to expire, after which the input is re-queued
+                log.warn("Worker {} could not publish '{}': {}", worker, lease.get().input(), e.getMessage());
+            } finally {
+                held.remove(lease.get());
+            }
+        }
+        return published;
+    }
+
+    private WorkQueue.Result processOne(WorkQueue.Lease lease) throws IOException {
+        long start = System.nanoTime();
+        Path staging = queue.stagingDirectory(lease);
+        Path input = queue.input(lease);
+        int exitCode = 0;
+        String message = null;
+        try {
+            task.process(input, staging, CorpusJournal.Progress.NONE);
+        } catch (ProcessingException e) {
+            log.warn("Failed to process '{}': {}", lease.input(), e.getMessage());
+            exitCode = e.exitCode();
+            message = e.getMessage();
+        } catch (RuntimeException e) {
+            log.error("Unexpected failure while processing '{}'", lease.input(), e);
+            exitCode = 3;
+            message = String.valueOf(e.getMessage());
+        }
+        long elapsed = System.nanoTime() - start;
+        WorkQueue.Result result = new WorkQueue.Result(lease.input(), worker, exitCode, message, elapsed, Instant.now().toString());
+        if (!queue.publish(lease, staging, result)) {
+            return null;
+        }
+        log.info("Worker {} published '{}' in {} ms", worker, lease.input(), elapsed / 1_000_000);
+        return result;
+    }
+
+    private void heartbeat() {
+        for (WorkQueue.Lease lease : held) {
+            try {
+                if (!lease.heartbeat()) {
+                    log.warn("Worker {} lost lease of '{}'", worker, lease.input());
+                }
+            } catch (IOException e) {
+                log.warn("Heartbeat of '{}' failed: {}", lease.input(), e.getMessage());
+            }
+        }
+    }
+
+    private static Duration pollInterval(Duration leaseTimeout) {
+        return Duration.ofMillis(Math.max(100, Math.min(5_000, leaseTimeout.toMillis() / 4)));
+    }
+
+    static String defaultWorkerId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = Optional.ofNullable(System.getenv("HOSTNAME")).orElse("unknown");
+        }
+        return ProcessHandle.current().pid() + "@" + host;
+    }
+}
@@ -0,0 +1,254 @@
+package se.fk.sfsreader;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.InputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * The reports of a document as entries of one zip file, in place of a file per report. Each
+ * entry is streamed into the zip as it is produced, so no report is held in memory as a whole,
+ * and its size and SHA-256 are recorded on the way. {@link #commit} adds a manifest of all
+ * entries as the last entry and moves the finished zip into place, so the bundle appears
+ * complete or not at all; a bundle closed without a commit, or one an entry failed to be
+ * written into, is discarded.
+ * <p>
+ * Entries may be added from several threads, one at a time. A reproducible bundle, with a fixed
+ * entry time, holds its entries in name order whatever the order they were added in: if they
+ * were added out of order, {@link #commit} rewrites the zip in order before the manifest.
+ */
+final class ReportBundle implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ReportBundle.class);
+
+    static final String FILE_NAME = "report-bundle.zip";
+    static final String MANIFEST = "MANIFEST.json";
+
+    private static final Gson gson = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().create();
+
+    @FunctionalInterface
+    interface Content {
+        void writeTo(Writer writer) throws IOException;
+    }
+
+    private final Path target;
+    private final LocalDateTime entryTime;
+    private Path tmp;
+    private ZipOutputStream zip;
+    private final List<Entry> entries = new ArrayList<>();
+    private boolean closed = false;
+    private String aborted = null;
+
+    ReportBundle(Path target) throws IOException {
+        this(target, null);
+    }
+
+    /**
+     * @param entryTime time of every entry of a reproducible bundle, or null for the current time
+     *                  and entries in the order they are added
+     */
+    ReportBundle(Path target, Instant entryTime) throws IOException {
+        this.target = target;
+        this.entryTime = entryTime == null ? null : LocalDateTime.ofInstant(entryTime, ZoneOffset.UTC);
+        this.tmp = createTemp();
+        this.zip = open(tmp);
+    }
+
+    Path target() {
+        return target;
+    }
+
+    /**
+     * Streams {@code content} into the entry {@code name}, as UTF-8. If that fails, the bundle is
+     * aborted rather than left with a partial entry: it is discarded, and cannot be committed.
+     */
+    synchronized void add(String name, Content content) throws IOException {
+        if (aborted != null) {
+            throw new IOException("Report bundle " + target + " was aborted: " + aborted);
+        }
+        if (closed) {
+            throw new IOException("Report bundle " + target + " is already closed");
+        }
+        EntryStream entry = new EntryStream(zip);
+        try {
+            zip.putNextEntry(zipEntry(name));
+            Writer writer = new BufferedWriter(new OutputStreamWriter(entry, StandardCharsets.UTF_8), 64 * 1024);
+            content.writeTo(writer);
+            // Flushed, not closed: closing would close the zip
+            writer.flush();
+            zip.closeEntry();
+        } catch (IOException | RuntimeException e) {
+            abort("entry " + name + " failed: " + e.getMessage(), e);
+            throw e;
+        }
+        entries.add(new Entry(name, entry.size, HexFormat.of().formatHex(entry.digest.digest())));
+    }
+
+    /**
+     * Adds the manifest and publishes the bundle at its target.
+     */
+    synchronized void commit(String input, int exitCode, String message) throws IOException {
+        if (entryTime != null) {
+            sort();
+        }
+        Manifest manifest = new Manifest(input, exitCode, message, List.copyOf(entries));
+        add(MANIFEST, writer -> gson.toJson(manifest, writer));
+        closed = true;
+        zip.close();
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Wrote {} reports to {}", entries.size() - 1, target);
+    }
+
+    private void abort(String reason, Exception cause) {
+        log.warn("Discarding report bundle {}: {}", target, reason);
+        aborted = reason;
+        closed = true;
+        try {
+            zip.close();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+        try {
+            Files.deleteIfExists(tmp);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            zip.close();
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Brings the entries into name order, by copying them into a new zip if they are not.
+     */
+    private void sort() throws IOException {
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparing(Entry::name));
+        if (sorted.equals(entries)) {
+            return;
+        }
+        zip.close();
+        Path unsorted = tmp;
+        tmp = createTemp();
+        zip = open(tmp);
+        try (ZipFile in = new ZipFile(unsorted.toFile(), StandardCharsets.UTF_8)) {
+            for (Entry entry : sorted) {
+                zip.putNextEntry(zipEntry(entry.name()));
+                try (InputStream is = in.getInputStream(in.getEntry(entry.name()))) {
+                    is.transferTo(zip);
+                }
+                zip.closeEntry();
+            }
+        } finally {
+            Files.deleteIfExists(unsorted);
+        }
+        entries.clear();
+        entries.addAll(sorted);
+    }
+
+    private ZipEntry zipEntry(String name) {
+        ZipEntry entry = new ZipEntry(name);
+        if (entryTime != null) {
+            entry.setTimeLocal(entryTime);
+        }
+        return entry;
+    }
+
+    private Path createTemp() throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        return Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+    }
+
+    private static ZipOutputStream open(Path file) throws IOException {
+        return new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+    }
+
+    /**
+     * Counts and digests what goes into an entry.
+     */
+    private static final class EntryStream extends FilterOutputStream {
+        private final MessageDigest digest;
+        private long size = 0L;
+
+        EntryStream(OutputStream out) {
+            super(out);
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not available", e);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            digest.update((byte) b);
+            size++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            digest.update(b, off, len);
+            size += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    record Entry(
+            String name,
+            long size,
+            String sha256
+    ) {}
+
+    /**
+     * @param exitCode 0 when the document was processed, else the exit code of the failure
+     * @param message  failure message, or null
+     */
+    record Manifest(
+            String input,
+            int exitCode,
+            String message,
+            List<Entry> entries
+    ) {}
+}
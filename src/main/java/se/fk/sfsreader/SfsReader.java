@@ -0,0 +1,518 @@
+package se.fk.sfsreader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.fk.sfsreader.model.Lag;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Embeddable entry point for processing laws in-process. Parses a document (a file or the
+ * bytes of one), applies the effective date filter, validates periodisering, builds the
+ * transition schedule and prunes the tree -- the same steps as the command line tool -- but
+ * writes no files and never exits. Failures to read or parse a document are thrown as a
+ * {@link ProcessingException}; gating outcomes (new HIGH findings, failed strict periodisering)
+ * are reported as the {@link Status} of the result.
+ * <p>
+ * Instances are immutable and may be shared between threads. Every call parses into trees
+ * of its own, so results never share state with each other.
+ */
+public final class SfsReader {
+    private static final Logger log = LoggerFactory.getLogger(SfsReader.class);
+
+    private final Options options;
+    private final Optional<ParseCache> cache;
+    private final Optional<AdaptiveStore> adaptive;
+
+    public SfsReader() {
+        this(Options.defaults());
+    }
+
+    public SfsReader(Options options) {
+        this(options, Optional.empty());
+    }
+
+    SfsReader(Options options, Optional<ParseCache> cache) {
+        this(options, cache, Optional.empty());
+    }
+
+    /**
+     * The adaptive store is only consulted in {@link SourceMode#ADAPTIVE adaptive} source mode.
+     */
+    SfsReader(Options options, Optional<ParseCache> cache, Optional<AdaptiveStore> adaptive) {
+        this.options = Objects.requireNonNull(options, "options");
+        this.cache = cache;
+        this.adaptive = options.sourceMode() == SourceMode.ADAPTIVE ? adaptive : Optional.empty();
+    }
+
+    public Options options() {
+        return options;
+    }
+
+    /**
+     * Reads the document in {@code inputFile} as in effect on {@code effectiveDate}
+     * (or with all paragraph variants if no date is given).
+     */
+    public Result read(Path inputFile, Optional<LocalDate> effectiveDate) throws ProcessingException {
+        StageMetrics metrics = new StageMetrics();
+        Parsed parsed = parse(inputFile, metrics);
+        return evaluate(parsed, parsed.primary, effectiveDate, metrics, "");
+    }
+
+    /**
+     * Reads a document held in memory, as in effect on {@code effectiveDate}
+     * (or with all paragraph variants if no date is given).
+     */
+    public Result read(byte[] document, Optional<LocalDate> effectiveDate) throws ProcessingException {
+        StageMetrics metrics = new StageMetrics();
+        Parsed parsed = parse(document, "document", metrics);
+        return evaluate(parsed, parsed.primary, effectiveDate, metrics, "");
+    }
+
+    /**
+     * Parses the document in {@code inputFile} without evaluating it for any date. The
+     * result may be {@link #evaluate evaluated} any number of times, for different dates.
+     */
+    public Parsed parse(Path inputFile) throws ProcessingException {
+        return parse(inputFile, new StageMetrics());
+    }
+
+    /**
+     * Parses a document held in memory without evaluating it for any date.
+     */
+    public Parsed parse(byte[] document) throws ProcessingException {
+        return parse(document, "document", new StageMetrics());
+    }
+
+    /**
+     * Evaluates a parsed document as in effect on {@code effectiveDate} (or with all paragraph
+     * variants if no date is given), working on a copy of the parsed tree.
+     */
+    public Result evaluate(Parsed parsed, Optional<LocalDate> effectiveDate) throws ProcessingException {
+        StageMetrics metrics = new StageMetrics();
+        return evaluate(parsed, parsed.copy(metrics, ""), effectiveDate, metrics, "");
+    }
+
+    Parsed parse(Path inputFile, StageMetrics metrics) throws ProcessingException {
+        Pending pending = extract(inputFile, metrics);
+        parsePayloads(pending, metrics);
+        return reconcile(pending, metrics);
+    }
+
+    Parsed parse(byte[] document, String name, StageMetrics metrics) throws ProcessingException {
+        Pending pending = extract(new RawDocument(ByteBuffer.wrap(document)), name, metrics);
+        parsePayloads(pending, metrics);
+        return reconcile(pending, metrics);
+    }
+
+    /**
+     * First step of a parse, split up so that a pipeline can run the steps of different documents
+     * side by side: reads the file and extracts its payloads, unless the cache has a parse of it.
+     * Continue with {@link #parsePayloads} and {@link #reconcile}.
+     * <p>
+     * The file is memory-mapped when large (see {@link FileIO#read}), and the payloads stay views
+     * of the mapping. Each large buffer is let go of as soon as it has been consumed: the file
+     * bytes once the payloads are extracted (or the cache has answered), and each payload once it is parsed.
+     */
+    Pending extract(Path inputFile, StageMetrics metrics) throws ProcessingException {
+        String name = inputFile.getFileName().toString();
+        try {
+            RawDocument document = new RawDocument(metrics.measure("FileIO.read", () -> FileIO.read(inputFile)));
+            return extract(document, name, metrics);
+        } catch (Exception e) {
+            throw failure(name, e);
+        }
+    }
+
+    private Pending extract(RawDocument document, String name, StageMetrics metrics) throws ProcessingException {
+        SourceMode sourceMode = options.sourceMode();
+        Pending pending = new Pending(name);
+        try {
+            // The cached trees are deserialized anew on every hit, so the filtering and
+            // pruning done when evaluating are free to modify them
+            if (cache.isPresent()) {
+                pending.cacheKey = metrics.measure("ParseCache.key", () -> cache.get().key(document.bytes(), sourceMode, options.anomalyChapters()));
+                pending.entry = metrics.measure("ParseCache.get", () -> cache.get().get(pending.cacheKey).orElse(null));
+                if (pending.entry != null) {
+                    log.info("Using cached parse of '{}'", name);
+                    pending.cached = true;
+                    document.release();
+                    return pending;
+                }
+            }
+            DocumentSources sources = metrics.measure("DocumentSources.from", () -> extract(document, name));
+            pending.sources = sources;
+            if (adaptive.isPresent()) {
+                pending.entry = metrics.measure("AdaptiveStore.get",
+                        () -> adaptive.get().get(sources, name, options.reconciliationBaseline()).orElse(null));
+            }
+            return pending;
+        } catch (Exception e) {
+            throw failure(name, e);
+        }
+    }
+
+    /**
+     * Second step of a parse: parses the requested payloads, unless the cache or the adaptive store had a parse.
+     */
+    void parsePayloads(Pending pending, StageMetrics metrics) throws ProcessingException {
+        if (pending.entry != null) {
+            return;
+        }
+        try {
+            pending.entry = parseEntry(pending.sources, pending.name, metrics);
+        } catch (Exception e) {
+            throw failure(pending.name, e);
+        }
+    }
+
+    /**
+     * Last step of a parse: in hybrid or adaptive mode, when both payloads were parsed, reconciles
+     * them; then remembers the parse in the cache and adaptive store.
+     */
+    Parsed reconcile(Pending pending, StageMetrics metrics) throws ProcessingException {
+        SourceMode sourceMode = options.sourceMode();
+        String name = pending.name;
+        try {
+            ParseCache.Entry entry = pending.entry;
+            if (!pending.cached && entry.reconciliation() == null
+                    && sourceMode.reconcile() && entry.html() != null && entry.text() != null) {
+                log.info("Both HTML and text payload parsed from '{}'. Using HTML as primary structure source.", name);
+
+                HybridReconciler reconciler = new HybridReconciler();
+                HybridReconciler.Result reconciliation = metrics.measure("HybridReconciler.reconcile",
+                        () -> reconciler.reconcile(entry.html(), entry.text()));
+                log.info("Hybrid reconciliation produced {} findings for '{}'", reconciliation.findingCount(), name);
+                final ParseCache.Entry reconciled = new ParseCache.Entry(entry.html(), entry.text(), reconciliation);
+                if (adaptive.isPresent()) {
+                    metrics.measure("AdaptiveStore.put", () -> adaptive.get().put(pending.sources, name, reconciled));
+                }
+                pending.entry = reconciled;
+            }
+            if (!pending.cached && pending.cacheKey != null) {
+                metrics.measure("ParseCache.put", () -> cache.get().put(pending.cacheKey, pending.entry));
+            }
+            ParseCache.Entry parsed = pending.entry;
+            pending.sources = null;
+            pending.entry = null;
+
+            List<HybridReconciler.Finding> newHigh = List.of();
+            if (parsed.reconciliation() != null) {
+                newHigh = parsed.reconciliation().findings().stream()
+                        .filter(f -> f.severity() == HybridReconciler.Severity.HIGH)
+                        .filter(f -> !options.reconciliationBaseline().contains(f.key()))
+                        .toList();
+            }
+            Optional<Lag> primary = sourceMode.selectPrimary(Optional.ofNullable(parsed.html()), Optional.ofNullable(parsed.text()));
+            return new Parsed(name, primary.orElse(null), parsed.reconciliation(), newHigh);
+
+        } catch (Exception e) {
+            throw failure(name, e);
+        }
+    }
+
+    private static ProcessingException failure(String name, Exception e) {
+        if (e instanceof ProcessingException pe) {
+            return pe;
+        }
+        if (e instanceof IOException) {
+            return new ProcessingException(3, "Can't read file: " + name + ": " + e.getMessage(), e);
+        }
+        return new ProcessingException(3, "Can't parse file: " + name + ": " + e.getMessage(), e);
+    }
+
+    /**
+     * Extracts the payloads of {@code document} and drops the file bytes. The sources are
+     * single-use, so each payload is garbage as soon as it is parsed.
+     */
+    private static DocumentSources extract(RawDocument document, String name) throws Exception {
+        long estimate = (long) document.bytes().remaining() * HeapBudget.EXTRACTION_FACTOR;
+        HeapBudget.Reservation reservation = HeapBudget.global().reserve("Payload extraction", estimate);
+        try {
+            DocumentSources sources = DocumentSources.from(document.bytes(), name, StandardCharsets.UTF_8);
+            document.release();
+            return sources.singleUse();
+        } finally {
+            reservation.close();
+        }
+    }
+
+    /**
+     * Parses the requested payloads of a document. Reconciliation is left to {@link #reconcile},
+     * except in chapterwise mode, where {@link ChapterwiseParser} reconciles the chapters it parses from HTML.
+     */
+    private ParseCache.Entry parseEntry(DocumentSources sourceStreams, String name, StageMetrics metrics) throws Exception {
+        SourceMode sourceMode = options.sourceMode();
+        String lagName = sourceStreams.title().orElse("Unknown law");
+        String lagId = sourceStreams.id().orElse("unknown");
+        HtmlProcessor htmlProcessor = new HtmlProcessor(lagName, lagId);
+        TextProcessor textProcessor = new TextProcessor(lagName, lagId);
+
+        if (sourceMode == SourceMode.CHAPTERWISE) {
+            ChapterwiseParser.Result chapterwise = ChapterwiseParser.parse(
+                    sourceStreams, options.anomalyChapters(), htmlProcessor, textProcessor, metrics);
+            if (chapterwise.reconciliation() != null) {
+                log.info("Parsed {} flagged chapters of '{}' from HTML; reconciliation produced {} findings",
+                        chapterwise.flagged().size(), name, chapterwise.reconciliation().findingCount());
+            }
+            return new ParseCache.Entry(null, chapterwise.lag(), chapterwise.reconciliation());
+        }
+
+        PayloadParser.Result parsed = PayloadParser.parse(
+                sourceStreams, sourceMode.parseHtml(), sourceMode.parseText(), htmlProcessor, textProcessor, metrics);
+        return new ParseCache.Entry(parsed.html().orElse(null), parsed.text().orElse(null), null);
+    }
+
+    /**
+     * Selects the paragraph variants in effect on {@code effectiveDate} (if given), validates
+     * periodisering, builds the schedule and prunes {@code lag}, which is modified in place.
+     * Stage names in the metrics get {@code label} appended.
+     */
+    Result evaluate(Parsed parsed, Lag lag, Optional<LocalDate> effectiveDate, StageMetrics metrics, String label) throws ProcessingException {
+        if (lag == null) {
+            throw new ProcessingException(3,
+                    "No parseable payload for mode '" + options.sourceMode().mode() + "' in input file: " + parsed.name());
+        }
+        try {
+            Optional<EffectiveDateFilter.Report> filterReport = Optional.empty();
+            if (effectiveDate.isPresent()) {
+                filterReport = Optional.of(metrics.measure("EffectiveDateFilter.apply" + label,
+                        () -> EffectiveDateFilter.apply(lag, effectiveDate.get())));
+            }
+
+            Optional<PeriodiseringValidator.Result> validation = Optional.empty();
+            if (options.periodiseringMode() != PeriodiseringMode.OFF) {
+                validation = Optional.of(metrics.measure("PeriodiseringValidator.validate" + label,
+                        () -> PeriodiseringValidator.validate(lag)));
+            }
+
+            LocalDate scheduleReferenceDate = effectiveDate.orElse(LocalDate.now(options.clock()));
+            PeriodiseringSchedule.Report schedule = metrics.measure("PeriodiseringSchedule.build" + label,
+                    () -> PeriodiseringSchedule.build(lag, scheduleReferenceDate));
+            metrics.measure("Lag.prune" + label, lag::prune);
+
+            Status status = Status.OK;
+            if (options.failOnNewHigh() && !parsed.newHighFindings().isEmpty()) {
+                status = Status.NEW_HIGH_FINDINGS;
+            } else if (options.periodiseringMode() == PeriodiseringMode.STRICT && validation.isPresent()
+                    && (validation.get().invalidCount() > 0
+                    || validation.get().unresolvedCount() > 0
+                    || validation.get().inlineInTextCount() > 0)) {
+                status = Status.PERIODISERING_FAILED;
+            }
+
+            return new Result(parsed.name(), lag, parsed.reconciliation(), parsed.newHighFindings(),
+                    effectiveDate, filterReport, validation, schedule, status);
+
+        } catch (Exception e) {
+            throw new ProcessingException(3, "Can't parse file: " + parsed.name() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * A document between the steps of a parse. Owned by one thread at a time.
+     */
+    static final class Pending {
+        private final String name;
+        private String cacheKey = null;
+        private DocumentSources sources = null;
+        private ParseCache.Entry entry = null;
+        private boolean cached = false;
+
+        private Pending(String name) {
+            this.name = name;
+        }
+
+        String name() {
+            return name;
+        }
+    }
+
+    /**
+     * The bytes of an input document, held only until the payloads are extracted from them.
+     */
+    private static final class RawDocument {
+        private ByteBuffer bytes;
+
+        RawDocument(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        ByteBuffer bytes() {
+            return bytes;
+        }
+
+        void release() {
+            bytes = null;
+        }
+    }
+
+    /**
+     * Processing options. Use {@link #defaults()} and the {@code with...} methods to derive variants.
+     *
+     * @param sourceMode             payload(s) to parse
+     * @param periodiseringMode      how periodisering markers are validated
+     * @param reconciliationBaseline keys of accepted HIGH severity reconciliation findings
+     * @param failOnNewHigh          whether HIGH findings not in the baseline give {@link Status#NEW_HIGH_FINDINGS}
+     * @param anomalyChapters        ids of chapters always parsed from HTML in {@link SourceMode#CHAPTERWISE chapterwise} mode
+     * @param clock                  gives today's date, the reference date of the schedule when there is no effective date
+     */
+    public record Options(
+            SourceMode sourceMode,
+            PeriodiseringMode periodiseringMode,
+            Set<String> reconciliationBaseline,
+            boolean failOnNewHigh,
+            Set<String> anomalyChapters,
+            Clock clock
+    ) {
+        public Options {
+            Objects.requireNonNull(sourceMode, "sourceMode");
+            Objects.requireNonNull(periodiseringMode, "periodiseringMode");
+            Objects.requireNonNull(clock, "clock");
+            reconciliationBaseline = Set.copyOf(reconciliationBaseline);
+            anomalyChapters = Set.copyOf(anomalyChapters);
+        }
+
+        public static Options defaults() {
+            return new Options(SourceMode.HYBRID, PeriodiseringMode.LENIENT, Set.of(), false, Set.of(), Clock.systemDefaultZone());
+        }
+
+        public Options withSourceMode(SourceMode sourceMode) {
+            return new Options(sourceMode, periodiseringMode, reconciliationBaseline, failOnNewHigh, anomalyChapters, clock);
+        }
+
+        public Options withPeriodiseringMode(PeriodiseringMode periodiseringMode) {
+            return new Options(sourceMode, periodiseringMode, reconciliationBaseline, failOnNewHigh, anomalyChapters, clock);
+        }
+
+        public Options withReconciliationBaseline(Set<String> reconciliationBaseline) {
+            return new Options(sourceMode, periodiseringMode, reconciliationBaseline, failOnNewHigh, anomalyChapters, clock);
+        }
+
+        public Options withFailOnNewHigh(boolean failOnNewHigh) {
+            return new Options(sourceMode, periodiseringMode, reconciliationBaseline, failOnNewHigh, anomalyChapters, clock);
+        }
+
+        public Options withAnomalyChapters(Set<String> anomalyChapters) {
+            return new Options(sourceMode, periodiseringMode, reconciliationBaseline, failOnNewHigh, anomalyChapters, clock);
+        }
+
+        public Options withClock(Clock clock) {
+            return new Options(sourceMode, periodiseringMode, reconciliationBaseline, failOnNewHigh, anomalyChapters, clock);
+        }
+    }
+
+    /**
+     * Outcome of the gating checks, with the exit code the command line tool uses for it.
+     */
+    public enum Status {
+        OK(0),
+        NEW_HIGH_FINDINGS(10),
+        PERIODISERING_FAILED(12);
+
+        private final int exitCode;
+
+        Status(int exitCode) {
+            this.exitCode = exitCode;
+        }
+
+        public int exitCode() {
+            return exitCode;
+        }
+    }
+
+    /**
+     * A parsed document, before any effective date filtering or pruning. The parsed tree
+     * itself is never handed out; every evaluation works on a copy of it.
+     */
+    public static final class Parsed {
+        private final String name;
+        private final Lag primary;
+        private final HybridReconciler.Result reconciliation;
+        private final List<HybridReconciler.Finding> newHighFindings;
+        private LagSnapshot snapshot = null;
+
+        private Parsed(String name, Lag primary, HybridReconciler.Result reconciliation, List<HybridReconciler.Finding> newHighFindings) {
+            this.name = name;
+            this.primary = primary;
+            this.reconciliation = reconciliation;
+            this.newHighFindings = newHighFindings;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        /**
+         * Reconciliation of the HTML and text payloads; only present in hybrid mode when both payloads were parsed.
+         */
+        public Optional<HybridReconciler.Result> reconciliation() {
+            return Optional.ofNullable(reconciliation);
+        }
+
+        /**
+         * HIGH severity reconciliation findings not in the baseline of the options.
+         */
+        public List<HybridReconciler.Finding> newHighFindings() {
+            return newHighFindings;
+        }
+
+        /**
+         * Transition schedule of all paragraph variants, relative to {@code referenceDate}.
+         */
+        public Optional<PeriodiseringSchedule.Report> schedule(LocalDate referenceDate) {
+            return Optional.ofNullable(primary).map(lag -> PeriodiseringSchedule.build(lag, referenceDate));
+        }
+
+        boolean hasPayload() {
+            return primary != null;
+        }
+
+        /**
+         * The parsed tree itself, for callers that evaluate the document only once.
+         */
+        Lag primary() {
+            return primary;
+        }
+
+        synchronized Lag copy(StageMetrics metrics, String label) throws ProcessingException {
+            if (primary == null) {
+                return null;
+            }
+            try {
+                if (snapshot == null) {
+                    snapshot = metrics.measure("LagSnapshot.of", () -> LagSnapshot.of(primary));
+                }
+                return metrics.measure("LagSnapshot.restore" + label, snapshot::restore);
+            } catch (Exception e) {
+                throw new ProcessingException(3, "Can't copy parsed model of " + name + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * A document as in effect on a date. {@code lag} is the filtered and pruned tree, which
+     * belongs to the caller; {@code effectiveDateReport} is present when a date was given and
+     * {@code periodiseringValidation} unless periodisering validation is off.
+     */
+    public record Result(
+            String name,
+            Lag lag,
+            Optional<HybridReconciler.Result> reconciliation,
+            List<HybridReconciler.Finding> newHighFindings,
+            Optional<LocalDate> effectiveDate,
+            Optional<EffectiveDateFilter.Report> effectiveDateReport,
+            Optional<PeriodiseringValidator.Result> periodiseringValidation,
+            PeriodiseringSchedule.Report schedule,
+            Status status
+    ) {}
+}
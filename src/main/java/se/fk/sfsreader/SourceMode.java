@@ -0,0 +1,66 @@
+package se.fk.sfsreader;
+
+import se.fk.sfsreader.model.Lag;
+
+import java.util.Optional;
+
+/**
+ * Which payload(s) of an input document to parse. In hybrid mode both payloads are parsed and
+ * reconciled, and the HTML payload is used as the primary structure source when present.
+ * Adaptive mode is hybrid mode that reuses the primary structure of the last run of a law
+ * when its payloads are unchanged and left nothing to look at (see {@link AdaptiveStore}).
+ * Chapterwise mode parses the text payload and only the chapters of the HTML payload that need
+ * it (see {@link ChapterwiseParser}).
+ */
+public enum SourceMode {
+    HTML("html"),
+    TEXT("text"),
+    HYBRID("hybrid"),
+    ADAPTIVE("adaptive"),
+    CHAPTERWISE("chapterwise");
+
+    private final String mode;
+
+    SourceMode(String mode) {
+        this.mode = mode;
+    }
+
+    public String mode() {
+        return mode;
+    }
+
+    boolean parseHtml() {
+        return this == HTML || this == HYBRID || this == ADAPTIVE;
+    }
+
+    boolean parseText() {
+        return this == TEXT || this == HYBRID || this == ADAPTIVE || this == CHAPTERWISE;
+    }
+
+    boolean reconcile() {
+        return this == HYBRID || this == ADAPTIVE;
+    }
+
+    Optional<Lag> selectPrimary(Optional<Lag> html, Optional<Lag> text) {
+        return switch (this) {
+            case HTML -> html;
+            case TEXT, CHAPTERWISE -> text;
+            case HYBRID, ADAPTIVE -> html.isPresent() ? html : text;
+        };
+    }
+
+    static SourceMode from(String value) {
+        if (null == value || value.isBlank()) {
+            return HYBRID;
+        }
+        String normalized = value.trim().toLowerCase();
+        return switch (normalized) {
+            case "html" -> HTML;
+            case "text" -> TEXT;
+            case "hybrid" -> HYBRID;
+            case "adaptive" -> ADAPTIVE;
+            case "chapterwise" -> CHAPTERWISE;
+            default -> throw new IllegalArgumentException("Unsupported --source-mode: " + value + ". Expected html|text|hybrid|adaptive|chapterwise");
+        };
+    }
+}
@@ -0,0 +1,181 @@
+package se.fk.sfsreader;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Collects wall time, CPU time and allocated bytes per pipeline stage of a run. CPU time and
+ * allocations are taken from the thread that runs the stage, so stages may run on different
+ * threads (as the payload parses do in hybrid mode). Values that the JVM cannot measure are
+ * reported as -1.
+ * <p>
+ * The peak heap of a stage is the highest heap use seen while it ran, as the sum of the peak
+ * use of each heap pool. The pools peak at different moments, so the figure is an upper bound;
+ * it also covers whatever other stages held at the time, including those of other documents.
+ * The peaks are reset at the start and end of every stage, JVM wide.
+ */
+final class StageMetrics {
+    static final String REPORT_FILE = "stage-metrics.json";
+
+    private static final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private static final boolean cpuTimeSupported;
+    private static final boolean allocationSupported;
+    static {
+        cpuTimeSupported = threads.isCurrentThreadCpuTimeSupported();
+        if (cpuTimeSupported && !threads.isThreadCpuTimeEnabled()) {
+            threads.setThreadCpuTimeEnabled(true);
+        }
+        boolean allocation = false;
+        if (threads instanceof com.sun.management.ThreadMXBean sunThreads && sunThreads.isThreadAllocatedMemorySupported()) {
+            if (!sunThreads.isThreadAllocatedMemoryEnabled()) {
+                sunThreads.setThreadAllocatedMemoryEnabled(true);
+            }
+            allocation = true;
+        }
+        allocationSupported = allocation;
+    }
+
+    private static final List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP && pool.isValid())
+            .toList();
+    // Peak heap of each stage running right now, in all instances; guarded by itself
+    private static final List<long[]> runningPeaks = new ArrayList<>();
+
+    @FunctionalInterface
+    interface Stage<T> {
+        T run() throws Exception;
+    }
+
+    @FunctionalInterface
+    interface VoidStage {
+        void run() throws Exception;
+    }
+
+    private final long origin = System.nanoTime();
+    private final List<Timing> timings = new ArrayList<>();
+
+    <T> T measure(String stage, Stage<T> work) throws Exception {
+        long cpu = cpuTime();
+        long allocated = allocatedBytes();
+        long[] peakHeap = enterPeakHeap();
+        long start = System.nanoTime();
+        try {
+            return work.run();
+        } finally {
+            long end = System.nanoTime();
+            long cpuAfter = cpuTime();
+            long allocatedAfter = allocatedBytes();
+            long peakHeapBytes = exitPeakHeap(peakHeap);
+            Timing timing = new Timing(
+                    stage,
+                    Thread.currentThread().getName(),
+                    start - origin,
+                    end - start,
+                    cpu < 0 ? -1 : cpuAfter - cpu,
+                    allocated < 0 ? -1 : allocatedAfter - allocated,
+                    peakHeapBytes
+            );
+            synchronized (timings) {
+                timings.add(timing);
+            }
+        }
+    }
+
+    void measure(String stage, VoidStage work) throws Exception {
+        measure(stage, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    Report report(String input, String sourceMode) {
+        List<Timing> stages;
+        synchronized (timings) {
+            stages = new ArrayList<>(timings);
+        }
+        stages.sort(Comparator.comparingLong(Timing::startOffsetNanos));
+
+        long cpu = 0L;
+        long allocated = 0L;
+        long peakHeap = -1L;
+        for (Timing timing : stages) {
+            cpu = cpu < 0 || timing.cpuNanos() < 0 ? -1 : cpu + timing.cpuNanos();
+            allocated = allocated < 0 || timing.allocatedBytes() < 0 ? -1 : allocated + timing.allocatedBytes();
+            peakHeap = Math.max(peakHeap, timing.peakHeapBytes());
+        }
+        return new Report(input, sourceMode, System.nanoTime() - origin, cpu, allocated, peakHeap, stages);
+    }
+
+    private static long cpuTime() {
+        return cpuTimeSupported ? threads.getCurrentThreadCpuTime() : -1;
+    }
+
+    private static long allocatedBytes() {
+        return allocationSupported ? ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    private static long[] enterPeakHeap() {
+        long[] peak = {-1L};
+        if (!heapPools.isEmpty()) {
+            synchronized (runningPeaks) {
+                samplePeakHeap();
+                runningPeaks.add(peak);
+            }
+        }
+        return peak;
+    }
+
+    private static long exitPeakHeap(long[] peak) {
+        if (heapPools.isEmpty()) {
+            return -1L;
+        }
+        synchronized (runningPeaks) {
+            samplePeakHeap();
+            runningPeaks.remove(peak);
+            return peak[0];
+        }
+    }
+
+    /**
+     * Hands the peak since the last sample to every running stage and starts a new period.
+     * Callers hold the lock on {@link #runningPeaks}.
+     */
+    private static void samplePeakHeap() {
+        long used = 0L;
+        for (MemoryPoolMXBean pool : heapPools) {
+            MemoryUsage peak = pool.getPeakUsage();
+            if (peak != null) {
+                used += peak.getUsed();
+                pool.resetPeakUsage();
+            }
+        }
+        for (long[] peak : runningPeaks) {
+            peak[0] = Math.max(peak[0], used);
+        }
+    }
+
+    record Timing(
+            String stage,
+            String thread,
+            long startOffsetNanos,
+            long wallNanos,
+            long cpuNanos,
+            long allocatedBytes,
+            long peakHeapBytes
+    ) {}
+
+    record Report(
+            String input,
+            String sourceMode,
+            long totalWallNanos,
+            long totalCpuNanos,
+            long totalAllocatedBytes,
+            long peakHeapBytes,
+            List<Timing> stages
+    ) {}
+}
@@ -47,6 +47,7 @@ public class TextProcessor {
         Stycke currentStycke = null;
         boolean pendingNewStycke = false;
         boolean sawRealChapter = false;
+        int overgangCount = 0;
 
         try (BufferedReader br = new BufferedReader(reader)) {
             String raw;
@@ -106,7 +107,7 @@ public class TextProcessor {
                 }
 
                 if ("Övergångsbestämmelser".equalsIgnoreCase(line)) {
-                    currentKapitel = new Overgang(line, !sawRealChapter);
+                    currentKapitel = new Overgang(++overgangCount, line, !sawRealChapter);
                     if (currentAvdelning != null) {
                         currentAvdelning.addKapitel(currentKapitel);
                     } else {
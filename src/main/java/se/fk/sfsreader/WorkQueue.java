@@ -0,0 +1,467 @@
+package se.fk.sfsreader;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Work queue in a directory shared between worker processes, possibly on different nodes
+ * (NFS). Layout:
+ * <pre>
+ *   inputs/   enqueued input documents
+ *   leases/   &lt;input&gt;.lease while a worker processes the input
+ *   results/  &lt;input&gt;.json when the input has been processed (successfully or not)
+ *   output/   &lt;namespace&gt;/ with the reports of each processed input
+ * </pre>
+ * Every file that another process may read is written to a temporary name first and then
+ * renamed (or, for leases, hard linked) into place, so readers never see partial content.
+ * A lease is claimed by linking a prepared file to the lease name, which fails atomically --
+ * also over NFS -- when another worker holds it. The holder renews the lease regularly as a
+ * heartbeat, by renaming a freshly written file over it; a lease not renewed within the lease
+ * timeout is expired and may be re-queued. Expiring renames the lease to a tombstone first, so
+ * that what is checked and then removed is one and the same lease, not one a heartbeat or a new
+ * claim put in its place meanwhile.
+ * <p>
+ * Lease ages are measured against the modification time of a file written in the queue
+ * directory, i.e. against the clock of the file server rather than that of the local node.
+ */
+final class WorkQueue {
+    private static final Logger log = LoggerFactory.getLogger(WorkQueue.class);
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    private static final String LEASE_SUFFIX = ".lease";
+    private static final String RESULT_SUFFIX = ".json";
+    private static final String TOMBSTONE_SUFFIX = ".expired";
+    private static final String CLOCK_FILE = ".clock";
+
+    private final Path directory;
+    private final Path inputs;
+    private final Path leases;
+    private final Path results;
+    private final Path output;
+    private final Duration leaseTimeout;
+
+    WorkQueue(Path directory, Duration leaseTimeout) throws IOException {
+        this.directory = directory.toAbsolutePath().normalize();
+        this.inputs = Files.createDirectories(this.directory.resolve("inputs"));
+        this.leases = Files.createDirectories(this.directory.resolve("leases"));
+        this.results = Files.createDirectories(this.directory.resolve("results"));
+        this.output = Files.createDirectories(this.directory.resolve("output"));
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    Path directory() {
+        return directory;
+    }
+
+    Duration leaseTimeout() {
+        return leaseTimeout;
+    }
+
+    /**
+     * Copies input documents into the queue. Inputs already in the queue are replaced and their
+     * result removed, so that they are processed again. Returns the number of enqueued inputs.
+     */
+    int enqueue(List<Path> inputFiles) throws IOException {
+        int count = 0;
+        for (Path inputFile : inputFiles) {
+            String name = inputFile.getFileName().toString();
+            Path target = inputs.resolve(name);
+            Path tmp = Files.createTempFile(inputs, ".enqueue-", ".tmp");
+            try {
+                Files.copy(inputFile, tmp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            Files.deleteIfExists(results.resolve(name + RESULT_SUFFIX));
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Claims the first input that is neither processed nor leased.
+     */
+    Optional<Lease> claim(String worker) throws IOException {
+        for (Path input : list(inputs, null)) {
+            String name = input.getFileName().toString();
+            if (Files.exists(results.resolve(name + RESULT_SUFFIX)) || Files.exists(leases.resolve(name + LEASE_SUFFIX))) {
+                continue;
+            }
+            Lease lease = new Lease(name, worker, UUID.randomUUID().toString());
+            Path tmp = leases.resolve("." + lease.token + ".tmp");
+            Files.writeString(tmp, lease.content(), StandardCharsets.UTF_8);
+            try {
+                Files.createLink(lease.file(), tmp);
+                log.info("Worker {} claimed '{}'", worker, name);
+                return Optional.of(lease);
+            } catch (FileAlreadyExistsException e) {
+                // Claimed by another worker in between
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Removes expired leases of unprocessed inputs, and leftover leases of processed ones,
+     * so that the inputs can be claimed again. Returns the names of the re-queued inputs.
+     */
+    List<String> requeueExpired() throws IOException {
+        Instant now = now();
+        List<String> requeued = new ArrayList<>();
+        for (Path leaseFile : list(leases, LEASE_SUFFIX)) {
+            String name = stripSuffix(leaseFile, LEASE_SUFFIX);
+            boolean processed = Files.exists(results.resolve(name + RESULT_SUFFIX));
+            try {
+                if (!processed && !isExpired(leaseFile, now)) {
+                    continue;
+                }
+                String token = readLease(leaseFile).map(LeaseInfo::token).orElse(null);
+                Path tombstone = leases.resolve("." + name + "." + UUID.randomUUID() + TOMBSTONE_SUFFIX);
+                Files.move(leaseFile, tombstone, StandardCopyOption.ATOMIC_MOVE);
+                // A heartbeat or a new claim may have replaced the lease since it was checked
+                String removed = readLease(tombstone).map(LeaseInfo::token).orElse(null);
+                if (!processed && !(Objects.equals(token, removed) && isExpired(tombstone, now))) {
+                    restore(tombstone, leaseFile, name);
+                    continue;
+                }
+                Files.deleteIfExists(tombstone);
+                if (!processed && removed != null && removed.equals(readLease(leaseFile).map(LeaseInfo::token).orElse(null))) {
+                    // A heartbeat that checked the lease before it was taken has just renewed it
+                    log.info("Lease of '{}' was renewed while it was expired; keeping it", name);
+                    continue;
+                }
+                if (!processed) {
+                    log.info("Re-queued '{}' after expired lease", name);
+                    requeued.add(name);
+                }
+                // Output left behind by the worker that held the lease
+                if (removed != null) {
+                    FileIO.delete(staging(name, removed).toFile());
+                }
+            } catch (NoSuchFileException e) {
+                // Released concurrently
+            }
+        }
+        return requeued;
+    }
+
+    /**
+     * Puts back a live lease that was taken for expired. If another worker claimed the input in
+     * the meantime, the lease stays lost and its holder will notice that at its next heartbeat.
+     */
+    private void restore(Path tombstone, Path leaseFile, String name) throws IOException {
+        try {
+            Files.createLink(leaseFile, tombstone);
+        } catch (FileAlreadyExistsException e) {
+            log.warn("Lease of '{}' was renewed while being expired, but has been claimed again", name);
+        } finally {
+            Files.deleteIfExists(tombstone);
+        }
+    }
+
+    /**
+     * Whether some unprocessed input is leased by a live worker.
+     */
+    boolean hasLiveLeases() throws IOException {
+        Instant now = now();
+        for (Path leaseFile : list(leases, LEASE_SUFFIX)) {
+            try {
+                if (!isExpired(leaseFile, now)) {
+                    return true;
+                }
+            } catch (NoSuchFileException e) {
+                // Released concurrently
+            }
+        }
+        return false;
+    }
+
+    Status status() throws IOException {
+        Instant now = now();
+        List<Path> queued = list(inputs, null);
+        List<Result> processed = new ArrayList<>();
+        List<LeaseStatus> leased = new ArrayList<>();
+        int pending = 0;
+        for (Path input : queued) {
+            String name = input.getFileName().toString();
+            Optional<Result> result = readResult(name);
+            if (result.isPresent()) {
+                processed.add(result.get());
+                continue;
+            }
+            Path leaseFile = leases.resolve(name + LEASE_SUFFIX);
+            try {
+                Instant heartbeat = Files.getLastModifiedTime(leaseFile).toInstant();
+                String worker = readLease(leaseFile).map(LeaseInfo::worker).orElse("?");
+                leased.add(new LeaseStatus(name, worker, Duration.between(heartbeat, now).toMillis(), isExpired(leaseFile, now)));
+            } catch (NoSuchFileException e) {
+                pending++;
+            }
+        }
+        return new Status(queued.size(), processed, leased, pending);
+    }
+
+    Path outputDirectory(String input) {
+        String stem = CorpusRunner.stem(Path.of(input));
+        return output.resolve(stem != null ? stem : input);
+    }
+
+    /**
+     * A new, private directory to produce the output of {@code lease} in before it is published.
+     */
+    Path stagingDirectory(Lease lease) throws IOException {
+        return Files.createDirectories(staging(lease.input(), lease.token));
+    }
+
+    private Path staging(String input, String token) {
+        return output.resolve("." + outputDirectory(input).getFileName() + "." + token + ".tmp");
+    }
+
+    /**
+     * Publishes the output produced in {@code staging} and the result of a lease, and releases it.
+     * Nothing is published if the lease was lost (expired and re-queued) in the meantime; the
+     * input is then processed by the worker that holds it now. The lease is checked again once
+     * the output is in place: if it was lost while moving, the result is left to the new holder,
+     * whose output replaces this one, so that only one result is published for the claim.
+     */
+    boolean publish(Lease lease, Path staging, Result result) throws IOException {
+        if (!lease.isHeld()) {
+            log.warn("Lease of '{}' was lost by worker {}; discarding its output", lease.input(), lease.worker());
+            FileIO.delete(staging.toFile());
+            return false;
+        }
+        Path target = outputDirectory(lease.input());
+        Path old = null;
+        if (Files.exists(target)) {
+            old = output.resolve("." + target.getFileName() + "." + lease.token + ".old");
+            Files.move(target, old, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.move(staging, target, StandardCopyOption.ATOMIC_MOVE);
+        if (old != null) {
+            FileIO.delete(old.toFile());
+        }
+        if (!lease.isHeld()) {
+            log.warn("Lease of '{}' was lost by worker {} while publishing; leaving the result to its new holder",
+                    lease.input(), lease.worker());
+            return false;
+        }
+
+        Path resultFile = results.resolve(lease.input() + RESULT_SUFFIX);
+        Path tmp = Files.createTempFile(results, ".result-", ".tmp");
+        try {
+            Files.writeString(tmp, gson.toJson(result), StandardCharsets.UTF_8);
+            Files.move(tmp, resultFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        lease.release();
+        return true;
+    }
+
+    Optional<Result> readResult(String input) throws IOException {
+        try {
+            return Optional.ofNullable(gson.fromJson(
+                    Files.readString(results.resolve(input + RESULT_SUFFIX), StandardCharsets.UTF_8), Result.class));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (JsonParseException e) {
+            log.warn("Unreadable result of '{}': {}", input, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    Path input(Lease lease) {
+        return inputs.resolve(lease.input());
+    }
+
+    private boolean isExpired(Path leaseFile, Instant now) throws IOException {
+        Instant heartbeat = Files.getLastModifiedTime(leaseFile).toInstant();
+        return heartbeat.plus(leaseTimeout).isBefore(now);
+    }
+
+    /**
+     * The current time of the file server, taken from the modification time of a file written just now.
+     */
+    private Instant now() throws IOException {
+        Path clock = directory.resolve(CLOCK_FILE);
+        Files.writeString(clock, "", StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return Files.getLastModifiedTime(clock).toInstant();
+    }
+
+    private static Optional<LeaseInfo> readLease(Path leaseFile) {
+        try {
+            return Optional.ofNullable(gson.fromJson(Files.readString(leaseFile, StandardCharsets.UTF_8), LeaseInfo.class));
+        } catch (IOException | JsonParseException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static List<Path> list(Path dir, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                    .filter(p -> !p.getFileName().toString().startsWith("."))
+                    .filter(p -> suffix == null || p.getFileName().toString().endsWith(suffix))
+                    .sorted(Comparator.comparing(p -> p.getFileName().toString()))
+                    .toList();
+        }
+    }
+
+    private static String stripSuffix(Path file, String suffix) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.length() - suffix.length());
+    }
+
+    /**
+     * A claimed input. The lease file holds the worker and a token unique to this claim,
+     * which tells a live lease from one that was re-queued and claimed again.
+     */
+    final class Lease {
+        private final String input;
+        private final String worker;
+        private final String token;
+        private int heartbeats = 0;
+
+        private Lease(String input, String worker, String token) {
+            this.input = input;
+            this.worker = worker;
+            this.token = token;
+        }
+
+        String input() {
+            return input;
+        }
+
+        String worker() {
+            return worker;
+        }
+
+        private Path file() {
+            return leases.resolve(input + LEASE_SUFFIX);
+        }
+
+        private String content() {
+            return gson.toJson(new LeaseInfo(input, worker, token, heartbeats));
+        }
+
+        synchronized boolean isHeld() {
+            try {
+                LeaseInfo info = gson.fromJson(Files.readString(file(), StandardCharsets.UTF_8), LeaseInfo.class);
+                return info != null && token.equals(info.token());
+            } catch (IOException | JsonParseException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Renews the lease with a file written just now, which moves its modification time forward
+         * on the file server. The new file is renamed over the lease, so that it is never seen
+         * empty or half written. Returns false if the lease is no longer held.
+         */
+        synchronized boolean heartbeat() throws IOException {
+            if (!isHeld()) {
+                return false;
+            }
+            heartbeats++;
+            Path tmp = leases.resolve("." + token + ".tmp");
+            try {
+                Files.writeString(tmp, content(), StandardCharsets.UTF_8);
+                Files.move(tmp, file(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            return true;
+        }
+
+        synchronized void release() throws IOException {
+            if (isHeld()) {
+                Files.deleteIfExists(file());
+            }
+        }
+    }
+
+    private record LeaseInfo(
+            String input,
+            String worker,
+            String token,
+            int heartbeats
+    ) {}
+
+    record Result(
+            String input,
+            String worker,
+            int exitCode,
+            String message,
+            long wallNanos,
+            String finished
+    ) {
+        boolean succeeded() {
+            return exitCode == 0;
+        }
+    }
+
+    record LeaseStatus(
+            String input,
+            String worker,
+            long heartbeatAgeMillis,
+            boolean expired
+    ) {}
+
+    record Status(
+            int queued,
+            List<Result> processed,
+            List<LeaseStatus> leased,
+            int pending
+    ) {
+        long failed() {
+            return processed.stream().filter(r -> !r.succeeded()).count();
+        }
+
+        boolean isFinished() {
+            return processed.size() == queued;
+        }
+
+        String asText() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ROOT, "Queue: %d documents, %d processed (%d failed), %d leased, %d pending\n",
+                    queued, processed.size(), failed(), leased.size(), pending));
+            for (LeaseStatus lease : leased) {
+                sb.append(String.format(Locale.ROOT, "- %-7s %s by %s, last heartbeat %d s ago\n",
+                        lease.expired() ? "EXPIRED" : "LEASED",
+                        lease.input(), lease.worker(), lease.heartbeatAgeMillis() / 1000));
+            }
+            for (Result result : processed) {
+                if (!result.succeeded()) {
+                    sb.append("- FAIL    ").append(result.input()).append(" by ").append(result.worker())
+                            .append(" [exit ").append(result.exitCode()).append("] ").append(result.message()).append("\n");
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -3,11 +3,15 @@ package se.fk.sfsreader.model;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Serial;
 import java.util.Collection;
 import java.util.Objects;
 import java.util.Optional;
 
 public class Avdelning extends Sektion implements Layer {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
     private static final Logger log = LoggerFactory.getLogger(Avdelning.class);
     private static final Logger strukturLog = LoggerFactory.getLogger("STRUKTUR");
 
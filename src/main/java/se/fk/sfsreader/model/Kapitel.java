@@ -4,9 +4,16 @@ import com.google.gson.annotations.SerializedName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serial;
+import java.io.Serializable;
 import java.util.*;
 
-public class Kapitel implements Layer {
+public class Kapitel implements Layer, Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
     private static final Logger log = LoggerFactory.getLogger(Kapitel.class);
     private static final Logger strukturLog = LoggerFactory.getLogger("STRUKTUR");
 
@@ -18,7 +25,7 @@ public class Kapitel implements Layer {
     private String periodisering = null;
 
     @SerializedName(value = "paragraf")
-    protected final Collection<Paragraf> paragrafer = new ArrayList<>();
+    protected final ArrayList<Paragraf> paragrafer = new ArrayList<>();
 
     @SerializedName(value = "avdelning")
     private Avdelning aktuellAvdelning = null;
@@ -103,6 +110,18 @@ public class Kapitel implements Layer {
         paragrafrubrikRecentlySet = false;
     }
 
+    // Takes over the Avdelning and Underavdelning of a Kapitel parsed from another source
+    public void adoptPositionOf(Kapitel other) {
+        Objects.requireNonNull(other, "other");
+
+        if (null != other.aktuellAvdelning) {
+            setAktuellAvdelning(other.aktuellAvdelning);
+        }
+        if (null != other.aktuellUnderavdelning) {
+            setAktuellUnderavdelning(other.aktuellUnderavdelning);
+        }
+    }
+
     public void setAktuellKapitelrubrik(Kapitelrubrik aktuellKapitelrubrik) {
         Objects.requireNonNull(aktuellKapitelrubrik, "aktuellKapitelrubrik");
 
@@ -191,6 +210,12 @@ public class Kapitel implements Layer {
         paragrafer.forEach(Paragraf::prune);
     }
 
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        paragrafrubriker = new ArrayList<>();
+    }
+
     @Override
     public String toString() {
         StringBuilder buf = new StringBuilder("Kapitel{");
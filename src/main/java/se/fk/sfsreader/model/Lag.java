@@ -4,22 +4,31 @@ import com.google.gson.annotations.SerializedName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 
 // Exempel: Socialförsäkringsbalk (2010:110)
-public class Lag implements Layer {
+public class Lag implements Layer, Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
     private static final Logger strukturLog = LoggerFactory.getLogger("STRUKTUR");
     private final String namn;
 
     private final String id;
 
     @SerializedName(value = "kapitel")
-    private final Collection<Kapitel> kapitlen = new ArrayList<>();
+    private final ArrayList<Kapitel> kapitlen = new ArrayList<>();
     @SerializedName(value = "paragraf")
-    private final Collection<Paragraf> paragrafer = new ArrayList<>();
+    private final ArrayList<Paragraf> paragrafer = new ArrayList<>();
 
     // Don't serialize
     private transient Collection<Avdelning> avdelningar = new ArrayList<>();
@@ -62,6 +71,22 @@ public class Lag implements Layer {
         return avdelningar;
     }
 
+    public Collection<Kapitel> getKapitel() {
+        return kapitlen;
+    }
+
+    // Keeps the position of the replaced Kapitel, which Avdelningar see through the shared collection
+    public void replaceKapitel(Kapitel existing, Kapitel replacement) {
+        Objects.requireNonNull(existing, "existing");
+        Objects.requireNonNull(replacement, "replacement");
+
+        List<Kapitel> all = new ArrayList<>(kapitlen);
+        kapitlen.clear();
+        for (Kapitel k : all) {
+            kapitlen.add(k == existing ? replacement : k);
+        }
+    }
+
     public Collection<Paragraf> getParagrafer() {
         return paragrafer;
     }
@@ -83,6 +108,24 @@ public class Lag implements Layer {
         }
     }
 
+    // Avdelningar are left out of output.json, but are part of the parsed structure
+    // (e.g. when cached), so they are written explicitly and re-attached to the Kapitel
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(new ArrayList<>(avdelningar));
+    }
+
+    @Serial
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        avdelningar = new ArrayList<>();
+        for (Avdelning a : (Collection<Avdelning>) in.readObject()) {
+            add(a);
+        }
+    }
+
     @Override
     public String toString() {
         StringBuilder buf = new StringBuilder("Lag{");
@@ -3,19 +3,25 @@ package se.fk.sfsreader.model;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Serial;
 import java.util.*;
 
 public class Overgang extends Kapitel {
-    private static final Logger log = LoggerFactory.getLogger(Overgang.class);
+    @Serial
+    private static final long serialVersionUID = 1L;
 
-    private static int serienummer = 0;
+    private static final Logger log = LoggerFactory.getLogger(Overgang.class);
 
-    public Overgang(String namn) {
-        this(namn, false);
+    /**
+     * @param serienummer löpnummer för övergångsbestämmelser inom en och samma lag (1, 2, ...),
+     *                    räknas av den som tolkar lagtexten så att parallella tolkningar inte påverkar varandra
+     */
+    public Overgang(int serienummer, String namn) {
+        this(serienummer, namn, false);
     }
 
-    public Overgang(String namn, boolean synthetic) {
-        super("Ö" + Integer.toString(++serienummer), namn, synthetic);
+    public Overgang(int serienummer, String namn, boolean synthetic) {
+        super("Ö" + serienummer, namn, synthetic);
     }
 
     public void addParagraf(Paragraf p) {
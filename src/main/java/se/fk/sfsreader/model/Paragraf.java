@@ -5,10 +5,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.fk.sfsreader.PeriodiseringMarker;
 
+import java.io.Serial;
+import java.io.Serializable;
 import java.util.*;
 import java.util.stream.Collectors;
 
-public class Paragraf implements Layer {
+public class Paragraf implements Layer, Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
     private static final Logger log = LoggerFactory.getLogger(Paragraf.class);
 
     private final String nummer;
@@ -21,12 +26,12 @@ public class Paragraf implements Layer {
     private String versionIdentity = null;
 
     @SerializedName(value = "stycke")
-    private final Collection<Stycke> stycken = new ArrayList<>();
+    private final ArrayList<Stycke> stycken = new ArrayList<>();
 
     private String rubrik = null;
     private String underrubrik = null;
 
-    private final Collection<String> referens = new ArrayList<>();
+    private final ArrayList<String> referens = new ArrayList<>();
 
     public Paragraf(String nummer) {
         this.nummer = nummer.trim();
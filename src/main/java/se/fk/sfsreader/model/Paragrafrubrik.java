@@ -1,6 +1,11 @@
 package se.fk.sfsreader.model;
 
+import java.io.Serial;
+
 public class Paragrafrubrik extends Sektion implements Layer  {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
     public Paragrafrubrik(String namn) {
         super(namn);
     }
@@ -3,7 +3,13 @@ package se.fk.sfsreader.model;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class Punkt /* implements Layer  */ {
+import java.io.Serial;
+import java.io.Serializable;
+
+public class Punkt /* implements Layer  */ implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
     private static final Logger strukturLog = LoggerFactory.getLogger("STRUKTUR");
 
     private final int nummer;
@@ -1,6 +1,12 @@
 package se.fk.sfsreader.model;
 
-public abstract class Sektion implements Layer {
+import java.io.Serial;
+import java.io.Serializable;
+
+public abstract class Sektion implements Layer, Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
     private final String namn;
 
     public Sektion(String namn) {
@@ -4,6 +4,11 @@ import com.google.gson.annotations.SerializedName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -11,7 +16,10 @@ import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class Stycke implements Layer {
+public class Stycke implements Layer, Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
     private static final Logger log = LoggerFactory.getLogger(Stycke.class);
     private static final Logger strukturLog = LoggerFactory.getLogger("STRUKTUR");
 
@@ -26,16 +34,16 @@ public class Stycke implements Layer {
     // Such as "/Träder i kraft I:den dag som regeringen bestämmer/"
     private String periodisering = null;
 
-    private final Collection<String> text = new ArrayList<>();
+    private final ArrayList<String> text = new ArrayList<>();
 
     //@Expose(serialize = false, deserialize = false)
     private transient boolean isItemized;
 
     //@Expose(serialize = false, deserialize = false)
-    private transient final List<String> textOnHold = new ArrayList<>();
+    private transient List<String> textOnHold = new ArrayList<>();
 
     @SerializedName(value = "punkt")
-    private final List<Punkt> punkter = new ArrayList<>();
+    private final ArrayList<Punkt> punkter = new ArrayList<>();
 
     private final static String[] T = {};
 
@@ -164,6 +172,23 @@ public class Stycke implements Layer {
         text.removeIf(String::isEmpty);
     }
 
+    // Text on hold is not part of output.json, but is merged in by prune()
+    // and has to survive when an unpruned Stycke is serialized (e.g. when cached)
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeBoolean(isItemized);
+        out.writeObject(new ArrayList<>(textOnHold));
+    }
+
+    @Serial
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        isItemized = in.readBoolean();
+        textOnHold = (List<String>) in.readObject();
+    }
+
     @Override
     public String toString() {
         return "Stycke{nummer=" + nummer + "}";
@@ -3,7 +3,12 @@ package se.fk.sfsreader.model;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Serial;
+
 public class Underavdelning extends Sektion implements Layer  {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
     private static final Logger strukturLog = LoggerFactory.getLogger("STRUKTUR");
 
     private String id;
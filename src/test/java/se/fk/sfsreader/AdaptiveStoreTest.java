@@ -0,0 +1,83 @@
+package se.fk.sfsreader;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class AdaptiveStoreTest {
+
+    private static final Path FIXTURE = Path.of("data/sfs-2018-585.txt.xml");
+
+    private final Gson gson = new Gson();
+
+    @Test
+    public void reusesPrimaryStructureWhileThePayloadsAreUnchanged() throws Exception {
+        assumeTrue(Files.exists(FIXTURE));
+        byte[] document = Files.readAllBytes(FIXTURE);
+        Path dir = Files.createTempDirectory("adaptive-");
+        AdaptiveStore store = new AdaptiveStore(dir.resolve("adaptive"));
+
+        // The first run parses in full; accepting its HIGH findings makes the law eligible for reuse
+        StageMetrics first = new StageMetrics();
+        SfsReader.Parsed full = reader(store, Set.of()).parse(document, "sfs-2018-585.txt.xml", first);
+        assertTrue(stages(first).contains("HtmlProcessor.process"));
+        Set<String> baseline = full.reconciliation().orElseThrow().findings().stream()
+                .filter(f -> f.severity() == HybridReconciler.Severity.HIGH)
+                .map(HybridReconciler.Finding::key)
+                .collect(Collectors.toSet());
+        SfsReader reader = reader(store, baseline);
+
+        StageMetrics second = new StageMetrics();
+        SfsReader.Parsed reused = reader.parse(document, "sfs-2018-585.txt.xml", second);
+        assertTrue(stages(second).contains("AdaptiveStore.get"));
+        assertFalse(stages(second).contains("HtmlProcessor.process"));
+        assertFalse(stages(second).contains("TextProcessor.process"));
+        assertEquals(gson.toJson(full.primary()), gson.toJson(reused.primary()));
+        assertEquals(gson.toJson(full.reconciliation().orElseThrow()), gson.toJson(reused.reconciliation().orElseThrow()));
+
+        // A change in a payload gives a full hybrid parse again
+        String changed = new String(document, StandardCharsets.UTF_8).replaceFirst("</text>", " </text>");
+        StageMetrics third = new StageMetrics();
+        reader.parse(changed.getBytes(StandardCharsets.UTF_8), "sfs-2018-585.txt.xml", third);
+        assertTrue(stages(third).contains("HtmlProcessor.process"));
+    }
+
+    @Test
+    public void newHighFindingsPreventReuse() throws Exception {
+        assumeTrue(Files.exists(FIXTURE));
+        byte[] document = Files.readAllBytes(FIXTURE);
+        AdaptiveStore store = new AdaptiveStore(Files.createTempDirectory("adaptive-").resolve("adaptive"));
+        DocumentSources sources = DocumentSources.from(document, "sfs-2018-585.txt.xml", StandardCharsets.UTF_8);
+        SfsReader.Parsed parsed = reader(store, Set.of()).parse(document, "sfs-2018-585.txt.xml", new StageMetrics());
+
+        HybridReconciler.Finding high = new HybridReconciler.Finding("K1P1:missing", "missing", HybridReconciler.Severity.HIGH,
+                HybridReconciler.Category.STRUCTURAL, "1 kap. 1 § saknas i text", null, null);
+        HybridReconciler.Result reconciliation = new HybridReconciler.Result(1, Map.of("missing", 1),
+                Map.of(HybridReconciler.Severity.HIGH, 1), List.of(high));
+        store.put(sources, "sfs-2018-585.txt.xml", new ParseCache.Entry(parsed.primary(), null, reconciliation));
+
+        assertEquals(Optional.empty(), store.get(sources, "sfs-2018-585.txt.xml", Set.of()));
+        assertTrue(store.get(sources, "sfs-2018-585.txt.xml", Set.of("K1P1:missing")).isPresent());
+    }
+
+    private static SfsReader reader(AdaptiveStore store, Set<String> baseline) {
+        return new SfsReader(SfsReader.Options.defaults()
+                .withSourceMode(SourceMode.ADAPTIVE)
+                .withReconciliationBaseline(baseline), Optional.empty(), Optional.of(store));
+    }
+
+    private static List<String> stages(StageMetrics metrics) {
+        return metrics.report("", "adaptive").stages().stream().map(StageMetrics.Timing::stage).toList();
+    }
+}
@@ -0,0 +1,62 @@
+package se.fk.sfsreader;
+
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ArchiveInputTest {
+
+    @Test
+    public void expandsArchiveToItsInputDocuments() throws Exception {
+        Path archive = archive("sfs.zip", "bulk/sfs-2018-585.xml", "bulk/sfs-2017-900.xml", "bulk/readme.txt", "sfs-2010-110.xml");
+
+        List<Path> inputs = CorpusRunner.expand(archive);
+
+        assertEquals(List.of("/bulk/sfs-2017-900.xml", "/bulk/sfs-2018-585.xml", "/sfs-2010-110.xml"),
+                inputs.stream().map(Path::toString).toList());
+        assertEquals("<dokumentstatus>sfs-2017-900.xml</dokumentstatus>",
+                StandardCharsets.UTF_8.decode(FileIO.read(inputs.getFirst())).toString());
+    }
+
+    @Test
+    public void selectsDocumentsBySfsIdOrFileName() throws Exception {
+        Path archive = archive("urval.zip", "sfs-2010-110.xml", "sfs-2017-900.xml", "sfs-2018-585.xml", "sfs-2018-1000.xml");
+
+        List<Path> inputs = CorpusRunner.expand(archive, CorpusRunner.selection("2010:110, sfs-2018-5*"));
+
+        assertEquals(List.of("sfs-2010-110.xml", "sfs-2018-585.xml"),
+                inputs.stream().map(p -> p.getFileName().toString()).toList());
+    }
+
+    @Test
+    public void placesNamespacesNextToTheArchive() throws Exception {
+        Path archive = archive("sfs.zip", "bulk/sfs-2017-900.xml");
+        List<Path> inputs = CorpusRunner.expand(archive);
+
+        Map<Path, Path> namespaces = CorpusRunner.namespaces(inputs, null);
+
+        assertEquals(archive.toAbsolutePath().resolveSibling("sfs-2017-900"), namespaces.get(inputs.getFirst()));
+    }
+
+    private static Path archive(String name, String... entries) throws Exception {
+        Path archive = Files.createTempDirectory("archive-").resolve(name);
+        try (OutputStream out = Files.newOutputStream(archive); ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (String entry : entries) {
+                zip.putNextEntry(new ZipEntry(entry));
+                String fileName = entry.substring(entry.lastIndexOf('/') + 1);
+                zip.write(("<dokumentstatus>" + fileName + "</dokumentstatus>").getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return archive;
+    }
+}
@@ -0,0 +1,169 @@
+package se.fk.sfsreader;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BulkFetcherTest {
+
+    /** Requests per document name */
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private HttpServer server;
+    private Path directory;
+
+    @Before
+    public void startServer() throws Exception {
+        directory = Files.createTempDirectory("bulk-");
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/dokument/", exchange -> {
+            String name = exchange.getRequestURI().getPath().substring("/dokument/".length());
+            int count = requests.computeIfAbsent(name, n -> new AtomicInteger()).incrementAndGet();
+            String etag = "\"" + name + "\"";
+            if (name.startsWith("sfs-1999-")) {
+                exchange.sendResponseHeaders(404, -1);
+            } else if (name.startsWith("sfs-2001-") && count < 3) {
+                // Unavailable twice, then fine
+                exchange.sendResponseHeaders(503, -1);
+            } else if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                byte[] body = ("<dokumentstatus><dokument><text>" + name + "</text></dokument></dokumentstatus>")
+                        .getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("ETag", etag);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void collectsIdsFromArgumentsAndFiles() throws Exception {
+        Path list = Files.writeString(directory.resolve("ids.txt"), "# SFB och följdlagar\n2010:110\n\n 2010:111 \n2018:585\n");
+
+        assertEquals(List.of("2018:585", "2010:110", "2010:111"), BulkFetcher.ids(List.of("2018:585", list.toString())));
+        assertThrows(IllegalArgumentException.class, () -> BulkFetcher.ids(List.of("sfs-2010-110")));
+        Files.writeString(list, "2010:110\nSFB\n");
+        assertThrows(IllegalArgumentException.class, () -> BulkFetcher.ids(List.of(list.toString())));
+    }
+
+    @Test
+    public void downloadsConcurrentlyRetryingUnavailableDocuments() throws Exception {
+        BulkFetcher.Summary summary;
+        try (HttpFetcher http = new HttpFetcher(directory.resolve(BulkFetcher.CACHE_DIRECTORY), 3)) {
+            summary = fetcher(http).run(List.of("2010:110", "2001:1", "1999:1", "2018:585"), directory.resolve("in"), null, null, null);
+        }
+
+        assertEquals(3, summary.count(HttpFetcher.Status.FETCHED));
+        assertEquals(1, summary.failed());
+        assertEquals(3, summary.exitCode());
+        BulkFetcher.Download retried = summary.downloads().get(1);
+        assertEquals(3, retried.attempts());
+        assertEquals("<dokumentstatus><dokument><text>sfs-2001-1.txt</text></dokument></dokumentstatus>",
+                Files.readString(directory.resolve("in/sfs-2001-1.txt.xml")));
+        // 404 is not retried, and leaves no file behind
+        assertEquals(1, requests.get("sfs-1999-1.txt").get());
+        try (var files = Files.list(directory.resolve("in"))) {
+            assertEquals(List.of("sfs-2001-1.txt.xml", "sfs-2010-110.txt.xml", "sfs-2018-585.txt.xml"),
+                    files.filter(Files::isRegularFile).map(p -> p.getFileName().toString()).sorted().toList());
+        }
+        assertTrue(summary.asText().contains("FAIL"));
+    }
+
+    @Test
+    public void processesDownloadsAndSkipsCompletedOnes() throws Exception {
+        List<Path> processed = new CopyOnWriteArrayList<>();
+        CorpusRunner.DocumentTask task = (inputFile, outputDirectory, progress) -> processed.add(inputFile.getFileName());
+        Path in = directory.resolve("in");
+        Path out = directory.resolve("out");
+
+        BulkFetcher.Summary first;
+        BulkFetcher.Summary second;
+        try (HttpFetcher http = new HttpFetcher(in.resolve(BulkFetcher.CACHE_DIRECTORY), 2)) {
+            try (CorpusJournal journal = CorpusJournal.open(out.resolve(CorpusJournal.FILE_NAME), "settings", true)) {
+                first = fetcher(http).run(List.of("2010:110", "2018:585"), in, task, out, journal);
+            }
+            try (CorpusJournal journal = CorpusJournal.open(out.resolve(CorpusJournal.FILE_NAME), "settings", true)) {
+                second = fetcher(http).run(List.of("2010:110", "2018:585"), in, task, out, journal);
+            }
+        }
+
+        assertEquals(0, first.failed());
+        assertEquals(2, second.count(HttpFetcher.Status.NOT_MODIFIED));
+        assertEquals(List.of(Path.of("sfs-2010-110.txt.xml"), Path.of("sfs-2018-585.txt.xml")),
+                processed.stream().sorted().toList());
+        assertEquals(out.resolve("sfs-2010-110").toAbsolutePath(), first.downloads().getFirst().processed().outputDirectory());
+        assertTrue(second.downloads().getFirst().processed().skipped());
+    }
+
+    @Test
+    public void reprocessesUnmodifiedDocumentsWhoseProcessingFailed() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        CorpusRunner.DocumentTask task = (inputFile, outputDirectory, progress) -> {
+            if (runs.incrementAndGet() == 1) {
+                throw new ProcessingException(3, "Avbruten");
+            }
+        };
+        Path in = directory.resolve("in");
+        Path out = directory.resolve("out");
+
+        BulkFetcher.Summary first;
+        BulkFetcher.Summary second;
+        try (HttpFetcher http = new HttpFetcher(in.resolve(BulkFetcher.CACHE_DIRECTORY), 1)) {
+            try (CorpusJournal journal = CorpusJournal.open(out.resolve(CorpusJournal.FILE_NAME), "settings", true)) {
+                first = fetcher(http).run(List.of("2010:110"), in, task, out, journal);
+            }
+            try (CorpusJournal journal = CorpusJournal.open(out.resolve(CorpusJournal.FILE_NAME), "settings", true)) {
+                second = fetcher(http).run(List.of("2010:110"), in, task, out, journal);
+            }
+        }
+
+        // The failed processing left its output directory behind, but not a complete journal entry
+        assertTrue(Files.isDirectory(out.resolve("sfs-2010-110")));
+        assertEquals(3, first.exitCode());
+        assertEquals(1, second.count(HttpFetcher.Status.NOT_MODIFIED));
+        assertFalse(second.downloads().getFirst().processed().skipped());
+        assertEquals(0, second.exitCode());
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void spacesRequestsEvenly() throws Exception {
+        BulkFetcher.RateLimiter limiter = new BulkFetcher.RateLimiter(50);
+        long start = System.nanoTime();
+        for (int i = 0; i < 6; i++) {
+            limiter.acquire();
+        }
+        // The first permit is immediate, the other five 20 ms apart
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 95);
+    }
+
+    private BulkFetcher fetcher(HttpFetcher http) {
+        URI base = URI.create("http://localhost:" + server.getAddress().getPort() + "/dokument");
+        return new BulkFetcher(http, base, 3, 200, Duration.ofMillis(10));
+    }
+}
@@ -0,0 +1,50 @@
+package se.fk.sfsreader;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CanonicalJsonTest {
+
+    private final Gson gson = new Gson();
+
+    record Sample(String namn, List<Integer> nummer, Map<String, Object> extra, String saknas) {}
+
+    @Test
+    public void sortsMembersAndOmitsWhitespaceAndNulls() throws Exception {
+        Map<String, Object> extra = new LinkedHashMap<>();
+        extra.put("ö", "<&>");
+        extra.put("b", 1.5);
+        extra.put("a", true);
+
+        String json = write(new Sample("Lag", List.of(3, 1, 2), extra, null));
+
+        assertEquals("{\"extra\":{\"a\":true,\"b\":1.5,\"ö\":\"<&>\"},\"namn\":\"Lag\",\"nummer\":[3,1,2]}", json);
+    }
+
+    @Test
+    public void independentOfMapOrder() throws Exception {
+        Map<String, Integer> forward = new LinkedHashMap<>();
+        Map<String, Integer> backward = new LinkedHashMap<>();
+        List<String> keys = Arrays.asList("K1 P1", "K10 P2", "K2 P1", "K2 a P1", "K9 P3");
+        keys.forEach(k -> forward.put(k, k.length()));
+        keys.reversed().forEach(k -> backward.put(k, k.length()));
+
+        assertEquals(write(forward), write(backward));
+        assertEquals(write(forward), write(new HashMap<>(backward)));
+    }
+
+    private String write(Object value) throws Exception {
+        StringWriter writer = new StringWriter();
+        CanonicalJson.write(gson, value, writer);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,118 @@
+package se.fk.sfsreader;
+
+import com.google.gson.Gson;
+import org.jsoup.Jsoup;
+import org.junit.Test;
+import se.fk.sfsreader.model.Kapitel;
+import se.fk.sfsreader.model.Lag;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class ChapterwiseParserTest {
+
+    private static final Path FIXTURE = Path.of("data/sfs-2010-110.txt.xml");
+    private static final Pattern CHAPTER_RE = Pattern.compile("K(\\d+[a-z]?)\\b");
+
+    private final Gson gson = new Gson();
+
+    @Test
+    public void slicesFromChapterAnchorToNextHeading() {
+        String html = "<div><h3 name=\"K1\"><a name=\"K1\">1 kap. Ett</a></h3><p>ett</p>"
+                + "<h2>AVD. B TVÅ</h2>"
+                + "<h3 name=\"K2\"><a name=\"K2\">2 kap. Två</a></h3><p>två</p>"
+                + "<h3 name=\"K2a\"><a name=\"K2a\">2 a kap. Två a</a></h3><p>två a</p>"
+                + "<h3 name=\"overgang\"><a name=\"overgang\">Övergångsbestämmelser</a></h3></div>";
+
+        String fragments = ChapterwiseParser.slice(html, Set.of("1", "2a", "9"));
+
+        assertTrue(fragments.contains("1 kap. Ett</a></h3><p>ett</p>"));
+        assertTrue(fragments.contains("2 a kap. Två a</a></h3><p>två a</p>"));
+        assertFalse(fragments.contains("AVD. B"));
+        assertFalse(fragments.contains("2 kap. Två<"));
+        assertFalse(fragments.contains("Övergångsbestämmelser"));
+    }
+
+    @Test
+    public void readsChapterAnchorsFromAnomalyList() throws Exception {
+        Path list = Files.createTempFile("anomalier-", ".txt");
+        Files.writeString(list, """
+                   Kapitel: 5 Bosättningsbaserade förmåner
+                -->    K5P9 Paragraf: 9 rubrik="Särskilda personkategorier"
+                 --> K97P23a Paragraf: 23 a
+                    K28a (hela kapitlet)
+                """, StandardCharsets.UTF_8);
+
+        assertEquals(Set.of("5", "97", "28a"), ChapterwiseParser.loadAnomalyChapters(list));
+    }
+
+    @Test
+    public void flaggedChaptersMatchFullHybridParse() throws Exception {
+        assumeTrue("Fixture missing: " + FIXTURE, Files.exists(FIXTURE));
+        DocumentSources sources = DocumentSources.from(FIXTURE, StandardCharsets.UTF_8);
+
+        ChapterwiseParser.Result chapterwise = ChapterwiseParser.parse(sources, Set.of("5", "6"),
+                new HtmlProcessor("Socialförsäkringsbalk", "2010:110"), new TextProcessor(), new StageMetrics());
+        Map<String, String> flagged = chapterwise.flagged();
+        assertEquals("anomaly list", flagged.get("5"));
+        assertTrue("Only part of the law is parsed from HTML", flagged.size() < 125 / 2);
+
+        Lag html;
+        try (InputStream is = sources.openHtmlStream().orElseThrow()) {
+            html = new HtmlProcessor("Socialförsäkringsbalk", "2010:110")
+                    .process(Jsoup.parse(is, StandardCharsets.UTF_8.name(), "http://nope.local")).orElseThrow();
+        }
+        Lag text;
+        try (InputStream is = sources.openTextStream().orElseThrow();
+             Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8)) {
+            text = new TextProcessor().process(reader).orElseThrow();
+        }
+
+        // Flagged chapters come from HTML, all others from text, in the order of the text payload
+        // (the text payload may hold the same chapter id twice; only the first is replaced)
+        Map<String, Kapitel> fromHtml = byId(html);
+        List<Kapitel> original = List.copyOf(text.getKapitel());
+        List<Kapitel> merged = List.copyOf(chapterwise.lag().getKapitel());
+        assertEquals(original.size(), merged.size());
+        Set<String> replaced = new HashSet<>();
+        for (int i = 0; i < merged.size(); i++) {
+            String id = original.get(i).id().replaceAll("\\s+", "");
+            boolean fromHtmlPayload = flagged.containsKey(id) && fromHtml.containsKey(id) && replaced.add(id);
+            Kapitel expected = fromHtmlPayload ? fromHtml.get(id) : original.get(i);
+            assertEquals("K" + id, gson.toJson(expected.get()), gson.toJson(merged.get(i).get()));
+        }
+
+        // ... and their reconciliation is that of the full hybrid parse, restricted to them
+        Set<String> expectedKeys = new HybridReconciler().reconcile(html, text).findings().stream()
+                .map(HybridReconciler.Finding::key)
+                .filter(key -> {
+                    Matcher m = CHAPTER_RE.matcher(key);
+                    return m.find() && flagged.containsKey(m.group(1));
+                })
+                .collect(Collectors.toSet());
+        Set<String> keys = chapterwise.reconciliation().findings().stream()
+                .map(HybridReconciler.Finding::key)
+                .collect(Collectors.toSet());
+        assertEquals(expectedKeys, keys);
+    }
+
+    private static Map<String, Kapitel> byId(Lag lag) {
+        return lag.getKapitel().stream()
+                .collect(Collectors.toMap(k -> k.id().replaceAll("\\s+", ""), Function.identity(), (a, b) -> a));
+    }
+}
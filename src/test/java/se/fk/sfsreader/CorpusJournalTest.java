@@ -0,0 +1,120 @@
+package se.fk.sfsreader;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class CorpusJournalTest {
+
+    @Test
+    public void resumesFromFinishedStages() throws Exception {
+        Path dir = Files.createTempDirectory("journal-");
+        Path input = write(dir.resolve("sfs-2000-1.txt.xml"), "<dokumentstatus/>");
+        Path output = dir.resolve("out").resolve("sfs-2000-1");
+        Path journalFile = dir.resolve("out").resolve(CorpusJournal.FILE_NAME);
+        Path json = write(Files.createDirectories(output).resolve("output.json"), "{}");
+
+        try (CorpusJournal journal = CorpusJournal.open(journalFile, "settings", false)) {
+            CorpusJournal.Document document = journal.begin(input, output);
+            assertFalse(document.isDone("parse"));
+            document.finished("parse", List.of());
+            document.finished("render[2028-07-01]", List.of(json));
+            // Interrupted before the document completed
+        }
+
+        try (CorpusJournal journal = CorpusJournal.open(journalFile, "settings", true)) {
+            CorpusJournal.Document document = journal.begin(input, output);
+            assertTrue(document.isDone("render[2028-07-01]"));
+            assertFalse(document.isDone("render[2029-01-01]"));
+            assertFalse(document.isComplete());
+            document.complete();
+        }
+
+        try (CorpusJournal journal = CorpusJournal.open(journalFile, "settings", true)) {
+            assertTrue(journal.begin(input, output).isComplete());
+        }
+        try (CorpusJournal journal = CorpusJournal.open(journalFile, "other settings", true)) {
+            assertFalse(journal.begin(input, output).isDone("render[2028-07-01]"));
+        }
+
+        Files.delete(json);
+        try (CorpusJournal journal = CorpusJournal.open(journalFile, "settings", true)) {
+            CorpusJournal.Document document = journal.begin(input, output);
+            assertFalse("Missing output", document.isComplete());
+            assertTrue(document.isDone("render[2028-07-01]"));
+        }
+
+        write(input, "<dokumentstatus>changed</dokumentstatus>");
+        try (CorpusJournal journal = CorpusJournal.open(journalFile, "settings", true)) {
+            assertFalse(journal.begin(input, output).isDone("parse"));
+        }
+    }
+
+    @Test
+    public void ignoresTornLastLineAndStartsOverWithoutResume() throws Exception {
+        Path dir = Files.createTempDirectory("journal-");
+        Path input = write(dir.resolve("sfs-2000-1.txt.xml"), "<dokumentstatus/>");
+        Path output = dir.resolve("sfs-2000-1");
+        Path journalFile = dir.resolve(CorpusJournal.FILE_NAME);
+
+        try (CorpusJournal journal = CorpusJournal.open(journalFile, "settings", false)) {
+            journal.begin(input, output).finished("parse", List.of());
+        }
+        Files.writeString(journalFile, "{\"time\":\"2026-", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        try (CorpusJournal journal = CorpusJournal.open(journalFile, "settings", true)) {
+            assertTrue(journal.begin(input, output).isDone("parse"));
+        }
+        try (CorpusJournal journal = CorpusJournal.open(journalFile, "settings", false)) {
+            assertFalse(journal.begin(input, output).isDone("parse"));
+        }
+        assertEquals(0, Files.size(journalFile));
+    }
+
+    @Test
+    public void corpusRunSkipsCompleteDocumentsWhenResumed() throws Exception {
+        Path dir = Files.createTempDirectory("journal-");
+        Path one = write(dir.resolve("one.txt.xml"), "<one/>");
+        Path two = write(dir.resolve("two.txt.xml"), "<two/>");
+        Path root = dir.resolve("out");
+        Map<Path, Path> namespaces = CorpusRunner.namespaces(List.of(one, two), root);
+        Path journalFile = root.resolve(CorpusJournal.FILE_NAME);
+
+        Set<String> processed = ConcurrentHashMap.newKeySet();
+        CorpusRunner.DocumentTask task = (input, outputDirectory, progress) -> {
+            processed.add(input.getFileName().toString());
+            if (input.equals(two) && !Files.exists(dir.resolve("fixed"))) {
+                throw new ProcessingException(12, "Strict periodisering check failed");
+            }
+        };
+
+        try (CorpusJournal journal = CorpusJournal.open(journalFile, "settings", false)) {
+            CorpusRunner.Summary summary = new CorpusRunner(2, journal).run(namespaces, task);
+            assertEquals(1, summary.failed());
+        }
+
+        processed.clear();
+        write(dir.resolve("fixed"), "");
+        try (CorpusJournal journal = CorpusJournal.open(journalFile, "settings", true)) {
+            CorpusRunner.Summary summary = new CorpusRunner(2, journal).run(namespaces, task);
+            assertEquals(0, summary.failed());
+            assertEquals(1, summary.skipped());
+            assertTrue(summary.asText().contains("SKIP"));
+        }
+        assertEquals(Set.of("two.txt.xml"), processed);
+    }
+
+    private static Path write(Path file, String content) throws Exception {
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+}
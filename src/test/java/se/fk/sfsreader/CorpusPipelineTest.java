@@ -0,0 +1,140 @@
+package se.fk.sfsreader;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CorpusPipelineTest {
+
+    @Test
+    public void overlapsStagesOfDifferentDocuments() throws Exception {
+        Map<Path, Path> namespaces = CorpusRunner.namespaces(
+                List.of(Path.of("one.txt.xml"), Path.of("two.txt.xml")), Files.createTempDirectory("pipeline-out-"));
+        CountDownLatch twoParsed = new CountDownLatch(1);
+
+        // With one thread per stage, "one" can only be rendered once "two" has been parsed if the stages overlap
+        CorpusRunner.Summary summary = new CorpusPipeline(new CorpusPipeline.Parallelism(1, 1, 1, 1, 1), null)
+                .run(namespaces, new Task() {
+                    @Override
+                    public void parse(String document) {
+                        if (document.equals("two")) {
+                            twoParsed.countDown();
+                        }
+                    }
+
+                    @Override
+                    public void render(String document, String output) throws ProcessingException {
+                        super.render(document, output);
+                        try {
+                            if (document.equals("one") && !twoParsed.await(10, TimeUnit.SECONDS)) {
+                                throw new ProcessingException(3, "Stages did not overlap");
+                            }
+                        } catch (InterruptedException e) {
+                            throw new ProcessingException(3, "Interrupted");
+                        }
+                    }
+                });
+
+        assertEquals(0, summary.failed());
+        assertEquals(5, summary.workers());
+    }
+
+    @Test
+    public void isolatesFailuresAndFansOutOutputs() throws Exception {
+        Map<Path, Path> namespaces = CorpusRunner.namespaces(
+                List.of(Path.of("one.txt.xml"), Path.of("two.txt.xml"), Path.of("three.txt.xml")),
+                Files.createTempDirectory("pipeline-out-"));
+        Task task = new Task() {
+            @Override
+            public void parse(String document) throws ProcessingException {
+                if (document.equals("two")) {
+                    throw new ProcessingException(3, "Can't parse file: two.txt.xml");
+                }
+            }
+
+            @Override
+            public List<String> reconcile(String document) {
+                return document.equals("three") ? List.of("2025-01-01", "2026-01-01", "2027-01-01") : List.of("");
+            }
+
+            @Override
+            public void evaluate(String document, String output) throws ProcessingException {
+                if (output.equals("2026-01-01")) {
+                    throw new ProcessingException(12, "Strict periodisering check failed");
+                }
+            }
+        };
+
+        CorpusRunner.Summary summary = new CorpusPipeline(new CorpusPipeline.Parallelism(2, 2, 1, 2, 2), null).run(namespaces, task);
+
+        assertEquals(List.of("one.txt.xml", "two.txt.xml", "three.txt.xml"),
+                summary.outcomes().stream().map(o -> o.inputFile().toString()).toList());
+        assertEquals(List.of(0, 3, 12), summary.outcomes().stream().map(CorpusRunner.Outcome::exitCode).toList());
+        assertEquals(Set.of("one/", "three/2025-01-01", "three/2027-01-01"), task.rendered);
+        assertEquals(Set.of("one", "two", "three"), task.finished);
+    }
+
+    @Test
+    public void parsesParallelismPerStage() {
+        assertEquals(new CorpusPipeline.Parallelism(1, 4, 2, 2, 1), CorpusPipeline.Parallelism.of("1,4, 2,2,1"));
+        try {
+            CorpusPipeline.Parallelism.of("1,4,2");
+            fail("Expected five stages");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            CorpusPipeline.Parallelism.of("1,0,1,1,1");
+            fail("Expected positive thread counts");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * Documents are named after the input file stem; outputs are plain labels.
+     */
+    private static class Task implements CorpusPipeline.StagedTask<String, String> {
+        final Set<String> rendered = ConcurrentHashMap.newKeySet();
+        final Set<String> finished = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public String start(Path inputFile, Path outputDirectory, CorpusJournal.Progress progress) {
+            return CorpusRunner.stem(inputFile);
+        }
+
+        @Override
+        public void extract(String document) {
+        }
+
+        @Override
+        public void parse(String document) throws ProcessingException {
+        }
+
+        @Override
+        public List<String> reconcile(String document) {
+            return List.of("");
+        }
+
+        @Override
+        public void evaluate(String document, String output) throws ProcessingException {
+        }
+
+        @Override
+        public void render(String document, String output) throws ProcessingException {
+            rendered.add(document + "/" + output);
+        }
+
+        @Override
+        public void finish(String document, ProcessingException failure) {
+            finished.add(document);
+        }
+    }
+}
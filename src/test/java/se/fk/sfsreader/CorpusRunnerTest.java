@@ -0,0 +1,74 @@
+package se.fk.sfsreader;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class CorpusRunnerTest {
+
+    @Test
+    public void derivesNamespaceFromInputFileName() {
+        assertEquals("sfs-2010-110", CorpusRunner.stem(Path.of("data/sfs-2010-110.txt.xml")));
+        assertEquals("sfs-2010-110", CorpusRunner.stem(Path.of("sfs-2010-110.html")));
+        assertEquals("sfs-2010-110", CorpusRunner.stem(Path.of("sfs-2010-110.txt.xml.gz")));
+        assertEquals("lag", CorpusRunner.stem(Path.of("lag.xml")));
+        assertNull(CorpusRunner.stem(Path.of("output.json")));
+    }
+
+    @Test
+    public void expandsDirectoryToSortedInputDocuments() throws Exception {
+        Path dir = Files.createTempDirectory("corpus-");
+        Files.writeString(dir.resolve("sfs-2018-585.txt.xml"), "<x/>", StandardCharsets.UTF_8);
+        Files.writeString(dir.resolve("sfs-2017-900.txt.xml"), "<x/>", StandardCharsets.UTF_8);
+        Files.writeString(dir.resolve("output.json"), "{}", StandardCharsets.UTF_8);
+        Files.createDirectory(dir.resolve("sfs-2017-900"));
+
+        List<Path> inputs = CorpusRunner.expand(dir);
+
+        assertEquals(2, inputs.size());
+        assertEquals("sfs-2017-900.txt.xml", inputs.get(0).getFileName().toString());
+        assertEquals("sfs-2018-585.txt.xml", inputs.get(1).getFileName().toString());
+    }
+
+    @Test
+    public void rejectsInputsThatWouldShareNamespace() {
+        try {
+            CorpusRunner.namespaces(List.of(Path.of("a/lag.xml"), Path.of("b/lag.html")), Path.of("out"));
+            fail("Expected namespace collision");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("share output directory"));
+        }
+    }
+
+    @Test
+    public void isolatesFailingDocumentsAndSummarizes() throws Exception {
+        Path root = Files.createTempDirectory("corpus-out-");
+        Map<Path, Path> namespaces = CorpusRunner.namespaces(
+                List.of(Path.of("one.txt.xml"), Path.of("two.txt.xml"), Path.of("three.txt.xml")), root);
+
+        Set<String> processed = ConcurrentHashMap.newKeySet();
+        CorpusRunner.Summary summary = new CorpusRunner(2).run(namespaces, (input, outputDirectory, progress) -> {
+            if (input.getFileName().toString().startsWith("two")) {
+                throw new ProcessingException(12, "Strict periodisering check failed");
+            }
+            processed.add(outputDirectory.getFileName().toString());
+        });
+
+        assertEquals(3, summary.outcomes().size());
+        assertEquals(2, summary.succeeded());
+        assertEquals(1, summary.failed());
+        assertEquals(12, summary.exitCode());
+        assertEquals("one.txt.xml", summary.outcomes().get(0).inputFile().toString());
+        assertEquals(Set.of("one", "three"), processed);
+        assertTrue(Files.isDirectory(root.resolve("two")));
+        assertTrue(summary.asText().contains("documents/s"));
+    }
+}
@@ -0,0 +1,106 @@
+package se.fk.sfsreader;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class DirectoryWatcherTest {
+
+    @Test
+    public void reprocessesOnlyFilesWhoseContentChanged() throws Exception {
+        Path dir = Files.createTempDirectory("watch-");
+        Path law = dir.resolve("sfs-2000-1.txt.xml");
+        Files.writeString(law, "<dokumentstatus>v1</dokumentstatus>", StandardCharsets.UTF_8);
+
+        List<Path> processed = new CopyOnWriteArrayList<>();
+        DirectoryWatcher watcher = watcher(dir, processed);
+
+        assertEquals(List.of(law), processed(watcher, law));
+        assertTrue("Nothing changed", processed(watcher, law).isEmpty());
+
+        // Touched, but same content
+        Files.setLastModifiedTime(law, FileTime.fromMillis(Files.getLastModifiedTime(law).toMillis() + 5_000));
+        assertTrue("Same content", processed(watcher, law).isEmpty());
+
+        Files.writeString(law, "<dokumentstatus>v2</dokumentstatus>", StandardCharsets.UTF_8);
+        assertEquals(List.of(law), processed(watcher, law));
+        assertEquals(2, processed.size());
+    }
+
+    @Test
+    public void remembersProcessedStateAcrossRestarts() throws Exception {
+        Path dir = Files.createTempDirectory("watch-");
+        Path law = dir.resolve("sfs-2000-1.txt.xml");
+        Files.writeString(law, "<dokumentstatus/>", StandardCharsets.UTF_8);
+
+        List<Path> processed = new CopyOnWriteArrayList<>();
+        processed(watcher(dir, processed), law);
+        assertTrue(Files.exists(dir.resolve(DirectoryWatcher.STATE_FILE)));
+
+        assertTrue(processed(watcher(dir, processed), law).isEmpty());
+        assertEquals(1, processed.size());
+    }
+
+    @Test
+    public void retriesFilesThatFailedToProcess() throws Exception {
+        Path dir = Files.createTempDirectory("watch-");
+        Path law = dir.resolve("sfs-2000-1.txt.xml");
+        Files.writeString(law, "<dokumentstatus/>", StandardCharsets.UTF_8);
+
+        DirectoryWatcher failing = new DirectoryWatcher(dir, dir.resolve("out"), "settings", 1, Duration.ofMillis(10),
+                (input, outputDirectory, progress) -> {
+                    throw new ProcessingException(3, "Can't parse file");
+                });
+        failing.processChanged(List.of(law));
+
+        List<Path> processed = new CopyOnWriteArrayList<>();
+        assertEquals(List.of(law), processed(watcher(dir, processed), law));
+    }
+
+    @Test
+    public void watchesDokumentstatusAndHtmlFilesOnly() {
+        assertTrue(DirectoryWatcher.isWatched(Path.of("sfs-2010-110.txt.xml")));
+        assertTrue(DirectoryWatcher.isWatched(Path.of("sfs-2010-110.html")));
+        assertFalse(DirectoryWatcher.isWatched(Path.of(DirectoryWatcher.STATE_FILE)));
+        assertFalse(DirectoryWatcher.isWatched(Path.of("output.json")));
+    }
+
+    @Test
+    public void reprocessesFilesWhenSettingsOrOutputRootChange() throws Exception {
+        Path dir = Files.createTempDirectory("watch-");
+        Path law = dir.resolve("sfs-2000-1.txt.xml");
+        Files.writeString(law, "<dokumentstatus/>", StandardCharsets.UTF_8);
+        List<Path> processed = new CopyOnWriteArrayList<>();
+        CorpusRunner.DocumentTask task = (input, outputDirectory, progress) -> processed.add(outputDirectory);
+
+        processed(new DirectoryWatcher(dir, dir.resolve("out"), "settings", 1, Duration.ofMillis(10), task), law);
+        assertEquals(List.of(law), processed(new DirectoryWatcher(dir, dir.resolve("out"), "other settings", 1, Duration.ofMillis(10), task), law));
+        assertEquals(List.of(law), processed(new DirectoryWatcher(dir, dir.resolve("elsewhere"), "other settings", 1, Duration.ofMillis(10), task), law));
+        assertTrue(processed(new DirectoryWatcher(dir, dir.resolve("elsewhere"), "other settings", 1, Duration.ofMillis(10), task), law).isEmpty());
+
+        assertEquals(3, processed.size());
+        assertEquals(dir.resolve("elsewhere/sfs-2000-1").toAbsolutePath(), processed.getLast().toAbsolutePath());
+    }
+
+    private static DirectoryWatcher watcher(Path dir, List<Path> processed) throws Exception {
+        return new DirectoryWatcher(dir, dir.resolve("out"), "settings", 1, Duration.ofMillis(10),
+                (input, outputDirectory, progress) -> processed.add(input));
+    }
+
+    /**
+     * The files {@code watcher} handed to the pipeline.
+     */
+    private static List<Path> processed(DirectoryWatcher watcher, Path... candidates) throws Exception {
+        return watcher.processChanged(List.of(candidates))
+                .map(summary -> summary.outcomes().stream().map(CorpusRunner.Outcome::inputFile).toList())
+                .orElse(List.of());
+    }
+}
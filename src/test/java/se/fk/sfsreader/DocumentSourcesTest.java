@@ -1,14 +1,19 @@
 package se.fk.sfsreader;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 import org.junit.Test;
 
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
 public class DocumentSourcesTest {
 
@@ -60,6 +65,124 @@ public class DocumentSourcesTest {
         assertTrue(html.get().contains("Only html"));
     }
 
+    @Test
+    public void decompressesGzippedInput() throws Exception {
+        Path file = Files.createTempFile("docsrc-", ".txt.xml.gz");
+        String xml = """
+                <dokumentstatus>
+                  <dokument>
+                    <titel>Testlag (2000:1)</titel>
+                    <beteckning>2000:1</beteckning>
+                    <text>1 kap. Rubrik\n1 § Text</text>
+                  </dokument>
+                </dokumentstatus>
+                """;
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write(xml.getBytes(StandardCharsets.UTF_8));
+        }
+
+        DocumentSources sources = DocumentSources.from(file, StandardCharsets.UTF_8);
+
+        assertEquals("1 kap. Rubrik\n1 § Text", readUtf8(sources.openTextStream()).orElseThrow());
+        assertEquals("2000:1", sources.id().orElse(null));
+    }
+
+    @Test
+    public void readsOnlyPayloadsOfTheDocumentElement() throws Exception {
+        String xml = """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <!-- från riksdagen -->
+                <dokumentstatus>
+                  <dokument>
+                    <beteckning>2000:1</beteckning>
+                    <systemdatum>2026-01-31 04:41:02</systemdatum>
+                    <titel>Testlag (2000:1)</titel>
+                    <text>1 kap. Rubrik &amp; mer\n1 § Text</text>
+                    <html>&lt;h1&gt;Rubrik&lt;/h1&gt;<![CDATA[<p>Stycke</p>]]></html>
+                  </dokument>
+                  <dokuppgift>
+                    <uppgift><text>Inte lagtext</text></uppgift>
+                  </dokuppgift>
+                </dokumentstatus>
+                """;
+        DocumentSources sources = DocumentSources.from(xml.getBytes(StandardCharsets.UTF_8), "test.xml", StandardCharsets.UTF_8);
+
+        assertEquals("1 kap. Rubrik & mer\n1 § Text", readUtf8(sources.openTextStream()).orElseThrow());
+        assertEquals("<h1>Rubrik</h1><p>Stycke</p>", readUtf8(sources.openHtmlStream()).orElseThrow());
+        assertEquals("1 kap. Rubrik & mer\n1 § Text".getBytes(StandardCharsets.UTF_8).length, sources.textSize());
+        assertEquals("Testlag (2000:1)", sources.title().orElse(null));
+        assertEquals("2000:1", sources.id().orElse(null));
+        assertEquals("2026-01-31 04:41:02", sources.systemdatum().orElse(null));
+    }
+
+    @Test
+    public void detectsDokumentstatusFromTheStartOfTheFile() {
+        assertTrue(DocumentSources.looksLikeRiksdagenXml("<dokumentstatus>\n  <dokument>"));
+        assertTrue(DocumentSources.looksLikeRiksdagenXml("\uFEFF<?xml version=\"1.0\"?>\n<!-- x -->\n<dokumentstatus xmlns=\"\">"));
+        assertFalse(DocumentSources.looksLikeRiksdagenXml("<html><body><pre><dokumentstatus></pre></body></html>"));
+        assertFalse(DocumentSources.looksLikeRiksdagenXml("<dokumentstatuslista>"));
+        assertTrue(DocumentSources.looksLikeRiksdagenJson("{\"dokumentstatus\":{\"dokument\":{"));
+        assertTrue(DocumentSources.looksLikeRiksdagenJson("\uFEFF{\n  \"dokumentstatus\" : {\n"));
+        assertFalse(DocumentSources.looksLikeRiksdagenJson("{\"namn\": \"dokumentstatus\"}"));
+        assertFalse(DocumentSources.looksLikeRiksdagenJson("{\"dokumentstatus\": null}"));
+    }
+
+    @Test
+    public void readsPayloadsOfDokumentstatusJson() throws Exception {
+        String json = """
+                {"dokumentstatus": {
+                  "dokuppgift": {"uppgift": [{"kod": "text", "text": "Inte lagtext"}]},
+                  "dokument": {
+                    "hangar_id": 3902131,
+                    "beteckning": "2000:1",
+                    "systemdatum": "2026-01-31 04:41:02",
+                    "titel": "Testlag (2000:1)",
+                    "text": "1 kap. Rubrik & mer\\n1 \u00A7 Text",
+                    "html": "<h1>Rubrik<\\/h1>\\u003cp>Stycke</p>",
+                    "summary": null
+                  }
+                }}
+                """;
+        DocumentSources sources = DocumentSources.from(json.getBytes(StandardCharsets.UTF_8), "test.json", StandardCharsets.UTF_8);
+
+        assertEquals("1 kap. Rubrik & mer\n1 \u00A7 Text", readUtf8(sources.openTextStream()).orElseThrow());
+        assertEquals("<h1>Rubrik</h1><p>Stycke</p>", readUtf8(sources.openHtmlStream()).orElseThrow());
+        assertEquals("1 kap. Rubrik & mer\n1 \u00A7 Text".getBytes(StandardCharsets.UTF_8).length, sources.textSize());
+        assertEquals("Testlag (2000:1)", sources.title().orElse(null));
+        assertEquals("2000:1", sources.id().orElse(null));
+        assertEquals("2026-01-31 04:41:02", sources.systemdatum().orElse(null));
+    }
+
+    @Test
+    public void readsJsonLikeTheEquivalentXml() throws Exception {
+        Path fixture = Path.of("data/sfs-2018-585.txt.xml");
+        assumeTrue("Fixture missing: " + fixture, Files.exists(fixture));
+        DocumentSources xml = DocumentSources.from(fixture, StandardCharsets.UTF_8);
+        JsonObject dokument = new JsonObject();
+        dokument.addProperty("titel", xml.title().orElseThrow());
+        dokument.addProperty("beteckning", xml.id().orElseThrow());
+        dokument.addProperty("text", readUtf8(xml.openTextStream()).orElseThrow());
+        dokument.addProperty("html", readUtf8(xml.openHtmlStream()).orElseThrow());
+        JsonObject dokumentstatus = new JsonObject();
+        dokumentstatus.add("dokument", dokument);
+        JsonObject root = new JsonObject();
+        root.add("dokumentstatus", dokumentstatus);
+
+        DocumentSources json = DocumentSources.from(new Gson().toJson(root).getBytes(StandardCharsets.UTF_8), "sfs-2018-585.json", StandardCharsets.UTF_8);
+
+        assertEquals(xml.textDigest(), json.textDigest());
+        assertEquals(xml.htmlDigest(), json.htmlDigest());
+        assertEquals(xml.title(), json.title());
+        assertEquals(xml.id(), json.id());
+    }
+
+    @Test
+    public void rejectsTruncatedJson() {
+        String json = "{\"dokumentstatus\": {\"dokument\": {\"text\": \"1 \u00A7 Text\"}}";
+        assertThrows(Exception.class,
+                () -> DocumentSources.from(json.getBytes(StandardCharsets.UTF_8), "trunkerad.json", StandardCharsets.UTF_8));
+    }
+
     @Test
     public void fallsBackToHtmlForRawHtmlInput() throws Exception {
         Path file = Files.createTempFile("docsrc-", ".html");
@@ -74,6 +197,52 @@ public class DocumentSourcesTest {
         assertEquals(rawHtml, html.get());
     }
 
+    @Test
+    public void infersMetadataFromTheHeaderOfRawHtml() throws Exception {
+        String rawHtml = "<style>\n.document div {}\n</style>\n\n<b>SFS nr</b>:\n2017:900<br />\n"
+                + "<p>x</p>\n".repeat(DocumentSources.METADATA_PREFIX_CHARS / 8)
+                + "Senare lag (1999:1)\n";
+
+        DocumentSources sources = DocumentSources.from(rawHtml.getBytes(StandardCharsets.UTF_8), "test.html", StandardCharsets.UTF_8);
+
+        assertEquals("2017:900", sources.id().orElse(null));
+        // The line past the searched prefix is not taken for a title
+        assertEquals("SFS 2017:900", sources.title().orElse(null));
+    }
+
+    @Test
+    public void singleUseSourcesHandOverEachPayloadOnce() throws Exception {
+        String xml = """
+                <dokumentstatus>
+                  <dokument>
+                    <titel>Testlag (2000:1)</titel>
+                    <beteckning>2000:1</beteckning>
+                    <text>1 kap. Rubrik\n1 § Text</text>
+                    <html><![CDATA[<html><body><h1>Rubrik</h1></body></html>]]></html>
+                  </dokument>
+                </dokumentstatus>
+                """;
+        DocumentSources sources = DocumentSources.from(xml.getBytes(StandardCharsets.UTF_8), "test.xml", StandardCharsets.UTF_8)
+                .singleUse();
+        String htmlDigest = sources.htmlDigest().orElseThrow();
+
+        assertTrue(readUtf8(sources.openHtmlStream()).orElseThrow().contains("<h1>Rubrik</h1>"));
+        assertTrue(sources.hasHtml());
+        assertEquals("<html><body><h1>Rubrik</h1></body></html>".length(), sources.htmlSize());
+        assertEquals(htmlDigest, sources.htmlDigest().orElseThrow());
+        try {
+            sources.openHtmlStream();
+            fail("Expected the HTML payload to be handed out only once");
+        } catch (IllegalStateException expected) {
+        }
+        assertTrue(readUtf8(sources.openTextStream()).orElseThrow().contains("1 § Text"));
+        try {
+            sources.textDigest();
+            fail("Expected no digest once the text payload was handed out");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
     private static Optional<String> readUtf8(Optional<InputStream> stream) throws Exception {
         if (stream.isEmpty()) {
             return Optional.empty();
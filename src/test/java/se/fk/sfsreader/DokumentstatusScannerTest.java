@@ -0,0 +1,105 @@
+package se.fk.sfsreader;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class DokumentstatusScannerTest {
+
+    private static final Set<String> WANTED = Set.of("text", "html", "titel");
+
+    @Test
+    public void locatesTheFirstOfEachWantedElementOfTheDocument() throws Exception {
+        ByteBuffer xml = utf8("""
+                <?xml version="1.0" encoding="UTF-8"?>
+                <!-- <dokument><text>kommentar</text></dokument> -->
+                <dokumentstatus>
+                  <dokument attr="a>b">
+                    <titel>Lag (2000:1)</titel>
+                    <text>Första</text>
+                    <text>Andra</text>
+                    <html/>
+                  </dokument>
+                  <dokuppgift><text>Inte lagtext</text></dokuppgift>
+                </dokumentstatus>
+                """);
+
+        Map<String, DokumentstatusScanner.Region> found = DokumentstatusScanner.scan(xml, WANTED).orElseThrow();
+
+        assertEquals("Lag (2000:1)", read(xml, found.get("titel")));
+        assertEquals("Första", read(xml, found.get("text")));
+        assertEquals("", read(xml, found.get("html")));
+    }
+
+    @Test
+    public void resolvesReferencesCdataAndLineEnds() throws Exception {
+        ByteBuffer xml = utf8("<dokumentstatus><dokument><html>&lt;p&gt;a &amp; b&#246;&#x2013;\r\nc\rd<![CDATA[<b>&amp;</b>\r\n]]></html></dokument></dokumentstatus>");
+
+        DokumentstatusScanner.Region html = DokumentstatusScanner.scan(xml, WANTED).orElseThrow().get("html");
+
+        assertEquals("<p>a & bö–\nc\nd<b>&amp;</b>\n", read(xml, html));
+    }
+
+    @Test
+    public void givesUpOnWhatItDoesNotHandle() {
+        assertEquals(Optional.empty(), scan("<!DOCTYPE dokumentstatus><dokumentstatus><dokument/></dokumentstatus>"));
+        assertEquals(Optional.empty(), scan("<dokumentstatuslista><dokument/></dokumentstatuslista>"));
+        assertEquals(Optional.empty(), scan("<dokumentstatus><dokument><text>a<b>c</b></text></dokument></dokumentstatus>"));
+        assertEquals(Optional.empty(), scan("<dokumentstatus><dokument><text>a<!-- b --></text></dokument></dokumentstatus>"));
+        assertEquals(Optional.empty(), scan("<dokumentstatus><dokument><text>a</html></dokument></dokumentstatus>"));
+        assertEquals(Optional.empty(), scan("<dokumentstatus><dokument><text>a</text>"));
+        assertFalse(DokumentstatusScanner.handles(StandardCharsets.UTF_16));
+        assertTrue(DokumentstatusScanner.handles(StandardCharsets.ISO_8859_1));
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void rejectsUndeclaredEntities() throws Exception {
+        ByteBuffer xml = utf8("<dokumentstatus><dokument><text>&nbsp;</text></dokument></dokumentstatus>");
+        read(xml, DokumentstatusScanner.scan(xml, WANTED).orElseThrow().get("text"));
+    }
+
+    @Test
+    public void scannedSourcesMatchTheXmlParser() throws Exception {
+        try (Stream<Path> files = Files.list(Path.of("data"))) {
+            for (Path file : files.filter(f -> f.toString().endsWith(".xml")).sorted().toList()) {
+                ByteBuffer mapped = FileIO.read(file);
+                // A leading comment inside <text> makes the scanner give up, so this goes through StAX
+                String xml = Files.readString(file).replaceFirst("<text>", "<text><!---->");
+                DocumentSources scanned = DocumentSources.from(mapped, file.toString(), StandardCharsets.UTF_8);
+                DocumentSources parsed = DocumentSources.from(xml.getBytes(StandardCharsets.UTF_8), file.toString(), StandardCharsets.UTF_8);
+
+                assertEquals(file.toString(), parsed.textDigest(), scanned.textDigest());
+                assertEquals(file.toString(), parsed.htmlDigest(), scanned.htmlDigest());
+                assertEquals(file.toString(), parsed.textSize(), scanned.textSize());
+                assertEquals(file.toString(), parsed.htmlSize(), scanned.htmlSize());
+                assertEquals(file.toString(), parsed.title(), scanned.title());
+                assertEquals(file.toString(), parsed.id(), scanned.id());
+                assertEquals(file.toString(), parsed.systemdatum(), scanned.systemdatum());
+            }
+        }
+    }
+
+    private static Optional<Map<String, DokumentstatusScanner.Region>> scan(String xml) {
+        return DokumentstatusScanner.scan(utf8(xml), WANTED);
+    }
+
+    private static ByteBuffer utf8(String xml) {
+        return ByteBuffer.wrap(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(ByteBuffer xml, DokumentstatusScanner.Region region) throws Exception {
+        try (InputStream in = DokumentstatusScanner.content(xml, region, StandardCharsets.UTF_8)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package se.fk.sfsreader;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class HeapBudgetTest {
+
+    private static final long MB = 1024L * 1024L;
+
+    @Test
+    public void reservationWaitsUntilItFits() throws Exception {
+        HeapBudget budget = new HeapBudget(100 * MB);
+        HeapBudget.Reservation first = budget.reserve("first", 60 * MB);
+        CountDownLatch reserved = new CountDownLatch(1);
+        AtomicLong heldBySecond = new AtomicLong();
+
+        Thread second = new Thread(() -> {
+            try {
+                HeapBudget.Reservation reservation = budget.reserve("second", 60 * MB);
+                heldBySecond.set(budget.reservedBytes());
+                reserved.countDown();
+                reservation.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        second.start();
+
+        assertFalse("Second reservation must wait", reserved.await(200, TimeUnit.MILLISECONDS));
+        first.close();
+        assertTrue(reserved.await(5, TimeUnit.SECONDS));
+        second.join();
+        assertEquals(60 * MB, heldBySecond.get());
+        assertEquals(0L, budget.reservedBytes());
+    }
+
+    @Test
+    public void oversizedReservationRunsAlone() throws Exception {
+        HeapBudget budget = new HeapBudget(10 * MB);
+        assertFalse(budget.fits(11 * MB));
+        HeapBudget.Reservation reservation = budget.reserve("large", 50 * MB);
+        assertEquals(10 * MB, budget.reservedBytes());
+        reservation.close();
+        assertEquals(0L, budget.reservedBytes());
+    }
+
+    @Test
+    public void unlimitedBudgetNeverWaits() throws Exception {
+        HeapBudget budget = HeapBudget.global();
+        assertFalse(budget.isLimited());
+        HeapBudget.Reservation a = budget.reserve("a", Long.MAX_VALUE / 2);
+        HeapBudget.Reservation b = budget.reserve("b", Long.MAX_VALUE / 2);
+        assertEquals(0L, budget.reservedBytes());
+        b.close();
+        a.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveBudget() {
+        new HeapBudget(0);
+    }
+}
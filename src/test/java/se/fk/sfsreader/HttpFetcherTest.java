@@ -0,0 +1,188 @@
+package se.fk.sfsreader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class HttpFetcherTest {
+
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Wed, 01 Jan 2025 00:00:00 GMT";
+    private static final byte[] BODY = "<dokumentstatus><dokument><text>1 § Text</text></dokument></dokumentstatus>"
+            .getBytes(StandardCharsets.UTF_8);
+
+    /** One line per request: the client's port and the validators it sent */
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final List<Integer> clientPorts = new CopyOnWriteArrayList<>();
+    private HttpServer server;
+    private Path directory;
+
+    @Before
+    public void startServer() throws Exception {
+        directory = Files.createTempDirectory("fetch-");
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/etag", exchange -> respond(exchange, ETAG, null));
+        server.createContext("/date", exchange -> respond(exchange, null, LAST_MODIFIED));
+        server.createContext("/plain", exchange -> respond(exchange, null, null));
+        server.createContext("/missing", exchange -> {
+            requests.add(exchange.getRequestURI().getPath());
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void skipsTransferWhenEtagMatches() throws Exception {
+        Path target = directory.resolve("sfs-2000-1.txt.xml");
+        try (HttpFetcher fetcher = new HttpFetcher(directory.resolve("cache"), 2)) {
+            HttpFetcher.Result first = fetcher.fetch(uri("/etag"), target);
+            long modified = Files.getLastModifiedTime(target).toMillis();
+            HttpFetcher.Result second = fetcher.fetch(uri("/etag"), target);
+
+            assertTrue(first.modified());
+            assertEquals(BODY.length, first.bytes());
+            assertEquals(FileIO.sha256(BODY), first.sha256());
+            assertFalse(second.modified());
+            assertEquals(HttpFetcher.Status.NOT_MODIFIED, second.status());
+            assertEquals(first.sha256(), second.sha256());
+            assertEquals(modified, Files.getLastModifiedTime(target).toMillis());
+            assertArrayEquals(BODY, Files.readAllBytes(target));
+        }
+        assertEquals(List.of("/etag -", "/etag If-None-Match=\"v1\""), requests);
+    }
+
+    @Test
+    public void sendsLastModifiedBack() throws Exception {
+        Path target = directory.resolve("sfs-2000-1.txt.xml");
+        try (HttpFetcher fetcher = new HttpFetcher(directory.resolve("cache"), 2)) {
+            fetcher.fetch(uri("/date"), target);
+            assertFalse(fetcher.fetch(uri("/date"), target).modified());
+        }
+        assertEquals(List.of("/date -", "/date If-Modified-Since=" + LAST_MODIFIED), requests);
+    }
+
+    @Test
+    public void remembersValidatorsAcrossFetchers() throws Exception {
+        Path cache = directory.resolve("cache");
+        Path target = directory.resolve("sfs-2000-1.txt.xml");
+        try (HttpFetcher fetcher = new HttpFetcher(cache, 1)) {
+            fetcher.fetch(uri("/etag"), target);
+        }
+        try (HttpFetcher fetcher = new HttpFetcher(cache, 1)) {
+            assertFalse(fetcher.fetch(uri("/etag"), target).modified());
+        }
+    }
+
+    @Test
+    public void fetchesWholeWhenTargetChanged() throws Exception {
+        Path target = directory.resolve("sfs-2000-1.txt.xml");
+        try (HttpFetcher fetcher = new HttpFetcher(directory.resolve("cache"), 2)) {
+            fetcher.fetch(uri("/etag"), target);
+            Files.writeString(target, "redigerad");
+            assertTrue(fetcher.fetch(uri("/etag"), target).modified());
+            Files.delete(target);
+            assertTrue(fetcher.fetch(uri("/etag"), target).modified());
+            assertArrayEquals(BODY, Files.readAllBytes(target));
+        }
+        assertEquals(List.of("/etag -", "/etag -", "/etag -"), requests);
+    }
+
+    @Test
+    public void fetchesWholeWithoutValidatorsOrCache() throws Exception {
+        Path target = directory.resolve("sfs-2000-1.txt.xml");
+        try (HttpFetcher fetcher = new HttpFetcher(directory.resolve("cache"), 2)) {
+            fetcher.fetch(uri("/plain"), target);
+            assertTrue(fetcher.fetch(uri("/plain"), target).modified());
+        }
+        try (HttpFetcher fetcher = new HttpFetcher(null, 2)) {
+            fetcher.fetch(uri("/etag"), target);
+            assertTrue(fetcher.fetch(uri("/etag"), target).modified());
+        }
+        assertEquals(List.of("/plain -", "/plain -", "/etag -", "/etag -"), requests);
+    }
+
+    @Test
+    public void failsOnErrorStatusWithoutTouchingTarget() throws Exception {
+        Path target = directory.resolve("sfs-2000-1.txt.xml");
+        Files.writeString(target, "tidigare");
+        try (HttpFetcher fetcher = new HttpFetcher(directory.resolve("cache"), 2)) {
+            fetcher.fetch(uri("/missing"), target);
+            fail("Expected 404 to fail");
+        } catch (HttpFetcher.StatusException expected) {
+            assertEquals(404, expected.status());
+        }
+        assertEquals("tidigare", Files.readString(target));
+        try (var files = Files.list(directory)) {
+            assertEquals(List.of(target), files.filter(Files::isRegularFile).toList());
+        }
+    }
+
+    @Test
+    public void reusesConnections() throws Exception {
+        try (HttpFetcher fetcher = new HttpFetcher(null, 1)) {
+            for (int i = 0; i < 3; i++) {
+                fetcher.fetch(uri("/plain"), directory.resolve("sfs-2000-" + i + ".txt.xml"));
+            }
+        }
+        assertEquals(3, clientPorts.size());
+        assertEquals(1, clientPorts.stream().distinct().count());
+    }
+
+    @Test
+    public void downloadsThroughSharedPool() throws Exception {
+        Path target = directory.resolve("sfs-2000-1.txt.xml");
+
+        assertTrue(FileIO.download(uri("/plain"), target.toFile()));
+        assertArrayEquals(BODY, Files.readAllBytes(target));
+        assertFalse(FileIO.download(uri("/missing"), directory.resolve("missing.xml").toFile()));
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private void respond(HttpExchange exchange, String etag, String lastModified) throws IOException {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        String path = exchange.getRequestURI().getPath();
+        requests.add(path + (ifNoneMatch != null ? " If-None-Match=" + ifNoneMatch
+                : ifModifiedSince != null ? " If-Modified-Since=" + ifModifiedSince : " -"));
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+
+        if (etag != null) {
+            exchange.getResponseHeaders().add("ETag", etag);
+        }
+        if (lastModified != null) {
+            exchange.getResponseHeaders().add("Last-Modified", lastModified);
+        }
+        if ((etag != null && etag.equals(ifNoneMatch)) || (lastModified != null && lastModified.equals(ifModifiedSince))) {
+            exchange.sendResponseHeaders(304, -1);
+        } else {
+            exchange.sendResponseHeaders(200, BODY.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(BODY);
+            }
+        }
+        exchange.close();
+    }
+}
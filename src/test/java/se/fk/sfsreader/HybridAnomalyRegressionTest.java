@@ -70,6 +70,36 @@ public class HybridAnomalyRegressionTest {
         //assertEquals(HybridReconciler.Category.STRUCTURAL, k5p9.category());
     }
 
+    @Test
+    public void transitionProvisionsAreNotReconciledParagraphByParagraph() throws Exception {
+        Path fixture = Path.of("data/sfs-2017-900.txt.xml");
+        assumeTrue("Fixture missing: " + fixture, Files.exists(fixture));
+
+        DocumentSources sources = DocumentSources.from(fixture, StandardCharsets.UTF_8);
+        Lag htmlLag;
+        Lag textLag;
+        try (InputStream htmlStream = sources.openHtmlStream().orElseThrow()) {
+            Document doc = Jsoup.parse(htmlStream, StandardCharsets.UTF_8.name(), "http://nope.local");
+            htmlLag = new HtmlProcessor(sources.title().orElse("Förvaltningslag"), sources.id().orElse("2017:900"))
+                    .process(doc).orElseThrow();
+        }
+        try (InputStream textStream = sources.openTextStream().orElseThrow();
+             Reader reader = new InputStreamReader(textStream, StandardCharsets.UTF_8)) {
+            textLag = new TextProcessor().process(reader).orElseThrow();
+        }
+
+        HybridReconciler.Result result = new HybridReconciler().reconcile(htmlLag, textLag);
+
+        // HTML keys Övergångsbestämmelser by amendment, text by point; comparing them paragraph by
+        // paragraph made up findings like paragraph_missing_text:KÖ1 P2017:900
+        Set<String> transitionHigh = result.findings().stream()
+                .filter(f -> f.severity() == HybridReconciler.Severity.HIGH)
+                .map(HybridReconciler.Finding::key)
+                .filter(key -> key.contains(":KÖ"))
+                .collect(Collectors.toSet());
+        assertEquals(Set.of(), transitionHigh);
+    }
+
     @Test
     public void fixtureCapturesTemporalVariantPairsForSameParagraph() throws Exception {
         Path fixture = Path.of("data/sfs-2010-110.txt.xml");
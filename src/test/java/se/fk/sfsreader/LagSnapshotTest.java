@@ -0,0 +1,58 @@
+package se.fk.sfsreader;
+
+import org.junit.Test;
+import se.fk.sfsreader.model.Avdelning;
+import se.fk.sfsreader.model.Kapitel;
+import se.fk.sfsreader.model.Lag;
+import se.fk.sfsreader.model.Paragraf;
+import se.fk.sfsreader.model.Stycke;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class LagSnapshotTest {
+
+    @Test
+    public void restoredCopiesAreFilteredIndependently() throws Exception {
+        Lag lag = new Lag("Testlag", "2000:1");
+        Avdelning avdelning = new Avdelning("A", "TEST");
+        lag.add(avdelning);
+        Kapitel kapitel = new Kapitel("12", "Rubrik");
+        avdelning.addKapitel(kapitel);
+        kapitel.addParagraf(paragraf("13", "Old text", "Upphör att gälla U:2028-07-01"));
+        kapitel.addParagraf(paragraf("13", "New text", "Träder i kraft I:2028-07-01"));
+
+        LagSnapshot snapshot = LagSnapshot.of(lag);
+        Lag before = snapshot.restore();
+        Lag after = snapshot.restore();
+        assertNotSame(before, after);
+
+        EffectiveDateFilter.apply(before, LocalDate.parse("2028-06-30"));
+        EffectiveDateFilter.apply(after, LocalDate.parse("2028-07-01"));
+
+        assertEquals(List.of("Upphör att gälla U:2028-07-01"), periodiseringar(before));
+        assertEquals(List.of("Träder i kraft I:2028-07-01"), periodiseringar(after));
+        assertEquals(2, periodiseringar(lag).size());
+        assertEquals(2, periodiseringar(snapshot.restore()).size());
+    }
+
+    private static List<String> periodiseringar(Lag lag) {
+        return lag.get().stream()
+                .flatMap(a -> a.get().stream())
+                .flatMap(k -> k.get().stream())
+                .map(p -> p.getPeriodisering().orElse(""))
+                .toList();
+    }
+
+    private static Paragraf paragraf(String nummer, String text, String periodisering) {
+        Paragraf p = new Paragraf(nummer);
+        p.setPeriodisering(periodisering);
+        Stycke s = new Stycke();
+        s.add(text);
+        p.add(s);
+        return p;
+    }
+}
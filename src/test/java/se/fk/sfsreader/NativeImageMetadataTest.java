@@ -0,0 +1,125 @@
+package se.fk.sfsreader;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * The native-image metadata names classes as strings, so it is not caught by the
+ * compiler when a class is renamed or moved.
+ */
+public class NativeImageMetadataTest {
+    private static final String METADATA = "/META-INF/native-image/se.fk/sfsreader/";
+
+    @Test
+    public void reflectionMetadataNamesExistingClasses() throws Exception {
+        JsonArray entries = read("reflect-config.json").getAsJsonArray();
+        assertFalse(entries.isEmpty());
+        for (JsonElement entry : entries) {
+            Class.forName(entry.getAsJsonObject().get("name").getAsString());
+        }
+    }
+
+    @Test
+    public void serializationMetadataNamesExistingSerializableClasses() throws Exception {
+        JsonArray types = read("serialization-config.json").getAsJsonObject().getAsJsonArray("types");
+        assertFalse(types.isEmpty());
+        for (JsonElement type : types) {
+            Class<?> clazz = Class.forName(type.getAsJsonObject().get("name").getAsString());
+            assertTrue(clazz.getName(), Serializable.class.isAssignableFrom(clazz));
+        }
+    }
+
+    /**
+     * Every class of ours that is written with Java serialization must be registered, or
+     * {@code ObjectOutputStream} fails in a native image. Enums and exceptions are Serializable
+     * through java.lang alone, so they need to be registered only where a registered class holds
+     * them in a field.
+     */
+    @Test
+    public void serializationMetadataListsEverySerializableClass() throws Exception {
+        Set<String> registered = new TreeSet<>();
+        for (JsonElement type : read("serialization-config.json").getAsJsonObject().getAsJsonArray("types")) {
+            registered.add(type.getAsJsonObject().get("name").getAsString());
+        }
+
+        Set<String> missing = new TreeSet<>();
+        for (Class<?> clazz : classesOf("se.fk.sfsreader")) {
+            if (Serializable.class.isAssignableFrom(clazz) && !clazz.isInterface() && !clazz.isEnum()
+                    && !Throwable.class.isAssignableFrom(clazz) && !registered.contains(clazz.getName())) {
+                missing.add(clazz.getName());
+            }
+        }
+        for (String name : registered) {
+            for (Field field : Class.forName(name).getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) {
+                    continue;
+                }
+                for (Class<?> held : typesOf(field.getGenericType())) {
+                    if (held.getName().startsWith("se.fk.sfsreader.") && !registered.contains(held.getName())) {
+                        missing.add(held.getName() + " (in " + name + "." + field.getName() + ")");
+                    }
+                }
+            }
+        }
+        assertEquals("Not in serialization-config.json", Set.of(), missing);
+    }
+
+    /**
+     * The classes below {@code packageName}, from the directory the main classes were compiled into.
+     */
+    private static List<Class<?>> classesOf(String packageName) throws Exception {
+        Path root = Path.of(HybridReconciler.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        Path directory = root.resolve(packageName.replace('.', '/'));
+        assertTrue("Not a class directory: " + root, Files.isDirectory(directory));
+        List<Class<?>> classes = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.filter(f -> f.toString().endsWith(".class")).toList()) {
+                String relative = root.relativize(file).toString();
+                String name = relative.substring(0, relative.length() - ".class".length()).replace(File.separatorChar, '.');
+                classes.add(Class.forName(name, false, NativeImageMetadataTest.class.getClassLoader()));
+            }
+        }
+        return classes;
+    }
+
+    private static List<Class<?>> typesOf(Type type) {
+        List<Class<?>> types = new ArrayList<>();
+        if (type instanceof Class<?> clazz) {
+            types.add(clazz.isArray() ? clazz.getComponentType() : clazz);
+        } else if (type instanceof ParameterizedType parameterized) {
+            types.addAll(typesOf(parameterized.getRawType()));
+            for (Type argument : parameterized.getActualTypeArguments()) {
+                types.addAll(typesOf(argument));
+            }
+        }
+        return types;
+    }
+
+    private static JsonElement read(String name) throws Exception {
+        try (InputStream is = NativeImageMetadataTest.class.getResourceAsStream(METADATA + name)) {
+            assertNotNull("Missing " + name, is);
+            return JsonParser.parseReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        }
+    }
+}
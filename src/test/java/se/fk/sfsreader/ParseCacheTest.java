@@ -0,0 +1,174 @@
+package se.fk.sfsreader;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+import se.fk.sfsreader.model.Avdelning;
+import se.fk.sfsreader.model.Kapitel;
+import se.fk.sfsreader.model.Lag;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ParseCacheTest {
+
+    private static final String XML = """
+            <dokumentstatus>
+              <dokument>
+                <titel>Testlag (2000:1)</titel>
+                <beteckning>2000:1</beteckning>
+                <text>AVD. A TEST
+            1 kap. Rubrik
+            1 § Text
+            Övergångsbestämmelser
+            1. Denna lag träder i kraft den 1 juli 2000.</text>
+                <html></html>
+              </dokument>
+            </dokumentstatus>
+            """;
+
+    private final Gson gson = new Gson();
+
+    @Test
+    public void restoresParsedStructureIncludingAvdelningar() throws Exception {
+        Path dir = Files.createTempDirectory("parse-cache-");
+        ParseCache cache = new ParseCache(dir.resolve("cache"), Long.MAX_VALUE);
+        Path input = write(dir, "sfs-2000-1.txt.xml", XML);
+
+        Lag parsed = parse(input);
+        String key = cache.key(input, SourceMode.TEXT);
+        cache.put(key, new ParseCache.Entry(null, parsed, null));
+
+        Optional<ParseCache.Entry> hit = cache.get(key);
+        assertTrue(hit.isPresent());
+        assertNull(hit.get().html());
+        Lag restored = hit.get().text();
+
+        assertEquals(gson.toJson(parsed), gson.toJson(restored));
+        assertEquals(List.of("1", "Ö1"), chapterIds(restored));
+
+        // Avdelningar still share the chapters of the Lag, so pruning etc. works as after a parse
+        Avdelning avdelning = restored.get().iterator().next();
+        assertEquals(Optional.of("A"), avdelning.id());
+        restored.prune();
+        restored.prepareForSerialization();
+    }
+
+    @Test
+    public void keyDependsOnContentAndSourceMode() throws Exception {
+        Path dir = Files.createTempDirectory("parse-cache-");
+        ParseCache cache = new ParseCache(dir.resolve("cache"), Long.MAX_VALUE);
+        Path a = write(dir, "a.txt.xml", XML);
+        Path b = write(dir, "b.txt.xml", XML);
+        Path c = write(dir, "c.txt.xml", XML.replace("1 § Text", "1 § Annan text"));
+
+        assertEquals(cache.key(a, SourceMode.TEXT), cache.key(b, SourceMode.TEXT));
+        assertNotEquals(cache.key(a, SourceMode.TEXT), cache.key(a, SourceMode.HYBRID));
+        assertNotEquals(cache.key(a, SourceMode.TEXT), cache.key(c, SourceMode.TEXT));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntries() throws Exception {
+        Path dir = Files.createTempDirectory("parse-cache-");
+        Path input = write(dir, "sfs-2000-1.txt.xml", XML);
+        ParseCache.Entry entry = new ParseCache.Entry(null, parse(input), null);
+
+        ParseCache unbounded = new ParseCache(dir.resolve("cache"), Long.MAX_VALUE);
+        unbounded.put("first", entry);
+        long entrySize = Files.size(dir.resolve("cache").resolve("first" + ParseCache.SUFFIX));
+        unbounded.put("second", entry);
+        age(dir.resolve("cache"), "first", 20_000);
+        age(dir.resolve("cache"), "second", 10_000);
+
+        // Reading "first" makes it the most recently used
+        assertTrue(unbounded.get("first").isPresent());
+
+        ParseCache bounded = new ParseCache(dir.resolve("cache"), 2 * entrySize);
+        bounded.put("third", entry);
+
+        assertTrue(bounded.get("first").isPresent());
+        assertTrue(bounded.get("second").isEmpty());
+        assertTrue(bounded.get("third").isPresent());
+    }
+
+    @Test
+    public void invalidatesEntriesAndDiscardsUnreadableOnes() throws Exception {
+        Path dir = Files.createTempDirectory("parse-cache-");
+        ParseCache cache = new ParseCache(dir.resolve("cache"), Long.MAX_VALUE);
+        Path input = write(dir, "sfs-2000-1.txt.xml", XML);
+        ParseCache.Entry entry = new ParseCache.Entry(null, parse(input), null);
+
+        byte[] content = Files.readAllBytes(input);
+        cache.put(cache.key(input, SourceMode.TEXT), entry);
+        cache.put(cache.key(input, SourceMode.HYBRID), entry);
+        cache.put(cache.key(content, SourceMode.CHAPTERWISE, Set.of("K1")), entry);
+        cache.put(cache.key(content, SourceMode.CHAPTERWISE, Set.of("K1", "K2")), entry);
+        assertEquals(4, cache.invalidate(List.of(input)));
+        assertTrue(cache.get(cache.key(input, SourceMode.TEXT)).isEmpty());
+        assertTrue(cache.get(cache.key(content, SourceMode.CHAPTERWISE, Set.of("K1"))).isEmpty());
+
+        Path corrupt = dir.resolve("cache").resolve("corrupt" + ParseCache.SUFFIX);
+        Files.writeString(corrupt, "not a cache entry", StandardCharsets.UTF_8);
+        assertTrue(cache.get("corrupt").isEmpty());
+        assertFalse(Files.exists(corrupt));
+
+        cache.put("other", entry);
+        assertEquals(1, cache.clear());
+    }
+
+    @Test
+    public void invalidatesEntriesOfGzippedInputs() throws Exception {
+        Path dir = Files.createTempDirectory("parse-cache-");
+        ParseCache cache = new ParseCache(dir.resolve("cache"), Long.MAX_VALUE);
+        Path input = dir.resolve("sfs-2000-1.txt.xml.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(input))) {
+            out.write(XML.getBytes(StandardCharsets.UTF_8));
+        }
+        ParseCache.Entry entry = new ParseCache.Entry(null, parse(input), null);
+
+        // Keyed as SfsReader does, on the content read for parsing
+        String key = cache.key(FileIO.read(input), SourceMode.TEXT, Set.of());
+        cache.put(key, entry);
+
+        assertEquals(key, cache.key(input, SourceMode.TEXT));
+        assertEquals(1, cache.invalidate(List.of(input)));
+        assertTrue(cache.get(key).isEmpty());
+    }
+
+    private static Lag parse(Path input) throws Exception {
+        DocumentSources sources = DocumentSources.from(input, StandardCharsets.UTF_8);
+        PayloadParser.Result result = PayloadParser.parse(sources, false, true,
+                new HtmlProcessor("Testlag", "2000:1"), new TextProcessor("Testlag", "2000:1"), new StageMetrics());
+        return result.text().orElseThrow();
+    }
+
+    private static Path write(Path dir, String name, String content) throws Exception {
+        Path file = dir.resolve(name);
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static void age(Path cacheDir, String key, long millis) throws Exception {
+        Files.setLastModifiedTime(cacheDir.resolve(key + ParseCache.SUFFIX),
+                FileTime.fromMillis(System.currentTimeMillis() - millis));
+    }
+
+    private static List<String> chapterIds(Lag lag) {
+        List<String> ids = new ArrayList<>();
+        for (Avdelning avdelning : lag.get()) {
+            for (Kapitel kapitel : avdelning.get()) {
+                ids.add(kapitel.id());
+            }
+        }
+        return ids;
+    }
+}
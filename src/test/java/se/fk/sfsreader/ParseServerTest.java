@@ -0,0 +1,120 @@
+package se.fk.sfsreader;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class ParseServerTest {
+
+    private ParseServer server;
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @Before
+    public void startServer() throws Exception {
+        server = new ParseServer(0, 2);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void processesPostedDokumentstatusAndReturnsAllReports() throws Exception {
+        Path fixture = Path.of("data/sfs-2018-585.txt.xml");
+        assumeTrue("Fixture missing: " + fixture, Files.exists(fixture));
+
+        HttpResponse<String> response = post("/process?effective-date=2028-07-01", fixture);
+
+        assertEquals(200, response.statusCode());
+        JsonObject json = JsonParser.parseString(response.body()).getAsJsonObject();
+        assertTrue(json.getAsJsonObject("output").has("namn"));
+        assertTrue(json.has("reconciliation"));
+        assertTrue(json.has("reconciliationReport"));
+        assertTrue(json.get("reconciliationNewHigh").getAsString().startsWith("New HIGH severity reconciliation findings: "));
+        assertEquals("2028-07-01", json.getAsJsonObject("effectiveDateReport").get("effectiveDate").getAsString());
+        assertEquals("2028-07-01", json.getAsJsonObject("periodiseringSchedule").get("referenceDate").getAsString());
+        assertTrue(json.has("periodiseringValidation"));
+        assertTrue(json.getAsJsonObject("stageMetrics").getAsJsonArray("stages").size() > 0);
+    }
+
+    @Test
+    public void rejectsUnknownOptions() throws Exception {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder()
+                        .uri(URI.create("http://localhost:" + server.port() + "/process?source-mode=pdf"))
+                        .POST(HttpRequest.BodyPublishers.ofString("<html></html>"))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(400, response.statusCode());
+        assertTrue(response.body().contains("--source-mode"));
+    }
+
+    @Test
+    public void reportsUnparseableDocumentAsFailure() throws Exception {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder()
+                        .uri(URI.create("http://localhost:" + server.port() + "/process?source-mode=text"))
+                        .POST(HttpRequest.BodyPublishers.ofString("<html><body>no text payload</body></html>"))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(422, response.statusCode());
+        JsonObject json = JsonParser.parseString(response.body()).getAsJsonObject();
+        assertEquals(3, json.get("exitCode").getAsInt());
+        assertTrue(json.getAsJsonObject("stageMetrics").has("stages"));
+    }
+
+    @Test
+    public void turnsRequestsAwayWhileAllWorkersAreBusyButStillAnswersHealth() throws Exception {
+        server.inFlight.acquire(2);
+        try {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder()
+                            .uri(URI.create("http://localhost:" + server.port() + "/process"))
+                            .POST(HttpRequest.BodyPublishers.ofString("<html></html>"))
+                            .build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(503, response.statusCode());
+            assertTrue(response.headers().firstValue("Retry-After").isPresent());
+
+            HttpResponse<String> health = client.send(HttpRequest.newBuilder()
+                            .uri(URI.create("http://localhost:" + server.port() + "/health"))
+                            .GET()
+                            .build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, health.statusCode());
+        } finally {
+            server.inFlight.release(2);
+        }
+        assertEquals(2, server.inFlight.availablePermits());
+    }
+
+    @Test
+    public void decodesQueryParameters() {
+        Map<String, String> parameters = ParseServer.queryParameters("source-mode=text&effective-date=2028-07-01&x=a%20b");
+        assertEquals("text", parameters.get("source-mode"));
+        assertEquals("2028-07-01", parameters.get("effective-date"));
+        assertEquals("a b", parameters.get("x"));
+    }
+
+    private HttpResponse<String> post(String path, Path body) throws Exception {
+        return client.send(HttpRequest.newBuilder()
+                        .uri(URI.create("http://localhost:" + server.port() + path))
+                        .POST(HttpRequest.BodyPublishers.ofFile(body))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+}
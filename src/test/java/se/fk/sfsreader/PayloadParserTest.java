@@ -0,0 +1,109 @@
+package se.fk.sfsreader;
+
+import org.junit.Test;
+import se.fk.sfsreader.model.Kapitel;
+import se.fk.sfsreader.model.Lag;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class PayloadParserTest {
+
+    private static final String XML = """
+            <dokumentstatus>
+              <dokument>
+                <titel>Testlag (2000:1)</titel>
+                <beteckning>2000:1</beteckning>
+                <text>AVD. A TEST
+            1 kap. Rubrik
+            1 § Text
+            Övergångsbestämmelser
+            1. Denna lag träder i kraft den 1 juli 2000.</text>
+                <html><![CDATA[<div><h2>AVD. A TEST</h2>
+            <h3 name="K1"><a name="K1">1 kap. Rubrik</a></h3>
+            <a class="paragraf" name="K1P1"><b>1 §</b></a> Text
+            <h3 name="overgang"><a name="overgang">Övergångsbestämmelser</a></h3>
+            1. Denna lag träder i kraft den 1 juli 2000.</div>]]></html>
+              </dokument>
+            </dokumentstatus>
+            """;
+
+    @Test
+    public void parsesBothPayloadsWithIndependentOvergangNumbering() throws Exception {
+        DocumentSources sources = sources();
+
+        for (int run = 0; run < 2; run++) {
+            PayloadParser.Result result = PayloadParser.parse(sources, true, true,
+                    new HtmlProcessor("Testlag", "2000:1"), new TextProcessor("Testlag", "2000:1"), new StageMetrics());
+
+            assertTrue(result.html().isPresent());
+            assertTrue(result.text().isPresent());
+            assertEquals(List.of("1", "Ö1"), chapterIds(result.html().get()));
+            assertEquals(List.of("1", "Ö1"), chapterIds(result.text().get()));
+        }
+    }
+
+    @Test
+    public void skipsPayloadsThatAreNotRequested() throws Exception {
+        PayloadParser.Result result = PayloadParser.parse(sources(), false, true,
+                new HtmlProcessor("Testlag", "2000:1"), new TextProcessor("Testlag", "2000:1"), new StageMetrics());
+
+        assertTrue(result.html().isEmpty());
+        assertTrue(result.text().isPresent());
+    }
+
+    @Test
+    public void parsesOneAtATimeWhenBothExceedTheHeapBudget() throws Exception {
+        HeapBudget unlimited = HeapBudget.global();
+        HeapBudget.setGlobal(new HeapBudget(1));
+        try {
+            StageMetrics metrics = new StageMetrics();
+            PayloadParser.Result result = PayloadParser.parse(sources(), true, true,
+                    new HtmlProcessor("Testlag", "2000:1"), new TextProcessor("Testlag", "2000:1"), metrics);
+
+            assertTrue(result.html().isPresent());
+            assertTrue(result.text().isPresent());
+            assertTrue(metrics.report("", "hybrid").stages().stream()
+                    .allMatch(t -> t.thread().equals(Thread.currentThread().getName())));
+        } finally {
+            HeapBudget.setGlobal(unlimited);
+        }
+    }
+
+    @Test
+    public void propagatesFailureFromEitherParse() throws Exception {
+        TextProcessor failing = new TextProcessor("Testlag", "2000:1") {
+            @Override
+            public Optional<Lag> process(Reader reader) throws IOException {
+                throw new IOException("broken text payload");
+            }
+        };
+
+        try {
+            PayloadParser.parse(sources(), true, true, new HtmlProcessor("Testlag", "2000:1"), failing, new StageMetrics());
+            fail("Expected failure from text parse");
+        } catch (IOException expected) {
+            assertEquals("broken text payload", expected.getMessage());
+        }
+    }
+
+    private static DocumentSources sources() throws Exception {
+        Path file = Files.createTempFile("payload-", ".xml");
+        Files.writeString(file, XML, StandardCharsets.UTF_8);
+        return DocumentSources.from(file, StandardCharsets.UTF_8);
+    }
+
+    private static List<String> chapterIds(Lag lag) {
+        return lag.get().stream()
+                .flatMap(a -> a.get().stream())
+                .map(Kapitel::id)
+                .toList();
+    }
+}
@@ -8,6 +8,7 @@ import se.fk.sfsreader.model.Paragraf;
 import se.fk.sfsreader.model.Stycke;
 
 import java.time.LocalDate;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 
@@ -32,6 +33,10 @@ public class PeriodiseringScheduleTest {
         PeriodiseringSchedule.Report report2 = PeriodiseringSchedule.build(lag, LocalDate.parse("2028-07-02"));
         assertEquals("2030-01-01", report2.nextTransitionDate());
         assertEquals(1, report2.upcomingTransitions());
+
+        assertEquals(List.of(LocalDate.parse("2028-07-01"), LocalDate.parse("2030-01-01")),
+                PeriodiseringSchedule.upcomingDates(report));
+        assertEquals(List.of(LocalDate.parse("2030-01-01")), PeriodiseringSchedule.upcomingDates(report2));
     }
 
     private static Paragraf paragraph(String number, String body, String periodisering) {
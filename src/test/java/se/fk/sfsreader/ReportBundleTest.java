@@ -0,0 +1,158 @@
+package se.fk.sfsreader;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+public class ReportBundleTest {
+
+    @Test
+    public void manifestListsEntriesWithSizeAndChecksum() throws Exception {
+        Path dir = Files.createTempDirectory("bundle-");
+        Path target = dir.resolve(ReportBundle.FILE_NAME);
+
+        try (ReportBundle bundle = new ReportBundle(target)) {
+            bundle.add("reconciliation-report.txt", writer -> writer.write("Övergång\n"));
+            bundle.add("2028-07-01/output.json", writer -> {
+                for (int i = 0; i < 10_000; i++) {
+                    writer.write("{\"i\":" + i + "}\n");
+                }
+            });
+            assertFalse("Not published before the commit", Files.exists(target));
+            bundle.commit("sfs-2010-110.txt.xml", 0, null);
+        }
+
+        Map<String, byte[]> entries = read(target);
+        assertEquals(3, entries.size());
+        assertEquals("Övergång\n", new String(entries.get("reconciliation-report.txt"), StandardCharsets.UTF_8));
+
+        ReportBundle.Manifest manifest = new Gson().fromJson(
+                new String(entries.get(ReportBundle.MANIFEST), StandardCharsets.UTF_8), ReportBundle.Manifest.class);
+        assertEquals("sfs-2010-110.txt.xml", manifest.input());
+        assertEquals(0, manifest.exitCode());
+        assertNull(manifest.message());
+        assertEquals(2, manifest.entries().size());
+        for (ReportBundle.Entry entry : manifest.entries()) {
+            byte[] content = entries.get(entry.name());
+            assertEquals(entry.name(), content.length, entry.size());
+            assertEquals(entry.name(), FileIO.sha256(content), entry.sha256());
+        }
+        try (var files = Files.list(dir)) {
+            assertEquals("No temporary file left", 1, files.count());
+        }
+    }
+
+    @Test
+    public void recordsFailureInManifest() throws Exception {
+        Path target = Files.createTempDirectory("bundle-").resolve(ReportBundle.FILE_NAME);
+
+        try (ReportBundle bundle = new ReportBundle(target)) {
+            bundle.add("stage-metrics.json", writer -> writer.write("{}"));
+            bundle.commit("sfs-2000-1.txt.xml", 12, "Strict periodisering check failed");
+        }
+
+        ReportBundle.Manifest manifest = new Gson().fromJson(
+                new String(read(target).get(ReportBundle.MANIFEST), StandardCharsets.UTF_8), ReportBundle.Manifest.class);
+        assertEquals(12, manifest.exitCode());
+        assertEquals("Strict periodisering check failed", manifest.message());
+    }
+
+    @Test
+    public void uncommittedBundleIsDiscarded() throws Exception {
+        Path dir = Files.createTempDirectory("bundle-");
+        Path target = dir.resolve(ReportBundle.FILE_NAME);
+        Files.writeString(target, "earlier bundle", StandardCharsets.UTF_8);
+
+        try (ReportBundle bundle = new ReportBundle(target)) {
+            bundle.add("output.json", writer -> writer.write("{}"));
+            try {
+                bundle.add("broken.json", writer -> {
+                    writer.write("{");
+                    throw new IOException("disk full");
+                });
+                fail("Expected IOException");
+            } catch (IOException expected) {
+                // the run fails and the bundle is closed without a commit
+            }
+        }
+
+        assertEquals("earlier bundle", Files.readString(target, StandardCharsets.UTF_8));
+        try (var files = Files.list(dir)) {
+            assertEquals("No temporary file left", 1, files.count());
+        }
+    }
+
+    @Test
+    public void failedEntryAbortsTheBundle() throws Exception {
+        Path dir = Files.createTempDirectory("bundle-");
+        Path target = dir.resolve(ReportBundle.FILE_NAME);
+
+        try (ReportBundle bundle = new ReportBundle(target)) {
+            bundle.add("output.json", writer -> writer.write("{}"));
+            assertThrows(IllegalStateException.class, () -> bundle.add("broken.json", writer -> {
+                writer.write("{");
+                throw new IllegalStateException("no model");
+            }));
+            // A failed run still commits its bundle; one with a partial entry must not be published
+            IOException e = assertThrows(IOException.class, () -> bundle.commit("sfs-2000-1.txt.xml", 3, "no model"));
+            assertTrue(e.getMessage(), e.getMessage().contains("broken.json"));
+        }
+
+        assertFalse(Files.exists(target));
+        try (var files = Files.list(dir)) {
+            assertEquals("No temporary file left", 0, files.count());
+        }
+    }
+
+    @Test
+    public void reproducibleBundleIsIndependentOfEntryOrder() throws Exception {
+        Path dir = Files.createTempDirectory("bundle-");
+        Instant time = Instant.parse("2026-01-01T00:00:00Z");
+        Path first = dir.resolve("first.zip");
+        Path second = dir.resolve("second.zip");
+
+        try (ReportBundle bundle = new ReportBundle(first, time)) {
+            bundle.add("reconciliation.json", writer -> writer.write("{}"));
+            bundle.add("2028-07-01/output.json", writer -> writer.write("[1]"));
+            bundle.add("2026-01-01/output.json", writer -> writer.write("[2]"));
+            bundle.commit("sfs-2010-110.txt.xml", 0, null);
+        }
+        Thread.sleep(2_000); // beyond the two-second resolution of zip times
+        try (ReportBundle bundle = new ReportBundle(second, time)) {
+            bundle.add("2026-01-01/output.json", writer -> writer.write("[2]"));
+            bundle.add("2028-07-01/output.json", writer -> writer.write("[1]"));
+            bundle.add("reconciliation.json", writer -> writer.write("{}"));
+            bundle.commit("sfs-2010-110.txt.xml", 0, null);
+        }
+
+        assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+        assertEquals(List.of("2026-01-01/output.json", "2028-07-01/output.json", "reconciliation.json", ReportBundle.MANIFEST),
+                List.copyOf(read(first).keySet()));
+        try (var files = Files.list(dir)) {
+            assertEquals("No temporary file left", 2, files.count());
+        }
+    }
+
+    private static Map<String, byte[]> read(Path zip) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                entries.put(entry.getName(), in.readAllBytes());
+            }
+        }
+        return entries;
+    }
+}
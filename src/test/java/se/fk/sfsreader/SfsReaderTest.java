@@ -0,0 +1,128 @@
+package se.fk.sfsreader;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class SfsReaderTest {
+
+    private static final String XML = """
+            <dokumentstatus>
+              <dokument>
+                <titel>Testlag (2000:1)</titel>
+                <beteckning>2000:1</beteckning>
+                <text>AVD. A TEST
+            1 kap. Rubrik
+            1 § /Upphör att gälla U:2028-07-01/ Gammal lydelse
+            1 § /Träder i kraft I:2028-07-01/ Ny lydelse
+            2 § /Upphör att gälla U:den dag regeringen bestämmer/ Relativ markör</text>
+                <html></html>
+              </dokument>
+            </dokumentstatus>
+            """;
+
+    private static final SfsReader.Options TEXT = SfsReader.Options.defaults().withSourceMode(SourceMode.TEXT);
+
+    private final Gson gson = new Gson();
+
+    @Test
+    public void readsFilesAndBytesAlike() throws Exception {
+        Path input = Files.createTempDirectory("sfs-reader-").resolve("sfs-2000-1.txt.xml");
+        Files.writeString(input, XML, StandardCharsets.UTF_8);
+        SfsReader reader = new SfsReader(TEXT);
+
+        SfsReader.Result fromFile = reader.read(input, Optional.of(LocalDate.parse("2028-07-01")));
+        SfsReader.Result fromBytes = reader.read(XML.getBytes(StandardCharsets.UTF_8), Optional.of(LocalDate.parse("2028-07-01")));
+
+        assertEquals(gson.toJson(fromFile.lag()), gson.toJson(fromBytes.lag()));
+        assertEquals("sfs-2000-1.txt.xml", fromFile.name());
+        assertEquals(SfsReader.Status.OK, fromFile.status());
+        assertEquals("2028-07-01", fromFile.effectiveDateReport().orElseThrow().effectiveDate());
+        assertEquals(1, fromFile.periodiseringValidation().orElseThrow().unresolvedCount());
+        assertEquals("2028-07-01", fromFile.schedule().referenceDate());
+        assertTrue(fromFile.reconciliation().isEmpty());
+    }
+
+    @Test
+    public void scheduleWithoutEffectiveDateIsRelativeToClock() throws Exception {
+        Clock clock = Clock.fixed(Instant.parse("2027-01-01T00:00:00Z"), ZoneOffset.UTC);
+        SfsReader reader = new SfsReader(TEXT.withClock(clock));
+
+        SfsReader.Result result = reader.read(XML.getBytes(StandardCharsets.UTF_8), Optional.empty());
+
+        assertEquals("2027-01-01", result.schedule().referenceDate());
+    }
+
+    @Test
+    public void reportsGatingOutcomeAsStatus() throws Exception {
+        SfsReader strict = new SfsReader(TEXT.withPeriodiseringMode(PeriodiseringMode.STRICT));
+        SfsReader.Result result = strict.read(XML.getBytes(StandardCharsets.UTF_8), Optional.empty());
+        assertEquals(SfsReader.Status.PERIODISERING_FAILED, result.status());
+        assertEquals(12, result.status().exitCode());
+
+        SfsReader off = new SfsReader(TEXT.withPeriodiseringMode(PeriodiseringMode.OFF));
+        assertTrue(off.read(XML.getBytes(StandardCharsets.UTF_8), Optional.empty()).periodiseringValidation().isEmpty());
+    }
+
+    @Test
+    public void evaluatesOneParseForSeveralDates() throws Exception {
+        SfsReader reader = new SfsReader(TEXT);
+        SfsReader.Parsed parsed = reader.parse(XML.getBytes(StandardCharsets.UTF_8));
+
+        SfsReader.Result before = reader.evaluate(parsed, Optional.of(LocalDate.parse("2028-06-30")));
+        SfsReader.Result after = reader.evaluate(parsed, Optional.of(LocalDate.parse("2028-07-01")));
+
+        assertNotSame(before.lag(), after.lag());
+        assertTrue(gson.toJson(before.lag()).contains("Gammal lydelse"));
+        assertFalse(gson.toJson(before.lag()).contains("Ny lydelse"));
+        assertTrue(gson.toJson(after.lag()).contains("Ny lydelse"));
+        assertFalse(gson.toJson(after.lag()).contains("Gammal lydelse"));
+        assertEquals("2028-07-01", parsed.schedule(LocalDate.parse("2028-01-01")).orElseThrow().nextTransitionDate());
+    }
+
+    @Test
+    public void throwsInsteadOfExiting() {
+        SfsReader reader = new SfsReader(TEXT);
+        try {
+            reader.read("<html><body>Ingen lag</body></html>".getBytes(StandardCharsets.UTF_8), Optional.empty());
+            fail("Expected failure");
+        } catch (ProcessingException expected) {
+            assertEquals(3, expected.exitCode());
+        }
+    }
+
+    @Test
+    public void canBeSharedBetweenThreads() throws Exception {
+        SfsReader reader = new SfsReader(TEXT);
+        String expected = gson.toJson(reader.read(XML.getBytes(StandardCharsets.UTF_8), Optional.empty()).lag());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() ->
+                        gson.toJson(reader.read(XML.getBytes(StandardCharsets.UTF_8), Optional.empty()).lag())));
+            }
+            for (Future<String> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
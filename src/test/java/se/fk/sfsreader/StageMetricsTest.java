@@ -0,0 +1,63 @@
+package se.fk.sfsreader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StageMetricsTest {
+
+    @Test
+    public void recordsStagesInStartOrder() throws Exception {
+        StageMetrics metrics = new StageMetrics();
+
+        String value = metrics.measure("first", () -> "x".repeat(10_000));
+        metrics.measure("second", () -> Thread.sleep(5));
+
+        StageMetrics.Report report = metrics.report("input.xml", "hybrid");
+        List<StageMetrics.Timing> stages = report.stages();
+
+        assertEquals(10_000, value.length());
+        assertEquals(List.of("first", "second"), stages.stream().map(StageMetrics.Timing::stage).toList());
+        assertTrue(stages.get(1).wallNanos() >= 5_000_000L);
+        assertTrue(stages.get(1).startOffsetNanos() >= stages.get(0).startOffsetNanos());
+        assertEquals(Thread.currentThread().getName(), stages.get(0).thread());
+        assertTrue(report.totalWallNanos() >= stages.get(1).wallNanos());
+        if (stages.get(0).allocatedBytes() >= 0) {
+            assertTrue("Allocated the repeated string", stages.get(0).allocatedBytes() >= 10_000);
+        }
+    }
+
+    @Test
+    public void recordsPeakHeapOfStage() throws Exception {
+        StageMetrics metrics = new StageMetrics();
+
+        int length = metrics.measure("hold", () -> {
+            byte[] held = new byte[64 * 1024 * 1024];
+            return held.length;
+        });
+
+        StageMetrics.Report report = metrics.report("input.xml", "text");
+        long peak = report.stages().getFirst().peakHeapBytes();
+        if (peak >= 0) {
+            assertTrue("Peak covers the held array", peak >= length);
+            assertEquals(peak, report.peakHeapBytes());
+        }
+    }
+
+    @Test
+    public void recordsFailedStageAndPropagatesFailure() throws Exception {
+        StageMetrics metrics = new StageMetrics();
+        try {
+            metrics.measure("failing", () -> {
+                throw new IOException("broken");
+            });
+            fail("Expected failure");
+        } catch (IOException expected) {
+            assertEquals("broken", expected.getMessage());
+        }
+        assertEquals("failing", metrics.report("input.xml", "text").stages().getFirst().stage());
+    }
+}
@@ -0,0 +1,161 @@
+package se.fk.sfsreader;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class WorkQueueTest {
+
+    @Test
+    public void claimsExclusivelyAndRequeuesExpiredLeases() throws Exception {
+        Path dir = Files.createTempDirectory("queue-");
+        WorkQueue queue = new WorkQueue(dir.resolve("queue"), Duration.ofMinutes(10));
+        queue.enqueue(List.of(input(dir, "sfs-2000-1.txt.xml")));
+
+        WorkQueue.Lease first = queue.claim("a").orElseThrow();
+        Path abandoned = queue.stagingDirectory(first);
+        assertTrue(queue.claim("b").isEmpty());
+        assertTrue(queue.requeueExpired().isEmpty());
+        assertEquals(1, queue.status().leased().size());
+
+        // Same queue, seen by a coordinator with a short lease timeout
+        WorkQueue impatient = new WorkQueue(dir.resolve("queue"), Duration.ofMillis(1));
+        Thread.sleep(50);
+        assertTrue(impatient.status().leased().getFirst().expired());
+        assertEquals(List.of("sfs-2000-1.txt.xml"), impatient.requeueExpired());
+        assertFalse(first.isHeld());
+        assertFalse("Staging directory of the expired lease is removed", Files.exists(abandoned));
+        try (Stream<Path> entries = Files.list(dir.resolve("queue/leases"))) {
+            assertEquals("No tombstone left", 0, entries.count());
+        }
+
+        WorkQueue.Lease second = queue.claim("b").orElseThrow();
+        assertTrue(second.isHeld());
+        assertFalse("Lost lease is not published",
+                queue.publish(first, queue.stagingDirectory(first), result(first)));
+        assertTrue(queue.publish(second, queue.stagingDirectory(second), result(second)));
+        assertEquals("b", queue.readResult("sfs-2000-1.txt.xml").orElseThrow().worker());
+        assertTrue(queue.status().isFinished());
+    }
+
+    @Test
+    public void workersShareTheQueueAndPublishEveryInputOnce() throws Exception {
+        Path dir = Files.createTempDirectory("queue-");
+        WorkQueue queue = new WorkQueue(dir.resolve("queue"), Duration.ofMinutes(1));
+        List<Path> inputs = new ArrayList<>();
+        for (int i = 1; i <= 6; i++) {
+            inputs.add(input(dir, "sfs-2000-" + i + ".txt.xml"));
+        }
+        assertEquals(6, queue.enqueue(inputs));
+
+        CorpusRunner.DocumentTask task = (input, outputDirectory, progress) -> {
+            if (input.getFileName().toString().equals("sfs-2000-3.txt.xml")) {
+                throw new ProcessingException(12, "Strict periodisering check failed");
+            }
+            try {
+                Files.writeString(outputDirectory.resolve("output.json"), Files.readString(input), StandardCharsets.UTF_8);
+            } catch (java.io.IOException e) {
+                throw new ProcessingException(3, e.getMessage(), e);
+            }
+        };
+
+        ExecutorService nodes = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<WorkQueue.Result>> a = nodes.submit(() -> new QueueWorker(queue, "a", 2, task, Duration.ofMillis(50)).run());
+            Future<List<WorkQueue.Result>> b = nodes.submit(() -> new QueueWorker(
+                    new WorkQueue(dir.resolve("queue"), Duration.ofMinutes(1)), "b", 1, task, Duration.ofMillis(50)).run());
+            assertEquals(6, a.get().size() + b.get().size());
+        } finally {
+            nodes.shutdownNow();
+        }
+
+        WorkQueue.Status status = queue.status();
+        assertTrue(status.isFinished());
+        assertEquals(1, status.failed());
+        assertEquals("<sfs-2000-5/>", Files.readString(dir.resolve("queue/output/sfs-2000-5/output.json")));
+        try (Stream<Path> entries = Files.list(dir.resolve("queue/output"))) {
+            assertTrue("No staging directories left",
+                    entries.noneMatch(p -> p.getFileName().toString().startsWith(".")));
+        }
+        try (Stream<Path> entries = Files.list(dir.resolve("queue/leases"))) {
+            assertEquals(0, entries.count());
+        }
+    }
+
+    @Test
+    public void heartbeatKeepsLongRunningLeaseAlive() throws Exception {
+        Path dir = Files.createTempDirectory("queue-");
+        WorkQueue queue = new WorkQueue(dir.resolve("queue"), Duration.ofMillis(800));
+        queue.enqueue(List.of(input(dir, "sfs-2000-1.txt.xml")));
+
+        CorpusRunner.DocumentTask slow = (input, outputDirectory, progress) -> {
+            try {
+                Thread.sleep(2_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        ExecutorService node = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<WorkQueue.Result>> worker = node.submit(() -> new QueueWorker(queue, "a", 1, slow, Duration.ofMillis(50)).run());
+            Thread.sleep(1_200);
+            assertEquals(List.of(), new WorkQueue(dir.resolve("queue"), Duration.ofMillis(800)).requeueExpired());
+            assertEquals(1, worker.get().size());
+        } finally {
+            node.shutdownNow();
+        }
+        assertEquals(Optional.of(0), queue.readResult("sfs-2000-1.txt.xml").map(WorkQueue.Result::exitCode));
+    }
+
+    @Test
+    public void heartbeatNeverLeavesTheLeaseEmpty() throws Exception {
+        Path dir = Files.createTempDirectory("queue-");
+        WorkQueue queue = new WorkQueue(dir.resolve("queue"), Duration.ofMinutes(1));
+        queue.enqueue(List.of(input(dir, "sfs-2000-1.txt.xml")));
+        WorkQueue.Lease lease = queue.claim("a").orElseThrow();
+        Path leaseFile = dir.resolve("queue/leases/sfs-2000-1.txt.xml.lease");
+
+        ExecutorService node = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> heartbeats = node.submit(() -> {
+                for (int i = 0; i < 500; i++) {
+                    assertTrue(lease.heartbeat());
+                }
+                return null;
+            });
+            while (!heartbeats.isDone()) {
+                assertTrue("Lease read while being renewed: '" + Files.readString(leaseFile) + "'",
+                        Files.readString(leaseFile).contains("\"worker\": \"a\""));
+            }
+            heartbeats.get();
+        } finally {
+            node.shutdownNow();
+        }
+        assertTrue(Files.readString(leaseFile).contains("\"heartbeats\": 500"));
+        try (Stream<Path> entries = Files.list(dir.resolve("queue/leases"))) {
+            assertEquals(List.of(leaseFile), entries.toList());
+        }
+    }
+
+    private static Path input(Path dir, String name) throws Exception {
+        Path file = dir.resolve(name);
+        Files.writeString(file, "<" + name.replace(".txt.xml", "") + "/>", StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static WorkQueue.Result result(WorkQueue.Lease lease) {
+        return new WorkQueue.Result(lease.input(), lease.worker(), 0, null, 0L, "2026-01-01T00:00:00Z");
+    }
+}
@@ -0,0 +1,69 @@
+#!/usr/bin/env bash
+set -euo pipefail
+
+# Measures payload extraction, including title and SFS number inference, on the bundled inputs:
+# each data/*.txt.xml as is, and its HTML payload on its own as a raw HTML input, for which the
+# metadata has to be inferred. Prints the median of the DocumentSources.from stage in stage-metrics.json.
+#
+#   mvn -q -DskipTests package
+#   tools/benchmark_metadata.sh [runs]
+
+ROOT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")/.." && pwd)"
+RUNS="${1:-5}"
+JAR="${ROOT_DIR}/target/sfsreader-1.0-SNAPSHOT.jar"
+WORK_DIR="$(mktemp -d /tmp/sfsreader-metadata.XXXXXX)"
+trap 'rm -rf "${WORK_DIR}"' EXIT
+
+if [[ ! -f "${JAR}" ]]; then
+  echo "${JAR} missing (mvn -DskipTests package)" >&2
+  exit 1
+fi
+
+# Writes the HTML payload of a dokumentstatus file to a file of its own
+extract_html() {
+  python3 - "$1" "$2" <<'EOF'
+import sys
+import xml.etree.ElementTree as ET
+
+html = ET.parse(sys.argv[1]).getroot().findtext("dokument/html") or ""
+with open(sys.argv[2], "w", encoding="utf-8") as f:
+    f.write(html)
+EOF
+}
+
+# Runs the jar RUNS times on the input and prints the median wall time and allocation of DocumentSources.from
+measure() {
+  local input="$1"
+  local walls=() allocs=()
+  for ((i = 1; i <= RUNS; i++)); do
+    local run_dir="${WORK_DIR}/$(basename "${input}")-${i}"
+    mkdir -p "${run_dir}"
+    cp "${input}" "${run_dir}/"
+    if ! (cd "${run_dir}" && java -jar "${JAR}" -- "${run_dir}/$(basename "${input}")" >"${run_dir}/stdout.txt" 2>&1); then
+      echo "$(basename "${input}"): run ${i} failed, see output below" >&2
+      cat "${run_dir}/stdout.txt" >&2
+      exit 2
+    fi
+    read -r wall alloc < <(python3 - "${run_dir}/stage-metrics.json" <<'EOF'
+import json, sys
+
+stage = next(s for s in json.load(open(sys.argv[1]))["stages"] if s["stage"] == "DocumentSources.from")
+print(stage["wallNanos"] // 1000, stage["allocatedBytes"] // 1024)
+EOF
+    )
+    walls+=("${wall}")
+    allocs+=("${alloc}")
+  done
+  local middle=$(( (RUNS + 1) / 2 ))
+  printf '%-28s %8d us %8d KB\n' "$(basename "${input}")" \
+    "$(printf '%s\n' "${walls[@]}" | sort -n | sed -n "${middle}p")" \
+    "$(printf '%s\n' "${allocs[@]}" | sort -n | sed -n "${middle}p")"
+}
+
+echo "DocumentSources.from, median of ${RUNS} runs (wall time, allocated)"
+for xml in "${ROOT_DIR}"/data/*.txt.xml; do
+  html="${WORK_DIR}/$(basename "${xml}" .txt.xml).html"
+  extract_html "${xml}" "${html}"
+  measure "${xml}"
+  measure "${html}"
+done
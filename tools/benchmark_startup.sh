@@ -0,0 +1,60 @@
+#!/usr/bin/env bash
+set -euo pipefail
+
+# Compares time-to-output.json between the JVM (shaded jar) and the native executable.
+#
+#   mvn -q -DskipTests package && mvn -q -Pnative -DskipTests package
+#   tools/benchmark_startup.sh [input] [runs]
+
+ROOT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")/.." && pwd)"
+INPUT_PATH="${1:-${ROOT_DIR}/data/sfs-2017-900.txt.xml}"
+RUNS="${2:-5}"
+JAR="${ROOT_DIR}/target/sfsreader-1.0-SNAPSHOT.jar"
+NATIVE="${ROOT_DIR}/target/sfsreader"
+WORK_DIR="$(mktemp -d /tmp/sfsreader-startup.XXXXXX)"
+trap 'rm -rf "${WORK_DIR}"' EXIT
+
+if [[ ! -f "${INPUT_PATH}" ]]; then
+  echo "Input file does not exist: ${INPUT_PATH}" >&2
+  exit 1
+fi
+
+# Runs the given command RUNS times and prints the median time in ms until output.json is written
+measure() {
+  local label="$1"
+  shift
+  local times=()
+  for ((i = 1; i <= RUNS; i++)); do
+    local run_dir="${WORK_DIR}/${label}-${i}"
+    mkdir -p "${run_dir}"
+    cp "${INPUT_PATH}" "${run_dir}/"
+    local start end
+    start=$(date +%s%N)
+    if ! (cd "${run_dir}" && "$@" -- "${run_dir}/$(basename "${INPUT_PATH}")" >"${run_dir}/stdout.txt" 2>&1); then
+      echo "${label}: run ${i} failed, see output below" >&2
+      cat "${run_dir}/stdout.txt" >&2
+      exit 2
+    fi
+    end=$(date +%s%N)
+    if [[ ! -s "${run_dir}/output.json" ]]; then
+      echo "${label}: no output.json produced (run ${i})" >&2
+      exit 2
+    fi
+    times+=($(( (end - start) / 1000000 )))
+  done
+  local median
+  median=$(printf '%s\n' "${times[@]}" | sort -n | sed -n "$(( (RUNS + 1) / 2 ))p")
+  printf '%-7s median %6d ms  (runs: %s)\n' "${label}" "${median}" "${times[*]}"
+}
+
+echo "Time to output.json for $(basename "${INPUT_PATH}"), ${RUNS} runs each"
+if [[ -f "${JAR}" ]]; then
+  measure jvm java -jar "${JAR}"
+else
+  echo "jvm: ${JAR} missing (mvn -DskipTests package)" >&2
+fi
+if [[ -x "${NATIVE}" ]]; then
+  measure native "${NATIVE}"
+else
+  echo "native: ${NATIVE} missing (mvn -Pnative -DskipTests package, requires GraalVM)" >&2
+fi
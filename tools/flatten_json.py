@@ -1,5 +1,6 @@
 #!/usr/bin/env python3
 import argparse
+import gzip
 import json
 from pathlib import Path
 from typing import Any, Dict, List
@@ -125,19 +126,33 @@ def assemble_item(item: Dict[str, Any], lag_label: str) -> Dict[str, Any]:
     return out
 
 
+def open_text(path: Path, mode: str):
+    """Opens a text file, gzip-compressed if its name ends in .gz (as written by sfsreader --gzip)."""
+    if path.suffix == ".gz":
+        return gzip.open(path, mode + "t", encoding="utf-8")
+    return path.open(mode, encoding="utf-8")
+
+
+def default_output(input_path: Path) -> Path:
+    """<input-stem>-flat.json next to the input, compressed if the input is."""
+    if input_path.suffix == ".gz":
+        return input_path.with_name(f"{Path(input_path.stem).stem}-flat.json.gz")
+    return input_path.with_name(f"{input_path.stem}-flat.json")
+
+
 def parse_args() -> argparse.Namespace:
     parser = argparse.ArgumentParser(description="Flatten structured legal JSON into one entry per stycke.")
     parser.add_argument(
         "--input",
         "-i",
         default="../data/SFB.json",
-        help="Input JSON file (default: ../data/SFB.json)",
+        help="Input JSON file, may be gzipped (.gz) (default: ../data/SFB.json)",
     )
     parser.add_argument(
         "--output",
         "-o",
         default=None,
-        help="Output JSON file (default: <input-stem>-flat.json in current directory)",
+        help="Output JSON file, gzipped if it ends in .gz (default: <input-stem>-flat.json next to the input, .gz if the input is)",
     )
     return parser.parse_args()
 
@@ -148,10 +163,10 @@ def main() -> None:
     if not input_path.exists():
         raise FileNotFoundError(f"Input file does not exist: {input_path}")
 
-    output_path = Path(args.output) if args.output else input_path.with_name(f"{input_path.stem}-flat.json")
+    output_path = Path(args.output) if args.output else default_output(input_path)
 
     try:
-        with input_path.open("r", encoding="utf-8") as file:
+        with open_text(input_path, "r") as file:
             data = json.load(file)
     except json.JSONDecodeError as exc:
         raise ValueError(
@@ -175,7 +190,7 @@ def main() -> None:
     texts_with_context = extract_texts(data)
     flattened = [assemble_item(item, lag_label) for item in texts_with_context]
 
-    with output_path.open("w", encoding="utf-8") as file:
+    with open_text(output_path, "w") as file:
         json.dump(flattened, file, ensure_ascii=False, indent=2)
         file.write("\n")
 
@@ -0,0 +1,52 @@
+#!/usr/bin/env bash
+set -euo pipefail
+
+# Regenerates the reachability metadata for the native executable with the native-image tracing
+# agent: runs the shaded jar on GraalVM over the bundled inputs, through every mode that reaches
+# Gson or Java serialization, and merges what the agent observed into the metadata in
+# src/main/resources/META-INF/native-image/se.fk/sfsreader. Review the diff before committing it.
+#
+#   mvn -q -DskipTests package
+#   tools/trace_native_metadata.sh        (GraalVM for JDK 21 as JAVA_HOME)
+
+ROOT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")/.." && pwd)"
+JAR="${ROOT_DIR}/target/sfsreader-1.0-SNAPSHOT.jar"
+METADATA_DIR="${ROOT_DIR}/src/main/resources/META-INF/native-image/se.fk/sfsreader"
+JAVA="${JAVA_HOME:+${JAVA_HOME}/bin/}java"
+WORK_DIR="$(mktemp -d /tmp/sfsreader-trace.XXXXXX)"
+trap 'rm -rf "${WORK_DIR}"' EXIT
+
+if [[ ! -f "${JAR}" ]]; then
+  echo "${JAR} missing (mvn -DskipTests package)" >&2
+  exit 1
+fi
+if ! "${JAVA}" -agentlib:native-image-agent -version >/dev/null 2>&1; then
+  echo "${JAVA} has no native-image-agent; set JAVA_HOME to GraalVM for JDK 21" >&2
+  exit 1
+fi
+
+# Runs the jar under the agent in a directory of its own, with a copy of the given inputs
+trace() {
+  local label="$1"
+  shift
+  local run_dir="${WORK_DIR}/${label}"
+  mkdir -p "${run_dir}/in"
+  cp "${ROOT_DIR}"/data/sfs-2017-900.txt.xml "${ROOT_DIR}"/data/sfs-2018-585.txt.xml "${run_dir}/in/"
+  echo "${label}"
+  if ! (cd "${run_dir}" && "${JAVA}" -agentlib:native-image-agent=config-merge-dir="${METADATA_DIR}" \
+      -jar "${JAR}" "$@" -- "${run_dir}/in" >"${run_dir}/stdout.txt" 2>&1); then
+    echo "${label}: failed, see output below" >&2
+    cat "${run_dir}/stdout.txt" >&2
+    exit 2
+  fi
+}
+
+# Reports, LaTeX and output.json for a date and every upcoming transition
+trace hybrid -t "${ROOT_DIR}/template/sfs.stg" -e 2028-07-01 --all-transition-dates
+trace text -s text -e 2028-07-01 --periodisering-mode lenient
+# The parse cache and the adaptive store are Java serialization; the second run reads them back
+trace adaptive -s adaptive --cache-dir "${WORK_DIR}/cache"
+trace adaptive-again -s adaptive --cache-dir "${WORK_DIR}/cache"
+trace bundle -r "${WORK_DIR}/bundle" -j 2 --bundle --resume
+
+echo "Merged into ${METADATA_DIR}"